@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Tests for the EventHeap
+ */
+public class TestEventHeap {
+
+    @Test
+    public void testEmpty() {
+        EventHeap heap = new EventHeap();
+        assertTrue("empty", heap.isEmpty());
+        assertEquals("poll empty", null, heap.poll());
+    }
+
+    @Test
+    public void testStableOrder() {
+        EventHeap heap = new EventHeap(4);
+        Random random = new Random(99);
+        int numEvents = 500;
+        EventScheduler.SchedulableEvent[] events = new EventScheduler.SchedulableEvent[numEvents];
+        for (int i = 0; i < numEvents; i++) {
+            events[i] = new EventScheduler.SchedulableEvent(random.nextInt(20));
+            heap.add(events[i]);
+        }
+        assertEquals("size", numEvents, heap.size());
+        // expected order: by time, then by the order they were added
+        int count = 0;
+        for (long time = 0; time < 20; time++) {
+            for (int i = 0; i < numEvents; i++) {
+                if (events[i].getTimestamp() == time) {
+                    assertEquals("peek", time, heap.peekTime());
+                    assertEquals("event " + i, events[i], heap.poll());
+                    count++;
+                }
+            }
+        }
+        assertEquals("all events", numEvents, count);
+        assertTrue("empty", heap.isEmpty());
+    }
+
+    @Test
+    public void testSteadyStateDoesNotGrow() {
+        EventHeap heap = new EventHeap(8);
+        EventScheduler.SchedulableEvent[] events = new EventScheduler.SchedulableEvent[100];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new EventScheduler.SchedulableEvent(0);
+        }
+        Random random = new Random(7);
+        // fill to the working size once
+        for (EventScheduler.SchedulableEvent event : events) {
+            event.setTimestamp(random.nextInt(1000));
+            heap.add(event);
+        }
+        int capacity = heap.capacity();
+        assertTrue("grown", capacity >= events.length);
+        // then keep polling and re-adding, as the synth does
+        long now = 0;
+        for (int i = 0; i < 100000; i++) {
+            EventScheduler.SchedulableEvent event = heap.poll();
+            assertTrue("not earlier than now", event.getTimestamp() >= now);
+            now = event.getTimestamp();
+            event.setTimestamp(now + random.nextInt(1000));
+            heap.add(event);
+        }
+        assertEquals("capacity", capacity, heap.capacity());
+        assertEquals("size", events.length, heap.size());
+    }
+}
@@ -18,7 +18,12 @@ package com.mobileer.miditools;
 
 import org.junit.Test;
 
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 
 // Uncomment this import if you want to test the internal MidiFramer.
@@ -37,16 +42,109 @@ public class TestEventScheduler {
         EventScheduler.SchedulableEvent event1 = new EventScheduler.SchedulableEvent(time1);
         assertEquals("event time", time1, event1.getTimestamp());
         assertEquals("empty event pool", null,  scheduler.removeEventfromPool());
+        assertEquals("miss", 1, scheduler.getPoolMissCount());
         scheduler.addEventToPool(event1);
-        assertEquals("always leave one event in pool", null,  scheduler.removeEventfromPool());
+        assertEquals("pool size", 1, scheduler.getPoolSize());
+        assertEquals("only event in pool", event1,  scheduler.removeEventfromPool());
+        assertEquals("hit", 1, scheduler.getPoolHitCount());
+        assertEquals("empty again", null,  scheduler.removeEventfromPool());
 
         long time2 = 9817L;
         EventScheduler.SchedulableEvent event2 = new EventScheduler.SchedulableEvent(time2);
-        scheduler.addEventToPool(event2);
-        assertEquals("first event in pool", event1,  scheduler.removeEventfromPool());
-        assertEquals("always leave one event in pool", null,  scheduler.removeEventfromPool());
         scheduler.addEventToPool(event1);
-        assertEquals("second event in pool", event2,  scheduler.removeEventfromPool());
+        scheduler.addEventToPool(event2);
+        assertEquals("last event returned", event2,  scheduler.removeEventfromPool());
+        assertEquals("first event returned", event1,  scheduler.removeEventfromPool());
+        assertEquals("empty event pool", null,  scheduler.removeEventfromPool());
+        assertEquals("hits", 3, scheduler.getPoolHitCount());
+        assertEquals("misses", 3, scheduler.getPoolMissCount());
+    }
+
+    @Test
+    public void testEventPoolOverflow() {
+        EventScheduler scheduler = new EventScheduler(2);
+        for (int i = 0; i < 5; i++) {
+            scheduler.addEventToPool(new EventScheduler.SchedulableEvent(i));
+        }
+        assertEquals("pool size", 2, scheduler.getPoolSize());
+        assertEquals("overflows", 3, scheduler.getPoolOverflowCount());
+    }
+
+    @Test
+    public void testFillEventPool() {
+        MidiEventScheduler scheduler = new MidiEventScheduler();
+        scheduler.fillEventPool(10);
+        assertEquals("pool size", 10, scheduler.getPoolSize());
+        // created events are MIDI events the scheduler can reuse
+        assertTrue("MIDI event",
+                scheduler.removeEventfromPool() instanceof MidiEventScheduler.MidiEvent);
+        // a plain scheduler cannot create events
+        EventScheduler plain = new EventScheduler();
+        plain.fillEventPool(10);
+        assertEquals("plain pool size", 0, plain.getPoolSize());
+    }
+
+    /**
+     * One thread takes events from the pool and schedules them, as the MIDI
+     * receiver does, while another reads them and returns them to the pool.
+     * An event must never be handed out twice or get lost.
+     */
+    @Test
+    public void testEventPoolTwoThreads() throws InterruptedException {
+        final EventScheduler scheduler = new EventScheduler(1000);
+        final int numEvents = 200000;
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < numEvents; i++) {
+                    TrackedEvent event = (TrackedEvent) scheduler.removeEventfromPool();
+                    if (event == null) {
+                        event = new TrackedEvent();
+                        created.incrementAndGet();
+                    }
+                    if (!event.inUse.compareAndSet(false, true)) {
+                        failures.incrementAndGet();
+                    }
+                    event.setTimestamp(i);
+                    scheduler.add(event);
+                }
+            }
+        });
+        writer.start();
+        int received = 0;
+        long deadline = System.currentTimeMillis() + 20000;
+        while (received < numEvents && System.currentTimeMillis() < deadline) {
+            TrackedEvent event = (TrackedEvent) scheduler.getNextEvent(Long.MAX_VALUE);
+            if (event == null) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals("in order", received, event.getTimestamp());
+            if (!event.inUse.compareAndSet(true, false)) {
+                failures.incrementAndGet();
+            }
+            scheduler.addEventToPool(event);
+            received++;
+        }
+        writer.join();
+        assertEquals("received all", numEvents, received);
+        assertEquals("events handed out twice", 0, failures.get());
+        // the writer can run far ahead, so some events are dropped by a full pool
+        assertEquals("every event back in the pool or dropped", created.get(),
+                scheduler.getPoolSize() + scheduler.getPoolOverflowCount());
+        assertEquals("hits and misses", numEvents,
+                scheduler.getPoolHitCount() + scheduler.getPoolMissCount());
+        assertEquals("misses", created.get(), scheduler.getPoolMissCount());
+    }
+
+    private static class TrackedEvent extends EventScheduler.SchedulableEvent {
+        final AtomicBoolean inUse = new AtomicBoolean();
+
+        TrackedEvent() {
+            super(0);
+        }
     }
 
     @Test
@@ -89,4 +187,43 @@ public class TestEventScheduler {
         assertEquals("too soon", null, scheduler.getNextEvent(time1 + 5));
         assertEquals("after 2", event2, scheduler.getNextEvent(time2 + 7));
     }
+
+    @Test
+    public void testSameTimeInOrder() {
+        EventScheduler scheduler = new EventScheduler();
+        long time = 723L;
+        EventScheduler.SchedulableEvent[] events = new EventScheduler.SchedulableEvent[10];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new EventScheduler.SchedulableEvent(time);
+            scheduler.add(events[i]);
+            // an earlier event in between must not disturb the order
+            scheduler.add(new EventScheduler.SchedulableEvent(time - 1));
+        }
+        for (int i = 0; i < events.length; i++) {
+            assertTrue("earlier", scheduler.getNextEvent(time - 1).getTimestamp() < time);
+        }
+        assertEquals("too soon", null, scheduler.getNextEvent(time - 1));
+        for (int i = 0; i < events.length; i++) {
+            assertEquals("in order " + i, events[i], scheduler.getNextEvent(time));
+        }
+        assertEquals("empty", null, scheduler.getNextEvent(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRandomEvents() {
+        EventScheduler scheduler = new EventScheduler();
+        Random random = new Random(1234);
+        int numEvents = 1000;
+        // few distinct times so there are many ties
+        for (int i = 0; i < numEvents; i++) {
+            scheduler.add(new EventScheduler.SchedulableEvent(random.nextInt(50)));
+        }
+        long previous = Long.MIN_VALUE;
+        for (int i = 0; i < numEvents; i++) {
+            EventScheduler.SchedulableEvent event = scheduler.getNextEvent(Long.MAX_VALUE);
+            assertTrue("sorted", event.getTimestamp() >= previous);
+            previous = event.getTimestamp();
+        }
+        assertEquals("empty", null, scheduler.getNextEvent(Long.MAX_VALUE));
+    }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Tests for the MidiEventRing
+ */
+public class TestMidiEventRing {
+
+    private static byte[] noteOn(int pitch) {
+        return new byte[] {(byte) 0x90, (byte) pitch, (byte) 64};
+    }
+
+    @Test
+    public void testSortsByTime() {
+        MidiEventRing ring = new MidiEventRing(8);
+        ring.write(noteOn(62), 0, 3, 200L);
+        ring.write(noteOn(60), 0, 3, 100L);
+        ring.write(noteOn(64), 0, 3, 200L);
+        assertEquals("too soon", null, ring.getNextEvent(99L));
+        MidiEventScheduler.MidiEvent event = ring.getNextEvent(100L);
+        assertEquals("first pitch", 60, event.data[1]);
+        ring.recycle(event);
+        assertEquals("too soon", null, ring.getNextEvent(199L));
+        event = ring.getNextEvent(300L);
+        assertEquals("same time, first added", 62, event.data[1]);
+        assertEquals("time", 200L, event.getTimestamp());
+        ring.recycle(event);
+        event = ring.getNextEvent(300L);
+        assertEquals("same time, second added", 64, event.data[1]);
+        ring.recycle(event);
+        assertEquals("empty", null, ring.getNextEvent(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testSplitsLongMessages() {
+        MidiEventRing ring = new MidiEventRing(8);
+        byte[] sysex = new byte[40];
+        for (int i = 0; i < sysex.length; i++) {
+            sysex[i] = (byte) i;
+        }
+        assertTrue("written", ring.write(sysex, 0, sysex.length, 5L));
+        int received = 0;
+        MidiEventScheduler.MidiEvent event = ring.getNextEvent(5L);
+        while (event != null) {
+            for (int i = 0; i < event.count; i++) {
+                assertEquals("byte " + received, (byte) received, event.data[i]);
+                received++;
+            }
+            ring.recycle(event);
+            event = ring.getNextEvent(5L);
+        }
+        assertEquals("all bytes", sysex.length, received);
+    }
+
+    @Test
+    public void testDropsWhenFull() {
+        MidiEventRing ring = new MidiEventRing(4);
+        // the reader holds its pending events, and then the ring fills up
+        for (int i = 0; i < 4; i++) {
+            assertTrue("fits " + i, ring.write(noteOn(60 + i), 0, 3, 1000L + i));
+        }
+        assertEquals("not due", null, ring.getNextEvent(0L));
+        for (int i = 0; i < 4; i++) {
+            assertTrue("fits in ring " + i, ring.write(noteOn(70 + i), 0, 3, 2000L + i));
+        }
+        assertEquals("full", false, ring.write(noteOn(80), 0, 3, 3000L));
+        assertEquals("dropped", 1, ring.getDroppedCount());
+        for (int i = 0; i < 8; i++) {
+            MidiEventScheduler.MidiEvent event = ring.getNextEvent(Long.MAX_VALUE);
+            assertEquals("pitch " + i, (i < 4) ? 60 + i : 66 + i, event.data[1]);
+            ring.recycle(event);
+        }
+        assertEquals("empty", null, ring.getNextEvent(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testTwoThreads() throws InterruptedException {
+        final MidiEventRing ring = new MidiEventRing(64);
+        final int numMessages = 200000;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] msg = new byte[3];
+                for (int i = 0; i < numMessages; i++) {
+                    msg[0] = (byte) 0x90;
+                    msg[1] = (byte) (i & 0x7F);
+                    msg[2] = (byte) ((i >> 7) & 0x7F);
+                    while (!ring.write(msg, 0, 3, i)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        writer.start();
+        int expected = 0;
+        long deadline = System.currentTimeMillis() + 20000;
+        while (expected < numMessages && System.currentTimeMillis() < deadline) {
+            MidiEventScheduler.MidiEvent event = ring.getNextEvent(Long.MAX_VALUE);
+            if (event == null) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals("timestamp", expected, event.getTimestamp());
+            assertEquals("low byte", expected & 0x7F, event.data[1]);
+            assertEquals("high byte", (expected >> 7) & 0x7F, event.data[2]);
+            ring.recycle(event);
+            expected++;
+        }
+        writer.join();
+        assertEquals("received all", numMessages, expected);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Tests for the AudioClock
+ */
+public class TestAudioClock {
+    private static final int FRAME_RATE = 48000;
+    private static final long NANOS_PER_FRAME = 1000000000L / FRAME_RATE; // 20833
+
+    private static AudioClock createClock() {
+        AudioClock clock = new AudioClock();
+        clock.setFrameRate(FRAME_RATE);
+        clock.reset(1000, 5000000000L);
+        return clock;
+    }
+
+    @Test
+    public void testFrameToNanos() {
+        AudioClock clock = createClock();
+        assertEquals("reference", 5000000000L, clock.frameToNanos(1000));
+        assertEquals("one second later", 6000000000L, clock.frameToNanos(1000 + FRAME_RATE));
+        assertEquals("before", 4000000000L, clock.frameToNanos(1000 - FRAME_RATE));
+    }
+
+    @Test
+    public void testNanosToFrameRoundsUp() {
+        AudioClock clock = createClock();
+        assertEquals("exact", 1000, clock.nanosToFrame(5000000000L));
+        assertEquals("just after", 1001, clock.nanosToFrame(5000000001L));
+        assertEquals("just before", 1000, clock.nanosToFrame(4999999999L));
+        assertEquals("frame before", 999, clock.nanosToFrame(5000000000L - NANOS_PER_FRAME - 1));
+        for (long frame = 0; frame < 2000; frame += 7) {
+            assertEquals("round trip " + frame, frame,
+                    clock.nanosToFrame(clock.frameToNanos(frame)));
+        }
+    }
+
+    @Test
+    public void testFirstTimestampIsApplied() {
+        AudioClock clock = createClock();
+        assertEquals("estimate only", false, clock.hasTimestamp());
+        // the estimate was 3 ms early
+        clock.update(1000 + FRAME_RATE, 6003000000L);
+        assertTrue("has timestamp", clock.hasTimestamp());
+        assertEquals("corrected", 6003000000L, clock.frameToNanos(1000 + FRAME_RATE));
+    }
+
+    @Test
+    public void testSmallCorrectionsAreSmoothed() {
+        AudioClock clock = createClock();
+        clock.update(1000, 5000000000L);
+        // a timestamp 1 ms late only moves the clock a little
+        clock.update(1000 + FRAME_RATE, 6001000000L);
+        long moved = clock.frameToNanos(1000 + FRAME_RATE) - 6000000000L;
+        assertTrue("moved toward it", moved > 0 && moved < 500000);
+        // repeated, the clock converges
+        for (int i = 2; i < 100; i++) {
+            clock.update(1000 + i * FRAME_RATE, 5001000000L + i * 1000000000L);
+        }
+        assertEquals("converged", 105001000000L, clock.frameToNanos(1000 + 100 * FRAME_RATE),
+                100000);
+    }
+
+    @Test
+    public void testLargeCorrectionsAreApplied() {
+        AudioClock clock = createClock();
+        clock.update(1000, 5000000000L);
+        // e.g. after an underrun the output is 50 ms behind
+        clock.update(1000 + FRAME_RATE, 6050000000L);
+        assertEquals("jumped", 6050000000L, clock.frameToNanos(1000 + FRAME_RATE));
+    }
+
+    @Test
+    public void testLargeReference() {
+        // 60 hours after boot, more frames than fit in an int
+        long referenceNanos = 60L * 3600L * 1000000000L;
+        long referenceFrame = 60L * 3600L * FRAME_RATE;
+        AudioClock clock = new AudioClock();
+        clock.setFrameRate(FRAME_RATE);
+        clock.reset(referenceFrame, referenceNanos);
+        assertEquals("zero", 0, clock.nanosToFrame(0));
+        assertEquals("frame zero", 0, clock.frameToNanos(0));
+        assertEquals("just after", referenceFrame + 1, clock.nanosToFrame(referenceNanos + 1));
+        assertEquals("frame before", referenceNanos - NANOS_PER_FRAME - 1,
+                clock.frameToNanos(referenceFrame - 1));
+    }
+}
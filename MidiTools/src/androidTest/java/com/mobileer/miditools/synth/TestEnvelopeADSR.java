@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Tests for the segments of EnvelopeADSR and the voices that use them.
+ */
+public class TestEnvelopeADSR {
+    private static final int SAMPLE_RATE = 48000;
+
+    private static EnvelopeADSR createEnvelope() {
+        EnvelopeADSR envelope = new EnvelopeADSR(SAMPLE_RATE);
+        envelope.setAttackTime(0.001f); // 48 frames
+        envelope.setDecayTime(0.002f); // 96 frames from 1 to 0
+        envelope.setSustainLevel(0.5f);
+        envelope.setReleaseTime(0.004f); // 192 frames from 1 to 0
+        return envelope;
+    }
+
+    // number of frames until the envelope reaches level
+    private static int framesUntil(EnvelopeADSR envelope, float level) {
+        int frames = 0;
+        float value;
+        do {
+            value = envelope.render();
+            frames++;
+        } while (value != level && frames < 100000);
+        return frames;
+    }
+
+    @Test
+    public void testSegments() {
+        EnvelopeADSR envelope = createEnvelope();
+        envelope.on();
+        assertEquals("attack", 48, framesUntil(envelope, 1.0f), 1);
+        assertEquals("decay", 48, framesUntil(envelope, 0.5f), 1);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("sustain", 0.5f, envelope.render(), 0.0f);
+        }
+        envelope.off();
+        assertEquals("release", 96, framesUntil(envelope, 0.0f), 1);
+        assertTrue("done", envelope.isDone());
+    }
+
+    @Test
+    public void testReleaseDuringAttack() {
+        EnvelopeADSR envelope = createEnvelope();
+        envelope.on();
+        for (int i = 0; i < 24; i++) {
+            envelope.render();
+        }
+        assertEquals("half way", 0.5f, envelope.getLevel(), 0.03f);
+        envelope.off();
+        // falls from where it was at the release rate
+        assertEquals("release", 96, framesUntil(envelope, 0.0f), 3);
+        assertTrue("done", envelope.isDone());
+    }
+
+    @Test
+    public void testConstantBlocks() {
+        EnvelopeADSR envelope = createEnvelope();
+        float[] out = new float[64];
+        Arrays.fill(out, -1.0f);
+        assertTrue("idle", envelope.renderRamp(out, 0, out.length));
+        assertEquals("idle level", 0.0f, envelope.getLevel(), 0.0f);
+        assertEquals("not written", -1.0f, out[0], 0.0f);
+
+        envelope.on();
+        assertEquals("attack ramps", false, envelope.renderRamp(out, 0, out.length));
+        // attack ends in this block, and the decay carries on
+        float peak = 0.0f;
+        for (float value : out) {
+            peak = Math.max(peak, value);
+        }
+        assertEquals("peak", 1.0f, peak, 0.0f);
+        assertTrue("decaying", out[63] < 1.0f);
+        assertEquals("decay ramps", false, envelope.renderRamp(out, 0, out.length));
+        // decay ends in this block, and the rest holds the sustain level
+        assertEquals("sustain reached", 0.5f, out[63], 0.0f);
+
+        Arrays.fill(out, -1.0f);
+        assertTrue("sustain", envelope.renderRamp(out, 0, out.length));
+        assertEquals("sustain level", 0.5f, envelope.getLevel(), 0.0f);
+        assertEquals("not written", -1.0f, out[0], 0.0f);
+
+        envelope.off();
+        assertEquals("release ramps", false, envelope.renderRamp(out, 0, out.length));
+        assertEquals("release ramps", false, envelope.renderRamp(out, 0, out.length));
+        assertTrue("done", envelope.isDone());
+        assertTrue("finished", envelope.renderRamp(out, 0, out.length));
+        assertEquals("finished level", 0.0f, envelope.getLevel(), 0.0f);
+    }
+
+    @Test
+    public void testVoiceSustain() {
+        // long enough to get through the decay into sustain
+        SynthVoice a = new SawVoice(SAMPLE_RATE);
+        SynthVoice b = new SawVoice(SAMPLE_RATE);
+        a.noteOn(60, 100);
+        b.noteOn(60, 100);
+        float[] actual = new float[10000];
+        b.renderBlock(actual, 0, actual.length);
+        for (int i = 0; i < actual.length; i++) {
+            assertEquals("frame " + i, a.render(), actual[i], 1e-6f);
+        }
+    }
+
+    @Test
+    public void testFinishedVoice() {
+        SawVoice voice = new SawVoice(SAMPLE_RATE);
+        voice.noteOn(60, 100);
+        voice.noteOff();
+        float[] out = new float[2 * SAMPLE_RATE];
+        voice.renderBlock(out, 0, SAMPLE_RATE); // the release lasts 1 second at most
+        assertTrue("done", voice.isDone());
+        Arrays.fill(out, 0.0f);
+        voice.mix(out, 0, SAMPLE_RATE, 2, 1.0f);
+        for (float value : out) {
+            assertEquals("silent", 0.0f, value, 0.0f);
+        }
+        voice.renderBlock(out, 0, 100);
+        assertEquals("rendered silence", 0.0f, out[99], 0.0f);
+    }
+}
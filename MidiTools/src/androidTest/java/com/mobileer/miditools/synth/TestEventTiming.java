@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import android.media.AudioTimestamp;
+
+import com.mobileer.miditools.MidiConstants;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how close to their timestamps the SynthEngine renders MIDI events.
+ *
+ * The engine renders into a fake output that records the audio and reports
+ * timestamps as a real one would, for a stream presented from a known time.
+ * Notes on the sample channel start a constant sound, whose first non-zero
+ * frame is compared with the frame at which its note on should be heard.
+ */
+public class TestEventTiming {
+    private static final int FRAME_RATE = 48000;
+    private static final int FRAMES_PER_BLOCK = 192;
+    private static final int NUM_NOTES = 20;
+    private static final long NOTE_INTERVAL_NANOS = 100000000L; // 100 ms
+    private static final long NOTE_LENGTH_NANOS = 30000000L; // 30 ms
+    private static final long FIRST_NOTE_NANOS = 50000000L; // 50 ms
+    private static final long HOUR_NANOS = 3600L * 1000000000L;
+
+    /**
+     * Records what the engine writes. The stream is presented from
+     * mStartNanos, and the timestamps it reports are off by up to
+     * mJitterNanos, as those of an AudioTrack are. They can also be moved
+     * by mOffsetNanos, as if the device had been up for that long.
+     */
+    private static class RecordingAudioOutput extends SimpleAudioOutput {
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mRelease = new CountDownLatch(1);
+        final float[] mRecording;
+        volatile int mRecordedFrames;
+        volatile long mStartNanos;
+        private final long mJitterNanos;
+        private final long mOffsetNanos;
+        private final Random mRandom = new Random(42);
+
+        RecordingAudioOutput(int numFrames, long jitterNanos) {
+            this(numFrames, jitterNanos, 0);
+        }
+
+        RecordingAudioOutput(int numFrames, long jitterNanos, long offsetNanos) {
+            mRecording = new float[numFrames];
+            mJitterNanos = jitterNanos;
+            mOffsetNanos = offsetNanos;
+        }
+
+        @Override
+        public void start(int framesPerBlock) {
+            mStartNanos = System.nanoTime();
+            mRecordedFrames = 0;
+            mStarted.countDown();
+        }
+
+        @Override
+        public int getFrameRate() {
+            return FRAME_RATE;
+        }
+
+        @Override
+        public int write(float[] buffer, int offset, int length) {
+            try {
+                mRelease.await();
+            } catch (InterruptedException e) {
+                return 0;
+            }
+            int frames = length / SAMPLES_PER_FRAME;
+            int recorded = mRecordedFrames;
+            for (int i = 0; i < frames && recorded < mRecording.length; i++) {
+                mRecording[recorded++] = buffer[offset + i * SAMPLES_PER_FRAME];
+            }
+            mRecordedFrames = recorded;
+            return length;
+        }
+
+        @Override
+        public boolean getTimestamp(AudioTimestamp timestamp) {
+            // the output is presenting frames written a while ago
+            long frame = Math.max(0, mRecordedFrames - 1000);
+            long jitter = (long) ((2.0 * mRandom.nextDouble() - 1.0) * mJitterNanos);
+            timestamp.framePosition = frame;
+            timestamp.nanoTime = mStartNanos + mOffsetNanos
+                    + (frame * 1000000000L) / FRAME_RATE + jitter;
+            return true;
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    private static AudioSample constantSample() {
+        short[] data = new short[2 * 1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 16384;
+        }
+        return new AudioSample(data, 1000, FRAME_RATE);
+    }
+
+    private static void send(SynthEngine engine, byte status, long timestamp)
+            throws IOException {
+        byte[] msg = {(byte) (status | SynthEngine.SAMPLE_CHANNEL), 60, 127};
+        engine.send(msg, 0, msg.length, timestamp);
+    }
+
+    /**
+     * @return for each note, the frame it was heard on minus the frame it
+     *         should have been heard on
+     */
+    private static long[] measureOnsetErrors(long jitterNanos)
+            throws IOException, InterruptedException {
+        long lastNanos = FIRST_NOTE_NANOS + NUM_NOTES * NOTE_INTERVAL_NANOS;
+        int numFrames = (int) (lastNanos * FRAME_RATE / 1000000000L);
+        RecordingAudioOutput output = new RecordingAudioOutput(numFrames, jitterNanos);
+        SynthEngine engine = new SynthEngine(output);
+        engine.setFramesPerBlock(FRAMES_PER_BLOCK);
+        engine.getSamplePlayer().setLooping(true);
+        engine.getSamplePlayer().setSample(constantSample());
+        engine.start();
+        try {
+            assertTrue("started", output.mStarted.await(5, TimeUnit.SECONDS));
+            // Odd offsets so the notes do not line up with blocks or frames.
+            Random random = new Random(7);
+            long[] noteNanos = new long[NUM_NOTES];
+            for (int i = 0; i < NUM_NOTES; i++) {
+                noteNanos[i] = output.mStartNanos + FIRST_NOTE_NANOS + i * NOTE_INTERVAL_NANOS
+                        + random.nextInt(10000000);
+                send(engine, MidiConstants.STATUS_NOTE_ON, noteNanos[i]);
+                send(engine, MidiConstants.STATUS_NOTE_OFF, noteNanos[i] + NOTE_LENGTH_NANOS);
+            }
+            output.mRelease.countDown();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (output.mRecordedFrames < numFrames && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals("recorded", numFrames, output.mRecordedFrames);
+
+            long[] errors = new long[NUM_NOTES];
+            int note = 0;
+            float previous = 0.0f;
+            for (int frame = 0; frame < numFrames && note < NUM_NOTES; frame++) {
+                float value = output.mRecording[frame];
+                if (previous == 0.0f && value != 0.0f) {
+                    // first frame presented at or after the note's timestamp
+                    long expected = ((noteNanos[note] - output.mStartNanos) * FRAME_RATE
+                            + 999999999L) / 1000000000L;
+                    errors[note++] = frame - expected;
+                }
+                previous = value;
+            }
+            assertEquals("onsets", NUM_NOTES, note);
+            return errors;
+        } finally {
+            engine.stop();
+        }
+    }
+
+    private static double mean(long[] errors) {
+        double sum = 0.0;
+        for (long error : errors) {
+            sum += error;
+        }
+        return sum / errors.length;
+    }
+
+    @Test
+    public void testExactTimestamps() throws IOException, InterruptedException {
+        long[] errors = measureOnsetErrors(0);
+        assertEquals("mean error", 0.0, mean(errors), 0.5);
+        for (int i = 0; i < errors.length; i++) {
+            assertTrue("note " + i + " off by " + errors[i], Math.abs(errors[i]) <= 1);
+        }
+    }
+
+    @Test
+    public void testJitteryTimestamps() throws IOException, InterruptedException {
+        // timestamps off by up to 0.5 msec, 24 frames
+        long jitterNanos = 500000L;
+        long[] errors = measureOnsetErrors(jitterNanos);
+        // Without splitting blocks the error would be up to a whole block.
+        long maxError = jitterNanos * FRAME_RATE / 1000000000L + 1;
+        // The clock smooths the jitter, so on average the notes are closer.
+        assertEquals("mean error", 0.0, mean(errors), maxError / 2.0);
+        for (int i = 0; i < errors.length; i++) {
+            assertTrue("note " + i + " off by " + errors[i], Math.abs(errors[i]) <= maxError);
+        }
+    }
+
+    @Test
+    public void testTimestampZeroWithLargeClockReference() throws IOException, InterruptedException {
+        // The clock is 60 hours past timestamp 0, more frames than an int holds.
+        int numFrames = 10 * FRAMES_PER_BLOCK;
+        RecordingAudioOutput output = new RecordingAudioOutput(numFrames, 0, 60 * HOUR_NANOS);
+        SynthEngine engine = new SynthEngine(output);
+        engine.setFramesPerBlock(FRAMES_PER_BLOCK);
+        engine.getSamplePlayer().setLooping(true);
+        engine.getSamplePlayer().setSample(constantSample());
+        engine.start();
+        try {
+            assertTrue("started", output.mStarted.await(5, TimeUnit.SECONDS));
+            send(engine, MidiConstants.STATUS_NOTE_ON, 0);
+            output.mRelease.countDown();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (output.mRecordedFrames < numFrames && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            // the synthesis thread kept running
+            assertEquals("recorded", numFrames, output.mRecordedFrames);
+            int onset = 0;
+            while (onset < numFrames && output.mRecording[onset] == 0.0f) {
+                onset++;
+            }
+            // played as soon as it was received, in the first or second block
+            assertTrue("onset at " + onset, onset < 2 * FRAMES_PER_BLOCK);
+        } finally {
+            engine.stop();
+        }
+    }
+}
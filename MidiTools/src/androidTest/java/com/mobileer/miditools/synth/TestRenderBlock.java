@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit Tests that check renderBlock() produces what render() does, one
+ * sample at a time.
+ */
+public class TestRenderBlock {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int[] BLOCK_SIZES = {1, 7, 64, 300};
+
+    private static void assertSameOutput(String name, SynthUnit perSample, SynthUnit perBlock) {
+        for (int frames : BLOCK_SIZES) {
+            float[] expected = new float[frames + 3];
+            float[] actual = new float[frames + 3];
+            for (int i = 0; i < frames; i++) {
+                expected[i + 3] = perSample.render();
+            }
+            perBlock.renderBlock(actual, 3, frames);
+            for (int i = 0; i < actual.length; i++) {
+                assertEquals(name + " block " + frames + " frame " + i,
+                        expected[i], actual[i], 1e-6f);
+            }
+        }
+    }
+
+    private static void setUp(SawOscillator oscillator, float pitch) {
+        oscillator.setPitch(pitch);
+        oscillator.setAmplitude(0.7f);
+    }
+
+    @Test
+    public void testSawOscillator() {
+        SawOscillator a = new SawOscillator();
+        SawOscillator b = new SawOscillator();
+        setUp(a, 69);
+        setUp(b, 69);
+        assertSameOutput("saw", a, b);
+    }
+
+    @Test
+    public void testSineOscillator() {
+        SineOscillator a = new SineOscillator();
+        SineOscillator b = new SineOscillator();
+        setUp(a, 81);
+        setUp(b, 81);
+        assertSameOutput("sine", a, b);
+    }
+
+    @Test
+    public void testSawOscillatorDPW() {
+        SawOscillatorDPW a = new SawOscillatorDPW();
+        SawOscillatorDPW b = new SawOscillatorDPW();
+        setUp(a, 100);
+        setUp(b, 100);
+        assertSameOutput("dpw", a, b);
+    }
+
+    @Test
+    public void testVeryHighFrequency() {
+        // faster than one cycle per sample takes the slow path
+        SawOscillator a = new SawOscillator();
+        SawOscillator b = new SawOscillator();
+        a.setFrequency(60000.0f);
+        b.setFrequency(60000.0f);
+        assertSameOutput("high saw", a, b);
+    }
+
+    @Test
+    public void testEnvelope() {
+        EnvelopeADSR a = new EnvelopeADSR(SAMPLE_RATE);
+        EnvelopeADSR b = new EnvelopeADSR(SAMPLE_RATE);
+        for (EnvelopeADSR envelope : new EnvelopeADSR[] {a, b}) {
+            envelope.setAttackTime(0.002f);
+            envelope.setDecayTime(0.003f);
+            envelope.setReleaseTime(0.004f);
+        }
+        assertSameOutput("idle", a, b);
+        a.on();
+        b.on();
+        // attack, decay and into sustain
+        for (int i = 0; i < 5; i++) {
+            assertSameOutput("on", a, b);
+        }
+        a.off();
+        b.off();
+        for (int i = 0; i < 5; i++) {
+            assertSameOutput("off", a, b);
+        }
+        assertEquals("finished", true, b.isDone());
+    }
+
+    @Test
+    public void testVoice() {
+        SynthVoice a = new SineVoice(SAMPLE_RATE);
+        SynthVoice b = new SineVoice(SAMPLE_RATE);
+        a.noteOn(64, 100);
+        b.noteOn(64, 100);
+        float[] expected = new float[2 * 500];
+        float[] actual = new float[2 * 500];
+        for (int i = 0; i < 500; i++) {
+            float output = a.render() * 0.25f;
+            expected[2 * i] = output;
+            expected[2 * i + 1] = output;
+        }
+        b.mix(actual, 0, 500, 2, 0.25f);
+        for (int i = 0; i < actual.length; i++) {
+            assertEquals("sample " + i, expected[i], actual[i], 1e-6f);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Tests for the SamplePlayer
+ */
+public class TestSamplePlayer {
+    private static final int FRAME_RATE = 1000;
+    private static final int RAMP_FRAMES = 10; // 10 msec at 1000 Hz
+    private static final short LEVEL = 16384;
+
+    private static AudioSample constantSample(int numFrames) {
+        short[] data = new short[numFrames * 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = LEVEL;
+        }
+        return new AudioSample(data, numFrames, FRAME_RATE);
+    }
+
+    private static SamplePlayer createPlayer(AudioSample sample, boolean looping) {
+        SamplePlayer player = new SamplePlayer();
+        player.setFrameRate(FRAME_RATE);
+        player.setLooping(looping);
+        player.setSample(sample);
+        return player;
+    }
+
+    @Test
+    public void testSilentUntilStarted() {
+        SamplePlayer player = createPlayer(constantSample(100), true);
+        float[] buffer = new float[2 * 32];
+        player.mix(buffer, 2);
+        for (float value : buffer) {
+            assertEquals("silent", 0.0f, value, 0.0f);
+        }
+        assertEquals("not playing", false, player.isPlaying());
+    }
+
+    @Test
+    public void testEmptySample() {
+        SamplePlayer player = createPlayer(constantSample(0), true);
+        player.start(1.0f);
+        assertEquals("not playing", false, player.isPlaying());
+        float[] buffer = new float[2 * 32];
+        player.mix(buffer, 2);
+        for (float value : buffer) {
+            assertEquals("silent", 0.0f, value, 0.0f);
+        }
+    }
+
+    @Test
+    public void testStartRamp() {
+        SamplePlayer player = createPlayer(constantSample(100), true);
+        player.start(1.0f);
+        assertEquals("playing", true, player.isPlaying());
+        float[] buffer = new float[2 * 32];
+        player.mix(buffer, 2);
+        assertTrue("first frame is ramping", buffer[0] > 0.0f && buffer[0] < 0.5f);
+        for (int i = 1; i < RAMP_FRAMES; i++) {
+            assertTrue("ramp rises", buffer[2 * i] > buffer[2 * (i - 1)]);
+        }
+        assertEquals("full level after the ramp", 0.5f, buffer[2 * RAMP_FRAMES], 1e-4f);
+        assertEquals("right channel", buffer[2 * RAMP_FRAMES], buffer[2 * RAMP_FRAMES + 1], 0.0f);
+    }
+
+    @Test
+    public void testStopRamp() {
+        SamplePlayer player = createPlayer(constantSample(100), true);
+        player.start(1.0f);
+        player.mix(new float[2 * 32], 2);
+        player.stop();
+        assertEquals("still fading", true, player.isPlaying());
+        float[] buffer = new float[2 * 32];
+        player.mix(buffer, 2);
+        assertTrue("fading out", buffer[0] < 0.5f && buffer[0] > 0.0f);
+        assertEquals("silent after the ramp", 0.0f, buffer[2 * RAMP_FRAMES], 0.0f);
+        assertEquals("stopped", false, player.isPlaying());
+    }
+
+    @Test
+    public void testOneShotEnds() {
+        SamplePlayer player = createPlayer(constantSample(40), false);
+        player.start(1.0f);
+        float[] buffer = new float[2 * 64];
+        player.mix(buffer, 2);
+        assertEquals("stopped at the end", false, player.isPlaying());
+        assertEquals("last frame played", 0.5f, buffer[2 * 39], 1e-4f);
+        assertEquals("nothing after the end", 0.0f, buffer[2 * 40], 0.0f);
+    }
+
+    @Test
+    public void testLooping() {
+        SamplePlayer player = createPlayer(constantSample(40), true);
+        player.start(1.0f);
+        float[] buffer = new float[2 * 64];
+        player.mix(buffer, 2);
+        assertEquals("still playing", true, player.isPlaying());
+        assertEquals("wrapped around", 0.5f, buffer[2 * 50], 1e-4f);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit Tests that check units and voices follow the sample rate they are given.
+ */
+public class TestSampleRate {
+    private static final int[] RATES = {22050, 44100, 48000, 96000};
+
+    // number of times the signal rises through zero
+    private static int countRisingZeroCrossings(float[] buffer) {
+        int count = 0;
+        for (int i = 1; i < buffer.length; i++) {
+            if (buffer[i - 1] < 0.0f && buffer[i] >= 0.0f) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testPhaseIncrement() {
+        for (int rate : RATES) {
+            SawOscillator oscillator = new SawOscillator();
+            oscillator.setFrequency(441.0f);
+            oscillator.setSampleRate(rate);
+            assertEquals("rate set last " + rate, 2.0f * 441.0f / rate,
+                    oscillator.getPhaseIncrement(), 1e-7f);
+            oscillator = new SawOscillator();
+            oscillator.setSampleRate(rate);
+            oscillator.setFrequency(441.0f);
+            assertEquals("rate set first " + rate, 2.0f * 441.0f / rate,
+                    oscillator.getPhaseIncrement(), 1e-7f);
+        }
+    }
+
+    @Test
+    public void testWavetablePeriod() {
+        WavetableOscillator oscillator = new WavetableOscillator(WavetableBank.SAW);
+        oscillator.setSampleRate(44100);
+        oscillator.setFrequency(441.0f); // 100 frames per cycle
+        float[] out = new float[1000];
+        oscillator.renderBlock(out, 0, out.length);
+        for (int i = 0; i < out.length - 100; i++) {
+            assertEquals("frame " + i, out[i], out[i + 100], 1e-3f);
+        }
+    }
+
+    @Test
+    public void testWavetableLevelFollowsRate() {
+        // the same note needs fewer harmonics at a lower rate
+        WavetableOscillator oscillator = new WavetableOscillator(WavetableBank.SAW);
+        oscillator.setFrequency(2000.0f);
+        int level48000 = WavetableBank.selectLevel(oscillator.getPhaseIncrement());
+        oscillator.setSampleRate(24000);
+        int level24000 = WavetableBank.selectLevel(oscillator.getPhaseIncrement());
+        assertEquals("one octave fewer", level48000 + 1, level24000);
+    }
+
+    @Test
+    public void testEnvelopeTimes() {
+        for (int rate : RATES) {
+            EnvelopeADSR envelope = new EnvelopeADSR(8000);
+            envelope.setAttackTime(0.01f);
+            envelope.setSampleRate(rate);
+            envelope.on();
+            int frames = 0;
+            while (envelope.render() < 1.0f) {
+                frames++;
+            }
+            assertEquals("attack frames at " + rate, rate / 100, frames, 2);
+        }
+    }
+
+    @Test
+    public void testDPWLevel() {
+        float[] peaks = new float[RATES.length];
+        for (int r = 0; r < RATES.length; r++) {
+            SawOscillatorDPW oscillator = new SawOscillatorDPW();
+            oscillator.setSampleRate(RATES[r]);
+            oscillator.setFrequency(300.0f);
+            float[] out = new float[RATES[r] / 10];
+            oscillator.renderBlock(out, 0, out.length);
+            // skip the start, where the differentiator has no history
+            for (int i = 10; i < out.length; i++) {
+                peaks[r] = Math.max(peaks[r], Math.abs(out[i]));
+            }
+        }
+        for (int r = 1; r < RATES.length; r++) {
+            assertEquals("peak at " + RATES[r], peaks[0], peaks[r], 0.1f * peaks[0]);
+        }
+    }
+
+    @Test
+    public void testVoice() {
+        SynthVoice voice = new SineVoice(48000);
+        voice.setSampleRate(24000);
+        voice.noteOn(69, 100);
+        float[] out = new float[24000];
+        voice.renderBlock(out, 0, out.length);
+        assertEquals("cycles in one second", 440, countRisingZeroCrossings(out), 1);
+    }
+
+    @Test
+    public void testAllocator() {
+        SynthVoice[] voices = new SynthVoice[4];
+        for (int i = 0; i < voices.length; i++) {
+            voices[i] = new SawVoice(48000);
+        }
+        VoiceAllocator allocator = new VoiceAllocator(voices);
+        allocator.setSampleRate(32000);
+        allocator.noteOn(57, 100);
+        float[] out = new float[32000];
+        allocator.mix(out, 0, out.length, 1, 1.0f);
+        assertEquals("cycles in one second", 220, countRisingZeroCrossings(out), 1);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Tests for the VoiceAllocator
+ */
+public class TestVoiceAllocator {
+
+    /** A voice whose level and end are set by the test. */
+    private static class TestVoice extends SynthVoice {
+        boolean mReleased;
+        boolean mFinished;
+        float mLevel = 1.0f;
+        float mScaler = 1.0f;
+        int mRenders;
+
+        @Override
+        public void noteOn(int noteIndex, int velocity) {
+            super.noteOn(noteIndex, velocity);
+            mReleased = false;
+            mFinished = false;
+        }
+
+        @Override
+        public void noteOff() {
+            mReleased = true;
+        }
+
+        @Override
+        public void setFrequencyScaler(float scaler) {
+            mScaler = scaler;
+        }
+
+        @Override
+        public float render() {
+            mRenders++;
+            return 1.0f;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mFinished;
+        }
+
+        @Override
+        public float getLevel() {
+            return mLevel;
+        }
+    }
+
+    private static TestVoice[] createVoices(int count) {
+        TestVoice[] voices = new TestVoice[count];
+        for (int i = 0; i < count; i++) {
+            voices[i] = new TestVoice();
+        }
+        return voices;
+    }
+
+    @Test
+    public void testNoteOnOff() {
+        TestVoice[] voices = createVoices(4);
+        VoiceAllocator allocator = new VoiceAllocator(voices);
+        SynthVoice voice = allocator.noteOn(60, 100);
+        assertEquals("first free voice", voices[0], voice);
+        assertEquals("mapped", voice, allocator.getVoice(60));
+        assertEquals("other note", voices[1], allocator.noteOn(64, 100));
+        assertEquals("active", 2, allocator.getActiveCount());
+        allocator.noteOff(60);
+        assertTrue("released", voices[0].mReleased);
+        // still sounding until the release is over
+        assertEquals("mapped while releasing", voices[0], allocator.getVoice(60));
+        voices[0].mFinished = true;
+        allocator.mix(new float[2 * 8], 0, 8, 2, 1.0f);
+        assertEquals("recycled", null, allocator.getVoice(60));
+        assertEquals("active", 1, allocator.getActiveCount());
+        assertEquals("finished voice is not mixed", 0, voices[0].mRenders);
+        assertEquals("held voice is mixed", 8, voices[1].mRenders);
+        assertEquals("recycled voice is reused", voices[0], allocator.noteOn(67, 100));
+    }
+
+    @Test
+    public void testRetrigger() {
+        TestVoice[] voices = createVoices(4);
+        VoiceAllocator allocator = new VoiceAllocator(voices);
+        allocator.noteOn(60, 100);
+        allocator.noteOff(60);
+        assertEquals("same voice", voices[0], allocator.noteOn(60, 100));
+        assertEquals("held again", false, voices[0].mReleased);
+        assertEquals("active", 1, allocator.getActiveCount());
+    }
+
+    @Test
+    public void testStealOldest() {
+        TestVoice[] voices = createVoices(4);
+        VoiceAllocator allocator = new VoiceAllocator(voices);
+        allocator.setPolyphony(2);
+        allocator.noteOn(60, 100);
+        allocator.noteOn(62, 100);
+        assertEquals("oldest stolen", voices[0], allocator.noteOn(64, 100));
+        assertEquals("stolen note unmapped", null, allocator.getVoice(60));
+        assertEquals("next oldest stolen", voices[1], allocator.noteOn(65, 100));
+        assertEquals("polyphony", 2, allocator.getActiveCount());
+    }
+
+    @Test
+    public void testStealReleasedFirst() {
+        TestVoice[] voices = createVoices(3);
+        VoiceAllocator allocator = new VoiceAllocator(voices);
+        allocator.noteOn(60, 100);
+        allocator.noteOn(62, 100);
+        allocator.noteOn(64, 100);
+        allocator.noteOff(62);
+        assertEquals("released voice stolen", voices[1], allocator.noteOn(65, 100));
+        assertEquals("held note kept", voices[0], allocator.getVoice(60));
+    }
+
+    @Test
+    public void testStealQuietest() {
+        TestVoice[] voices = createVoices(3);
+        VoiceAllocator allocator = new VoiceAllocator(voices);
+        allocator.setStealMode(VoiceAllocator.STEAL_QUIETEST);
+        allocator.noteOn(60, 100);
+        allocator.noteOn(62, 100);
+        allocator.noteOn(64, 100);
+        voices[0].mLevel = 0.8f;
+        voices[1].mLevel = 0.3f;
+        voices[2].mLevel = 0.5f;
+        assertEquals("quietest stolen", voices[1], allocator.noteOn(65, 100));
+    }
+
+    @Test
+    public void testChannels() {
+        TestVoice[] voices = createVoices(4);
+        VoiceAllocator allocator = new VoiceAllocator(voices);
+        assertEquals("channel 0", voices[0], allocator.noteOn(0, 60, 100));
+        assertEquals("same note on channel 3", voices[1], allocator.noteOn(3, 60, 100));
+        assertEquals("channel 3 mapped", voices[1], allocator.getVoice(3, 60));
+        assertEquals("no channel means channel 0", voices[0], allocator.getVoice(60));
+        allocator.noteOff(3, 60);
+        assertTrue("channel 3 released", voices[1].mReleased);
+        assertEquals("channel 0 held", false, voices[0].mReleased);
+        allocator.noteOn(3, 62, 100);
+        allocator.allNotesOff(0);
+        assertTrue("channel 0 released", voices[0].mReleased);
+        assertEquals("channel 3 held", false, voices[2].mReleased);
+    }
+
+    @Test
+    public void testChannelBend() {
+        TestVoice[] voices = createVoices(4);
+        VoiceAllocator allocator = new VoiceAllocator(voices);
+        allocator.noteOn(1, 60, 100);
+        allocator.noteOn(2, 60, 100);
+        allocator.setFrequencyScaler(2, 1.5f);
+        assertEquals("other channel", 1.0f, voices[0].mScaler, 0.0f);
+        assertEquals("bent channel", 1.5f, voices[1].mScaler, 0.0f);
+        assertEquals("free voice", 1.0f, voices[2].mScaler, 0.0f);
+    }
+
+    @Test
+    public void testChannelLevels() {
+        TestVoice[] voices = createVoices(4);
+        VoiceAllocator allocator = new VoiceAllocator(voices);
+        float[] levels = new float[16];
+        levels[5] = 0.5f;
+        levels[9] = 0.25f;
+        allocator.noteOn(5, 60, 100);
+        float[] buffer = new float[4];
+        allocator.mix(buffer, 0, 4, 1, levels);
+        assertEquals("channel 5", 0.5f, buffer[0], 0.0f);
+        allocator.noteOn(9, 60, 100);
+        buffer = new float[4];
+        allocator.mix(buffer, 0, 4, 1, levels);
+        assertEquals("channels 5 and 9", 0.75f, buffer[0], 0.0f);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Tests for the WavetableBank and WavetableOscillator
+ */
+public class TestWavetable {
+    private static final int[] WAVEFORMS = {WavetableBank.SINE, WavetableBank.SAW,
+            WavetableBank.SQUARE, WavetableBank.TRIANGLE};
+
+    // value of a table at a phase from -1 to +1
+    private static float lookup(float[] table, float phase) {
+        float position = (phase + 1.0f) * WavetableBank.TABLE_SIZE / 2;
+        int index = (int) position;
+        float fraction = position - index;
+        return table[index] + fraction * (table[index + 1] - table[index]);
+    }
+
+    // magnitude of harmonic h in one cycle of a table
+    private static double harmonicMagnitude(float[] table, int h) {
+        double re = 0.0;
+        double im = 0.0;
+        int n = WavetableBank.TABLE_SIZE;
+        for (int i = 0; i < n; i++) {
+            double angle = 2.0 * Math.PI * h * i / n;
+            re += table[i] * Math.cos(angle);
+            im += table[i] * Math.sin(angle);
+        }
+        return 2.0 * Math.sqrt(re * re + im * im) / n;
+    }
+
+    @Test
+    public void testSine() {
+        float[] table = WavetableBank.getInstance().getTable(WavetableBank.SINE, 0);
+        for (float phase = -1.0f; phase <= 1.0f; phase += 0.001f) {
+            assertEquals("sin at " + phase, Math.sin(Math.PI * phase), lookup(table, phase), 1e-5);
+        }
+    }
+
+    @Test
+    public void testShapes() {
+        WavetableBank bank = WavetableBank.getInstance();
+        float[] saw = bank.getTable(WavetableBank.SAW, 0);
+        assertEquals("saw middle", 0.0f, lookup(saw, 0.0f), 1e-3f);
+        assertEquals("saw rises", 2.0f, lookup(saw, 0.5f) / lookup(saw, 0.25f), 1e-2f);
+        float[] square = bank.getTable(WavetableBank.SQUARE, 0);
+        // the fundamental alone peaks at 4 / pi, which sets the gain
+        assertEquals("square high", Math.PI / 4, lookup(square, 0.5f), 1e-3);
+        assertEquals("square flat", lookup(square, 0.5f), lookup(square, 0.25f), 1e-3f);
+        assertEquals("square low", -Math.PI / 4, lookup(square, -0.5f), 1e-3);
+        float[] triangle = bank.getTable(WavetableBank.TRIANGLE, 0);
+        assertEquals("triangle peak", 1.0f, lookup(triangle, 0.5f), 1e-3f);
+        assertEquals("triangle middle", 0.0f, lookup(triangle, 0.0f), 1e-3f);
+        assertEquals("triangle trough", -1.0f, lookup(triangle, -0.5f), 1e-3f);
+        assertEquals("triangle at 1/4", 0.5f, lookup(triangle, 0.25f), 1e-3f);
+    }
+
+    @Test
+    public void testBandLimited() {
+        WavetableBank bank = WavetableBank.getInstance();
+        for (int waveform : WAVEFORMS) {
+            for (int level = 1; level < WavetableBank.NUM_LEVELS; level++) {
+                float[] table = bank.getTable(waveform, level);
+                int harmonics = WavetableBank.getHarmonicCount(level);
+                int last = Math.min(WavetableBank.TABLE_SIZE / 2 - 1, harmonics + 32);
+                for (int h = harmonics + 1; h <= last; h++) {
+                    assertEquals("waveform " + waveform + " level " + level + " harmonic " + h,
+                            0.0, harmonicMagnitude(table, h), 1e-4);
+                }
+            }
+        }
+        // the fundamental is there at every level
+        float[] top = bank.getTable(WavetableBank.SAW, WavetableBank.NUM_LEVELS - 1);
+        assertTrue("fundamental", harmonicMagnitude(top, 1) > 0.5);
+    }
+
+    @Test
+    public void testSelectLevel() {
+        for (float increment = 0.0001f; increment < 2.0f; increment *= 1.1f) {
+            int level = WavetableBank.selectLevel(increment);
+            if (level < WavetableBank.NUM_LEVELS - 1) {
+                assertTrue("below Nyquist at " + increment,
+                        WavetableBank.getHarmonicCount(level) * increment < 1.0f);
+            }
+            if (level > 0) {
+                assertTrue("lowest level at " + increment,
+                        WavetableBank.getHarmonicCount(level - 1) * increment >= 1.0f);
+            }
+        }
+    }
+
+    @Test
+    public void testOscillatorFollowsPitch() {
+        WavetableOscillator low = new WavetableOscillator(WavetableBank.SAW);
+        WavetableOscillator high = new WavetableOscillator(WavetableBank.SAW);
+        low.setPitch(36);
+        high.setPitch(36);
+        high.setFrequencyScaler(16.0f); // bent up four octaves
+        float[] lowOut = new float[64];
+        float[] highOut = new float[64];
+        low.renderBlock(lowOut, 0, lowOut.length);
+        high.renderBlock(highOut, 0, highOut.length);
+        // same phases at 16x the rate, so no longer the same samples
+        assertTrue("different", lowOut[10] != highOut[10]);
+        for (float value : highOut) {
+            assertTrue("in range", Math.abs(value) <= 1.0f);
+        }
+    }
+
+    @Test
+    public void testRenderBlockMatchesRender() {
+        for (int waveform : WAVEFORMS) {
+            WavetableOscillator a = new WavetableOscillator(waveform, 0.5f);
+            WavetableOscillator b = new WavetableOscillator(waveform, 0.5f);
+            a.setPitch(100);
+            b.setPitch(100);
+            float[] out = new float[300];
+            b.renderBlock(out, 0, out.length);
+            for (int i = 0; i < out.length; i++) {
+                assertEquals("waveform " + waveform + " sample " + i, a.render(), out[i], 1e-6f);
+            }
+        }
+    }
+
+    @Test
+    public void testVoiceProgram() {
+        SawVoice sine = new SawVoice(48000);
+        SawVoice saw = new SawVoice(48000);
+        sine.setProgram(0);
+        saw.setProgram(1);
+        SynthVoice expected = new SineVoice(48000);
+        sine.noteOn(60, 100);
+        saw.noteOn(60, 100);
+        expected.noteOn(60, 100);
+        float[] out = new float[100];
+        sine.renderBlock(out, 0, out.length);
+        for (int i = 0; i < out.length; i++) {
+            assertEquals("even program is a sine", expected.render(), out[i], 1e-6f);
+        }
+        SynthVoice sineAgain = new SineVoice(48000);
+        sineAgain.noteOn(60, 100);
+        saw.renderBlock(out, 0, out.length);
+        boolean differs = false;
+        for (float value : out) {
+            differs |= Math.abs(value - sineAgain.render()) > 1e-3f;
+        }
+        assertTrue("odd program is not a sine", differs);
+    }
+}
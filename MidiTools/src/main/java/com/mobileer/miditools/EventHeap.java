@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+/**
+ * Binary min-heap of SchedulableEvents ordered by timestamp.
+ *
+ * The keys live in parallel primitive arrays next to the events, so comparing
+ * two entries never touches the event objects and nothing is boxed. Every
+ * event gets a sequence number when it is added, which breaks ties between
+ * equal timestamps so that they come out in the order they went in.
+ *
+ * The arrays double when the heap is full and never shrink, so once the heap
+ * has grown to the largest number of pending events, add() and poll()
+ * allocate nothing.
+ *
+ * Not thread safe.
+ */
+class EventHeap {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private long[] mTimes;
+    private long[] mSequences;
+    private EventScheduler.SchedulableEvent[] mEvents;
+    private int mSize;
+    private long mNextSequence;
+
+    EventHeap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    EventHeap(int capacity) {
+        mTimes = new long[capacity];
+        mSequences = new long[capacity];
+        mEvents = new EventScheduler.SchedulableEvent[capacity];
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    int capacity() {
+        return mEvents.length;
+    }
+
+    /**
+     * @return timestamp of the earliest event; only valid if the heap is not empty
+     */
+    long peekTime() {
+        return mTimes[0];
+    }
+
+    void add(EventScheduler.SchedulableEvent event) {
+        if (mSize == mEvents.length) {
+            grow();
+        }
+        long time = event.getTimestamp();
+        long sequence = mNextSequence++;
+        // Sift the hole up from the end until the parent is not later.
+        int i = mSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(time, sequence, mTimes[parent], mSequences[parent])) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        set(i, time, sequence, event);
+    }
+
+    /**
+     * Remove the earliest event.
+     *
+     * @return event or null if the heap is empty
+     */
+    EventScheduler.SchedulableEvent poll() {
+        if (mSize == 0) {
+            return null;
+        }
+        EventScheduler.SchedulableEvent first = mEvents[0];
+        int last = --mSize;
+        long time = mTimes[last];
+        long sequence = mSequences[last];
+        EventScheduler.SchedulableEvent event = mEvents[last];
+        mEvents[last] = null;
+        if (last > 0) {
+            // Sift the hole down from the root until the last entry fits in it.
+            int i = 0;
+            int half = last >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                int right = child + 1;
+                if (right < last && before(mTimes[right], mSequences[right],
+                        mTimes[child], mSequences[child])) {
+                    child = right;
+                }
+                if (!before(mTimes[child], mSequences[child], time, sequence)) {
+                    break;
+                }
+                move(child, i);
+                i = child;
+            }
+            set(i, time, sequence, event);
+        }
+        return first;
+    }
+
+    private static boolean before(long time1, long sequence1, long time2, long sequence2) {
+        return (time1 < time2) || (time1 == time2 && sequence1 < sequence2);
+    }
+
+    private void move(int from, int to) {
+        mTimes[to] = mTimes[from];
+        mSequences[to] = mSequences[from];
+        mEvents[to] = mEvents[from];
+    }
+
+    private void set(int i, long time, long sequence, EventScheduler.SchedulableEvent event) {
+        mTimes[i] = time;
+        mSequences[i] = sequence;
+        mEvents[i] = event;
+    }
+
+    private void grow() {
+        int capacity = mEvents.length * 2;
+        long[] times = new long[capacity];
+        long[] sequences = new long[capacity];
+        EventScheduler.SchedulableEvent[] events = new EventScheduler.SchedulableEvent[capacity];
+        System.arraycopy(mTimes, 0, times, 0, mSize);
+        System.arraycopy(mSequences, 0, sequences, 0, mSize);
+        System.arraycopy(mEvents, 0, events, 0, mSize);
+        mTimes = times;
+        mSequences = sequences;
+        mEvents = events;
+    }
+}
@@ -16,75 +16,55 @@
 
 package com.mobileer.miditools;
 
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Store SchedulableEvents in a timestamped buffer.
  * Events may be written in any order.
  * Events will be read in sorted order.
  * Events with the same timestamp will be read in the order they were added.
+ * Once the buffer has held as many events as it ever will, adding and
+ * reading events allocates no memory.
  *
  * Only one Thread can write into the buffer.
  * And only one Thread can read from the buffer.
+ *
+ * Events can be recycled through a pool so that they do not have to be
+ * allocated for every message. The pool is a lock-free stack: any thread may
+ * return events to it, typically the reading thread, but only one thread, the
+ * writing thread, may take events from it. With a single taker an event can
+ * not be taken and returned between the read of the top of the stack and
+ * the compare-and-set that pops it, so the stack is safe without tags.
  */
 public class EventScheduler {
+    public static final int DEFAULT_MAX_POOL_SIZE = 200;
     private static final long NANOS_PER_MILLI = 1000000;
 
     private final Object lock = new Object();
-    private SortedMap<Long, FastEventQueue> mEventBuffer;
-    // This does not have to be guarded. It is only set by the writing thread.
-    // If the reader sees a null right before being set then that is OK.
-    private FastEventQueue mEventPool = null;
-    private static final int MAX_POOL_SIZE = 200;
+    private final EventHeap mEventBuffer;
+    // Lock-free stack of events ready for reuse, linked through mNext.
+    private final AtomicReference<SchedulableEvent> mPoolTop =
+            new AtomicReference<SchedulableEvent>();
+    private final AtomicInteger mPoolSize = new AtomicInteger();
+    private final int mMaxPoolSize;
+    // Only written by the thread that takes events from the pool.
+    private volatile long mPoolHits;
+    private volatile long mPoolMisses;
+    private final AtomicLong mPoolOverflows = new AtomicLong();
 
     public EventScheduler() {
-        mEventBuffer = new TreeMap<Long, FastEventQueue>();
+        this(DEFAULT_MAX_POOL_SIZE);
     }
 
-    // If we keep at least one node in the list then it can be atomic
-    // and non-blocking.
-    private class FastEventQueue {
-        // One thread takes from the beginning of the list.
-        volatile SchedulableEvent mFirst;
-        // A second thread returns events to the end of the list.
-        volatile SchedulableEvent mLast;
-        volatile long mEventsAdded;
-        volatile long mEventsRemoved;
-
-        FastEventQueue(SchedulableEvent event) {
-            mFirst = event;
-            mLast = mFirst;
-            mEventsAdded = 1; // Always created with one event added. Never empty.
-            mEventsRemoved = 0; // None removed yet.
-        }
-
-        int size() {
-            return (int)(mEventsAdded - mEventsRemoved);
-        }
-
-        /**
-         * Do not call this unless there is more than one event
-         * in the list.
-         * @return first event in the list
-         */
-        public SchedulableEvent remove() {
-            // Take first event.
-            mEventsRemoved++;
-            SchedulableEvent event = mFirst;
-            mFirst = event.mNext;
-            return event;
-        }
-
-        /**
-         * @param event
-         */
-        public void add(SchedulableEvent event) {
-            event.mNext = null;
-            mLast.mNext = event;
-            mLast = event;
-            mEventsAdded++;
-        }
+    /**
+     * @param maxPoolSize events returned to a pool that already holds this
+     *                    many are dropped
+     */
+    public EventScheduler(int maxPoolSize) {
+        mEventBuffer = new EventHeap();
+        mMaxPoolSize = maxPoolSize;
     }
 
     /**
@@ -118,33 +98,102 @@ public class EventScheduler {
     }
 
     /**
-     * Get an event from the pool.
-     * Always leave at least one event in the pool.
-     * @return event or null
+     * Get an event from the pool. Must only be called from one thread.
+     * @return event or null if the pool is empty
      */
     public SchedulableEvent removeEventfromPool() {
-        SchedulableEvent event = null;
-        if (mEventPool != null && (mEventPool.size() > 1)) {
-            event = mEventPool.remove();
+        while (true) {
+            SchedulableEvent event = mPoolTop.get();
+            if (event == null) {
+                mPoolMisses++;
+                return null;
+            }
+            if (mPoolTop.compareAndSet(event, event.mNext)) {
+                mPoolSize.decrementAndGet();
+                event.mNext = null;
+                mPoolHits++;
+                return event;
+            }
         }
-        return event;
     }
 
     /**
      * Return events to a pool so they can be reused.
+     * If the pool is full the event is dropped, which prevents unbounded
+     * memory leaks.
      *
      * @param event
      */
     public void addEventToPool(SchedulableEvent event) {
-        if (mEventPool == null) {
-            mEventPool = new FastEventQueue(event); // add event to pool
-            // If we already have enough items in the pool then just
-            // drop the event. This prevents unbounded memory leaks.
-        } else if (mEventPool.size() < MAX_POOL_SIZE) {
-            mEventPool.add(event);
+        if (mPoolSize.incrementAndGet() > mMaxPoolSize) {
+            mPoolSize.decrementAndGet();
+            mPoolOverflows.incrementAndGet();
+            return;
+        }
+        while (true) {
+            SchedulableEvent top = mPoolTop.get();
+            event.mNext = top;
+            if (mPoolTop.compareAndSet(top, event)) {
+                return;
+            }
         }
     }
 
+    /**
+     * Create an event for fillEventPool(). Subclasses that use the pool
+     * should override this.
+     *
+     * @return a new event or null if events cannot be created here
+     */
+    protected SchedulableEvent createPoolEvent() {
+        return null;
+    }
+
+    /**
+     * Allocate events until the pool holds count events, so that the first
+     * messages do not have to allocate. Call this before events are added.
+     *
+     * @param count
+     */
+    public void fillEventPool(int count) {
+        count = Math.min(count, mMaxPoolSize);
+        while (mPoolSize.get() < count) {
+            SchedulableEvent event = createPoolEvent();
+            if (event == null) {
+                break;
+            }
+            addEventToPool(event);
+        }
+    }
+
+    /**
+     * @return number of events in the pool
+     */
+    public int getPoolSize() {
+        return mPoolSize.get();
+    }
+
+    /**
+     * @return number of times removeEventfromPool() returned an event
+     */
+    public long getPoolHitCount() {
+        return mPoolHits;
+    }
+
+    /**
+     * @return number of times removeEventfromPool() found the pool empty
+     */
+    public long getPoolMissCount() {
+        return mPoolMisses;
+    }
+
+    /**
+     * @return number of events dropped because the pool was full
+     */
+    public long getPoolOverflowCount() {
+        return mPoolOverflows.get();
+    }
+
     /**
      * Add an event to the scheduler. Events with the same time will be
      * processed in order.
@@ -153,35 +202,17 @@ public class EventScheduler {
      */
     public void add(SchedulableEvent event) {
         synchronized (lock) {
-            FastEventQueue list = mEventBuffer.get(event.getTimestamp());
-            if (list == null) {
-                long lowestTime = mEventBuffer.isEmpty() ? Long.MAX_VALUE
-                        : mEventBuffer.firstKey();
-                list = new FastEventQueue(event);
-                mEventBuffer.put(event.getTimestamp(), list);
-                // If the event we added is earlier than the previous earliest
-                // event then notify any threads waiting for the next event.
-                if (event.getTimestamp() < lowestTime) {
-                    lock.notify();
-                }
-            } else {
-                list.add(event);
+            long lowestTime = mEventBuffer.isEmpty() ? Long.MAX_VALUE
+                    : mEventBuffer.peekTime();
+            mEventBuffer.add(event);
+            // If the event we added is earlier than the previous earliest
+            // event then notify any threads waiting for the next event.
+            if (event.getTimestamp() < lowestTime) {
+                lock.notify();
             }
         }
     }
 
-    // Caller must synchronize on lock before calling.
-    private SchedulableEvent removeNextEventLocked(long lowestTime) {
-        SchedulableEvent event;
-        FastEventQueue list = mEventBuffer.get(lowestTime);
-        // Remove list from tree if this is the last node.
-        if ((list.size() == 1)) {
-            mEventBuffer.remove(lowestTime);
-        }
-        event = list.remove();
-        return event;
-    }
-
     /**
      * Check to see if any scheduled events are ready to be processed.
      *
@@ -192,10 +223,10 @@ public class EventScheduler {
         SchedulableEvent event = null;
         synchronized (lock) {
             if (!mEventBuffer.isEmpty()) {
-                long lowestTime = mEventBuffer.firstKey();
-                // Is it time for this list to be processed?
+                long lowestTime = mEventBuffer.peekTime();
+                // Is it time for this event to be processed?
                 if (lowestTime <= time) {
-                    event = removeNextEventLocked(lowestTime);
+                    event = mEventBuffer.poll();
                 }
             }
         }
@@ -218,10 +249,10 @@ public class EventScheduler {
             synchronized (lock) {
                 if (!mEventBuffer.isEmpty()) {
                     long now = System.nanoTime();
-                    long lowestTime = mEventBuffer.firstKey();
-                    // Is it time for the earliest list to be processed?
+                    long lowestTime = mEventBuffer.peekTime();
+                    // Is it time for the earliest event to be processed?
                     if (lowestTime <= now) {
-                        event = removeNextEventLocked(lowestTime);
+                        event = mEventBuffer.poll();
                         break;
                     } else {
                         // Figure out how long to sleep until next event.
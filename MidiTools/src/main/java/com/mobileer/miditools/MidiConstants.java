@@ -51,6 +51,18 @@ public class MidiConstants {
     public static final byte STATUS_ACTIVE_SENSING = (byte) 0xFE;
     public static final byte STATUS_RESET = (byte) 0xFF;
 
+    public static final int CONTROLLER_VOLUME = 7;
+    public static final int CONTROLLER_ALL_NOTES_OFF = 123;
+
+    // Controller numbers used to set registered parameters.
+    public static final int CONTROLLER_DATA_ENTRY_MSB = 6;
+    public static final int CONTROLLER_DATA_ENTRY_LSB = 38;
+    public static final int CONTROLLER_RPN_LSB = 100;
+    public static final int CONTROLLER_RPN_MSB = 101;
+
+    // Registered parameter numbers, (MSB << 7) | LSB.
+    public static final int RPN_PITCH_BEND_SENSITIVITY = 0;
+
     /** Number of bytes in a message nc from 8c to Ec */
     public final static int CHANNEL_BYTE_LENGTHS[] = { 3, 3, 3, 3, 2, 2, 3 };
 
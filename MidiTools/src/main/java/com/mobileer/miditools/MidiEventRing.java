@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+import android.media.midi.MidiReceiver;
+
+import java.io.IOException;
+
+/**
+ * Hands timestamped MIDI data from one writing thread, such as the MIDI
+ * binder thread, to a real-time reading thread, such as an audio thread,
+ * without locks.
+ *
+ * The writer copies the bytes into a ring of pre-allocated MidiEvent slots
+ * and publishes them by advancing a volatile index; it never waits. The
+ * reader moves the slots it finds into events of its own, sorts those by
+ * timestamp in a heap that only it touches, and hands them out when they are
+ * due. Messages longer than a slot are split over consecutive slots with the
+ * same timestamp, which stay in order, so a MidiFramer on the reading side
+ * sees the original byte stream.
+ *
+ * If the reader falls behind and the ring fills up, the writer drops whole
+ * messages and counts them. Nothing is allocated after construction.
+ */
+public class MidiEventRing {
+    private static final int SLOT_SIZE = 16;
+
+    private final MidiEventScheduler.MidiEvent[] mSlots;
+    private final int mMask;
+    // Only written by the writer.
+    private volatile long mWriteIndex;
+    // Only written by the reader.
+    private volatile long mReadIndex;
+    private volatile int mDroppedCount;
+
+    // Owned by the reader.
+    private final EventHeap mPending;
+    private final MidiEventScheduler.MidiEvent[] mFreeEvents;
+    private int mNumFreeEvents;
+
+    private final MidiReceiver mReceiver = new MidiReceiver() {
+        @Override
+        public void onSend(byte[] msg, int offset, int count, long timestamp)
+                throws IOException {
+            write(msg, offset, count, timestamp);
+        }
+    };
+
+    /**
+     * @param capacity number of slots in the ring, rounded up to a power of
+     *                 two, and number of events the reader can hold pending
+     */
+    public MidiEventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        mMask = size - 1;
+        mSlots = new MidiEventScheduler.MidiEvent[size];
+        for (int i = 0; i < size; i++) {
+            mSlots[i] = new MidiEventScheduler.MidiEvent(SLOT_SIZE);
+        }
+        mPending = new EventHeap(size);
+        mFreeEvents = new MidiEventScheduler.MidiEvent[size];
+        for (int i = 0; i < size; i++) {
+            mFreeEvents[i] = new MidiEventScheduler.MidiEvent(SLOT_SIZE);
+        }
+        mNumFreeEvents = size;
+    }
+
+    /**
+     * A receiver that writes into the ring. Must only be used from the
+     * writing thread.
+     */
+    public MidiReceiver getReceiver() {
+        return mReceiver;
+    }
+
+    /**
+     * Copy a message into the ring. Must only be called from the writing
+     * thread.
+     *
+     * @return false if there was no room and the message was dropped
+     */
+    public boolean write(byte[] msg, int offset, int count, long timestamp) {
+        int slotsNeeded = (count + SLOT_SIZE - 1) / SLOT_SIZE;
+        long writeIndex = mWriteIndex;
+        if (writeIndex + slotsNeeded - mReadIndex > mSlots.length) {
+            mDroppedCount++;
+            return false;
+        }
+        while (count > 0) {
+            MidiEventScheduler.MidiEvent slot = mSlots[(int) (writeIndex & mMask)];
+            int n = Math.min(count, SLOT_SIZE);
+            System.arraycopy(msg, offset, slot.data, 0, n);
+            slot.count = n;
+            slot.setTimestamp(timestamp);
+            offset += n;
+            count -= n;
+            writeIndex++;
+        }
+        // Publish the slots.
+        mWriteIndex = writeIndex;
+        return true;
+    }
+
+    /**
+     * Get the earliest event whose timestamp is not later than time. Must
+     * only be called from the reading thread, which should pass the event to
+     * recycle() when it is done with it.
+     *
+     * @return event or null if none is ready
+     */
+    public MidiEventScheduler.MidiEvent getNextEvent(long time) {
+        drain();
+        if (mPending.isEmpty() || mPending.peekTime() > time) {
+            return null;
+        }
+        return (MidiEventScheduler.MidiEvent) mPending.poll();
+    }
+
+    /**
+     * Give an event returned by getNextEvent() back to the reader's pool.
+     */
+    public void recycle(MidiEventScheduler.MidiEvent event) {
+        if (mNumFreeEvents < mFreeEvents.length) {
+            mFreeEvents[mNumFreeEvents++] = event;
+        }
+    }
+
+    /**
+     * @return number of messages dropped because the ring was full
+     */
+    public int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    // Move the published slots into the pending heap, as far as there are
+    // free events to copy them into.
+    private void drain() {
+        long readIndex = mReadIndex;
+        long writeIndex = mWriteIndex;
+        if (readIndex == writeIndex) {
+            return;
+        }
+        while (readIndex < writeIndex && mNumFreeEvents > 0) {
+            MidiEventScheduler.MidiEvent slot = mSlots[(int) (readIndex & mMask)];
+            MidiEventScheduler.MidiEvent event = mFreeEvents[--mNumFreeEvents];
+            mFreeEvents[mNumFreeEvents] = null;
+            System.arraycopy(slot.data, 0, event.data, 0, slot.count);
+            event.count = slot.count;
+            event.setTimestamp(slot.getTimestamp());
+            mPending.add(event);
+            readIndex++;
+        }
+        // Give the slots back to the writer.
+        mReadIndex = readIndex;
+    }
+}
@@ -49,7 +49,7 @@ public class MidiEventScheduler extends EventScheduler {
         public int count = 0;
         public byte[] data;
 
-        private MidiEvent(int count) {
+        MidiEvent(int count) {
             super(0);
             data = new byte[count];
         }
@@ -91,6 +91,11 @@ public class MidiEventScheduler extends EventScheduler {
         return event;
     }
 
+    @Override
+    protected SchedulableEvent createPoolEvent() {
+        return new MidiEvent(POOL_EVENT_SIZE);
+    }
+
     /**
      * Return events to a pool so they can be reused.
      *
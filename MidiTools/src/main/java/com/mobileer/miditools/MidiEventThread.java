@@ -22,6 +22,8 @@ import android.util.Log;
 import java.io.IOException;
 
 public class MidiEventThread extends MidiEventScheduler {
+    // Events allocated when the thread starts.
+    private static final int PREALLOCATED_EVENTS = 64;
 
     private EventThread mEventThread;
     MidiDispatcher mDispatcher = new MidiDispatcher();
@@ -61,6 +63,7 @@ public class MidiEventThread extends MidiEventScheduler {
 
     public void start() {
         stop();
+        fillEventPool(PREALLOCATED_EVENTS);
         mEventThread = new EventThread();
         mEventThread.start();
     }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+/**
+ * Relates the frames the synthesizer renders to System.nanoTime(), so that
+ * a MIDI event can be rendered on the frame that will be heard at its
+ * timestamp.
+ *
+ * The clock is a straight line through a reference point, a frame and the
+ * time it is presented, with the slope given by the frame rate. It starts
+ * from an estimate and is corrected with the timestamps reported by the
+ * AudioTrack. Small corrections are smoothed so the jitter in the reported
+ * timestamps does not move events around; large ones, e.g. after a glitch,
+ * are applied at once.
+ *
+ * Not thread safe; used by the synthesis thread.
+ */
+public class AudioClock {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    // Corrections larger than this are applied immediately.
+    private static final long MAX_SMOOTHED_CORRECTION_NANOS = 20000000L;
+    // Fraction of a small correction applied at each update.
+    private static final double CORRECTION_GAIN = 0.1;
+
+    private int mFrameRate = 48000;
+    private long mReferenceFrame;
+    private long mReferenceNanos;
+    private boolean mHasTimestamp;
+
+    public void setFrameRate(int frameRate) {
+        mFrameRate = frameRate;
+    }
+
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    /**
+     * Start from an estimate, before the output has reported a timestamp.
+     *
+     * @param frame the frame that will be presented at nanoTime
+     * @param nanoTime
+     */
+    public void reset(long frame, long nanoTime) {
+        mReferenceFrame = frame;
+        mReferenceNanos = nanoTime;
+        mHasTimestamp = false;
+    }
+
+    /**
+     * Correct the clock with a timestamp reported by the output.
+     *
+     * @param framePosition frame that was presented
+     * @param nanoTime      System.nanoTime() at which it was presented
+     */
+    public void update(long framePosition, long nanoTime) {
+        long error = nanoTime - frameToNanos(framePosition);
+        if (!mHasTimestamp || Math.abs(error) > MAX_SMOOTHED_CORRECTION_NANOS) {
+            mReferenceFrame = framePosition;
+            mReferenceNanos = nanoTime;
+            mHasTimestamp = true;
+        } else {
+            mReferenceFrame = framePosition;
+            mReferenceNanos = nanoTime - error + (long) (error * CORRECTION_GAIN);
+        }
+    }
+
+    /**
+     * @return true once a timestamp from the output has been applied
+     */
+    public boolean hasTimestamp() {
+        return mHasTimestamp;
+    }
+
+    /**
+     * @return System.nanoTime() at which frame will be presented
+     */
+    public long frameToNanos(long frame) {
+        // Whole seconds and the frames left over, rounded down also for
+        // frames before the reference, so nothing overflows on a device
+        // that has been up for days.
+        long frames = frame - mReferenceFrame;
+        long seconds = frames / mFrameRate;
+        long remainder = frames - seconds * mFrameRate;
+        if (remainder < 0) {
+            seconds--;
+            remainder += mFrameRate;
+        }
+        return mReferenceNanos + seconds * NANOS_PER_SECOND
+                + (remainder * NANOS_PER_SECOND) / mFrameRate;
+    }
+
+    /**
+     * @return the first frame that is presented at or after nanoTime
+     */
+    public long nanosToFrame(long nanoTime) {
+        // as in frameToNanos, but rounded up
+        long nanos = nanoTime - mReferenceNanos;
+        long seconds = nanos / NANOS_PER_SECOND;
+        long remainder = nanos - seconds * NANOS_PER_SECOND;
+        if (remainder < 0) {
+            seconds--;
+            remainder += NANOS_PER_SECOND;
+        }
+        return mReferenceFrame + seconds * mFrameRate
+                + (remainder * mFrameRate + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND;
+    }
+}
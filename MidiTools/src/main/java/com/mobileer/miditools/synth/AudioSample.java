@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * A sound decoded into memory as interleaved stereo 16-bit PCM, so it can be
+ * played by a {@link SamplePlayer} without any decoding on the audio thread.
+ */
+public class AudioSample {
+    private static final long TIMEOUT_MICROS = 10000;
+    // frames to start with when the file does not report its duration
+    private static final int INITIAL_FRAMES = 48000;
+
+    private final short[] mData;
+    private final int mNumFrames;
+    private final int mFrameRate;
+
+    public AudioSample(short[] data, int numFrames, int frameRate) {
+        mData = data;
+        mNumFrames = numFrames;
+        mFrameRate = frameRate;
+    }
+
+    /** Interleaved left and right samples. */
+    public short[] getData() {
+        return mData;
+    }
+
+    public int getNumFrames() {
+        return mNumFrames;
+    }
+
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    /**
+     * Decode the first audio track of a file. Mono is duplicated to both
+     * channels and channels beyond the second are dropped. This can take a
+     * while, so do not call it on the main or the audio thread.
+     *
+     * @param maxSeconds the sound is cut off after this long, to bound memory.
+     * @throws IOException if the file can not be read or decodes to nothing.
+     */
+    public static AudioSample decode(Context context, Uri uri, double maxSeconds)
+            throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(context, uri, null);
+            MediaFormat format = null;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat trackFormat = extractor.getTrackFormat(i);
+                String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    extractor.selectTrack(i);
+                    format = trackFormat;
+                    break;
+                }
+            }
+            if (format == null) {
+                throw new IOException("No audio track in " + uri);
+            }
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            int frameRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            int maxFrames = (int) (maxSeconds * frameRate);
+            // Start with the reported length, if any; the buffer grows if the
+            // decoder delivers more, e.g. at a higher output rate.
+            int initialFrames = INITIAL_FRAMES;
+            if (format.containsKey(MediaFormat.KEY_DURATION)) {
+                long durationMicros = format.getLong(MediaFormat.KEY_DURATION);
+                initialFrames = (int) Math.min(Integer.MAX_VALUE / 2,
+                        durationMicros * frameRate / 1000000L + 1);
+            }
+            short[] data = new short[Math.min(initialFrames, maxFrames) * 2];
+            int numFrames = 0;
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            boolean outputDone = false;
+            while (!outputDone && numFrames < maxFrames) {
+                if (!inputDone) {
+                    int inIndex = codec.dequeueInputBuffer(TIMEOUT_MICROS);
+                    if (inIndex >= 0) {
+                        ByteBuffer input = codec.getInputBuffer(inIndex);
+                        int size = extractor.readSampleData(input, 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(inIndex, 0, 0, 0,
+                                    MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(inIndex, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+                int outIndex = codec.dequeueOutputBuffer(info, TIMEOUT_MICROS);
+                if (outIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat outputFormat = codec.getOutputFormat();
+                    frameRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    channelCount = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                    // the cap is in seconds of the rate actually decoded
+                    maxFrames = (int) (maxSeconds * frameRate);
+                } else if (outIndex >= 0) {
+                    ByteBuffer output = codec.getOutputBuffer(outIndex);
+                    output.position(info.offset);
+                    output.limit(info.offset + info.size);
+                    ShortBuffer samples = output.order(ByteOrder.nativeOrder()).asShortBuffer();
+                    int needed = Math.min(numFrames + samples.remaining() / channelCount,
+                            maxFrames);
+                    if (needed * 2 > data.length) {
+                        // at least double, data.length being twice the frames
+                        int capacity = Math.min(Math.max(needed, data.length), maxFrames);
+                        data = Arrays.copyOf(data, capacity * 2);
+                    }
+                    numFrames = appendFrames(samples, channelCount, data, numFrames);
+                    codec.releaseOutputBuffer(outIndex, false);
+                    outputDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                }
+            }
+            if (numFrames == 0) {
+                throw new IOException("No audio decoded from " + uri);
+            }
+            if (data.length != numFrames * 2) {
+                data = Arrays.copyOf(data, numFrames * 2);
+            }
+            return new AudioSample(data, numFrames, frameRate);
+        } finally {
+            if (codec != null) {
+                codec.stop();
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    private static int appendFrames(ShortBuffer samples, int channelCount, short[] data,
+                                    int numFrames) {
+        int frames = samples.remaining() / channelCount;
+        frames = Math.min(frames, data.length / 2 - numFrames);
+        for (int i = 0; i < frames; i++) {
+            short left = samples.get(i * channelCount);
+            short right = channelCount > 1 ? samples.get(i * channelCount + 1) : left;
+            data[numFrames * 2] = left;
+            data[numFrames * 2 + 1] = right;
+            numFrames++;
+        }
+        return numFrames;
+    }
+}
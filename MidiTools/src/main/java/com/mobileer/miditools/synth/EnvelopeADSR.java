@@ -20,6 +20,12 @@ package com.mobileer.miditools.synth;
  * Very simple Attack, Decay, Sustain, Release envelope with linear ramps.
  *
  * Times are in seconds.
+ *
+ * The envelope is a series of segments. A ramp segment knows how many frames
+ * it lasts, so a block is filled with one tight loop per segment instead of
+ * checking the state on every frame. Idle, sustain and finished hold their
+ * level, and {@link #renderRamp} skips them without writing anything.
+ * Times and the sustain level take effect at the next segment.
  */
 public class EnvelopeADSR extends SynthUnit {
     private static final int IDLE = 0;
@@ -30,34 +36,54 @@ public class EnvelopeADSR extends SynthUnit {
     private static final int FINISHED = 5;
     private static final float MIN_TIME = 0.001f;
 
+    private float mAttackTime;
+    private float mDecayTime;
+    private float mReleaseTime;
+    // per sample changes, recomputed when a time or the sample rate changes
     private float mAttackRate;
     private float mRreleaseRate;
     private float mSustainLevel;
     private float mDecayRate;
     private float mCurrent;
     private int mSstate = IDLE;
-    private int mSamplerate;
 
-    public EnvelopeADSR( int sampleRate) {
-        mSamplerate = sampleRate;
+    // The ramp of the current segment. Frame k of it is at
+    // mSegmentStart + mSegmentStep * k and the last one is mSegmentTarget.
+    // mSegmentLength is 0 while the level holds.
+    private float mSegmentStart;
+    private float mSegmentStep;
+    private float mSegmentTarget;
+    private int mSegmentFrame;
+    private int mSegmentLength;
+
+    public EnvelopeADSR(int sampleRate) {
+        super.setSampleRate(sampleRate);
         setAttackTime(0.003f);
         setDecayTime(0.08f);
         setSustainLevel(0.3f);
         setReleaseTime(1.0f);
     }
 
-
+    @Override
+    public void setSampleRate(int sampleRate) {
+        super.setSampleRate(sampleRate);
+        setAttackTime(mAttackTime);
+        setDecayTime(mDecayTime);
+        setReleaseTime(mReleaseTime);
+    }
 
     public void setAttackTime(float time) {
         if (time < MIN_TIME)
             time = MIN_TIME;
-        mAttackRate = 1.0f / (mSamplerate * time);
+        mAttackTime = time;
+        mAttackRate = 1.0f / (getSampleRate() * time);
     }
 
     public void setDecayTime(float time) {
         if (time < MIN_TIME)
             time = MIN_TIME;
-        mDecayRate = 1.0f / (mSamplerate * time);
+        mDecayTime = time;
+        mDecayRate = 1.0f / (getSampleRate() * time);
     }
 
     public void setSustainLevel(float level) {
@@ -69,42 +95,132 @@ public class EnvelopeADSR extends SynthUnit {
     public void setReleaseTime(float time) {
         if (time < MIN_TIME)
             time = MIN_TIME;
-        mRreleaseRate = 1.0f / (mSamplerate * time);
+        mReleaseTime = time;
+        mRreleaseRate = 1.0f / (getSampleRate() * time);
     }
 
     public void on() {
-        mSstate = ATTACK;
+        enter(ATTACK);
     }
 
     public void off() {
-        mSstate = RELEASE;
+        enter(RELEASE);
     }
 
-    @Override
-    public float render() {
+    // Start the segment of state from the current level.
+    private void enter(int state) {
+        mSstate = state;
+        switch (state) {
+        case ATTACK:
+            startRamp(1.0f, mAttackRate);
+            break;
+        case DECAY:
+            startRamp(Math.min(mSustainLevel, 1.0f), mDecayRate);
+            break;
+        case RELEASE:
+            startRamp(0.0f, mRreleaseRate);
+            break;
+        default:
+            mSegmentLength = 0;
+            break;
+        }
+    }
+
+    // Ramp to target at rate per frame, taking at least one frame.
+    private void startRamp(float target, float rate) {
+        float distance = target - mCurrent;
+        int length = Math.max(1, (int) Math.ceil(Math.abs(distance) / rate));
+        mSegmentStart = mCurrent;
+        mSegmentStep = distance / length;
+        mSegmentTarget = target;
+        mSegmentFrame = 0;
+        mSegmentLength = length;
+    }
+
+    // The ramp has reached its target.
+    private void endSegment() {
+        mCurrent = mSegmentTarget;
         switch (mSstate) {
         case ATTACK:
-            mCurrent += mAttackRate;
-            if (mCurrent > 1.0f) {
-                mCurrent = 1.0f;
-                mSstate = DECAY;
-            }
+            enter(DECAY);
             break;
         case DECAY:
-            mCurrent -= mDecayRate;
-            if (mCurrent < mSustainLevel) {
-                mCurrent = mSustainLevel;
-                mSstate = SUSTAIN;
-            }
+            enter(SUSTAIN);
             break;
         case RELEASE:
-            mCurrent -= mRreleaseRate;
-            if (mCurrent < 0.0f) {
-                mCurrent = 0.0f;
-                mSstate = FINISHED;
-            }
+            enter(FINISHED);
             break;
         }
+    }
+
+    @Override
+    public float render() {
+        if (mSegmentFrame < mSegmentLength) {
+            mSegmentFrame++;
+            if (mSegmentFrame == mSegmentLength) {
+                endSegment();
+            } else {
+                mCurrent = mSegmentStart + mSegmentStep * mSegmentFrame;
+            }
+        }
+        return mCurrent;
+    }
+
+    @Override
+    public void renderBlock(float[] out, int offset, int frames) {
+        if (renderRamp(out, offset, frames)) {
+            float current = mCurrent;
+            for (int i = offset, end = offset + frames; i < end; i++) {
+                out[i] = current;
+            }
+        }
+    }
+
+    /**
+     * Render a block, unless the level holds for all of it.
+     *
+     * @return true if the envelope stays at getLevel() for the whole block, in
+     *         which case out is not written; the caller can scale by that
+     *         level instead
+     */
+    public boolean renderRamp(float[] out, int offset, int frames) {
+        if (mSegmentFrame >= mSegmentLength) {
+            return true;
+        }
+        int i = offset;
+        int end = offset + frames;
+        while (i < end) {
+            int remaining = mSegmentLength - mSegmentFrame;
+            if (remaining <= 0) {
+                // the rest of the block holds the level the ramp ended on
+                float current = mCurrent;
+                while (i < end) {
+                    out[i++] = current;
+                }
+                break;
+            }
+            int n = Math.min(end - i, remaining);
+            float start = mSegmentStart;
+            float step = mSegmentStep;
+            int k = mSegmentFrame;
+            for (int j = 1; j <= n; j++) {
+                out[i++] = start + step * (k + j);
+            }
+            mSegmentFrame += n;
+            if (mSegmentFrame == mSegmentLength) {
+                endSegment();
+                out[i - 1] = mCurrent;
+            } else {
+                mCurrent = out[i - 1];
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the current output of the envelope
+     */
+    public float getLevel() {
         return mCurrent;
     }
 
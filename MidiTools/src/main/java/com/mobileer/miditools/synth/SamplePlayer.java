@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+/**
+ * Plays a decoded {@link AudioSample} into the synthesizer's output.
+ *
+ * Playback starts and stops on the first frame mixed after the call, so the
+ * synthesizer can start a sound on the frame of its MIDI event by splitting
+ * its block there. It fades in and out over a short ramp so it does not
+ * click. Like MediaPlayer, start() resumes where stop() left off, and a sound
+ * that is not looping rewinds when it reaches its end. The sample is
+ * resampled to the output rate with linear interpolation.
+ *
+ * start(), stop() and mix() must be called from the audio thread; the sample
+ * and looping can be set from any thread.
+ */
+public class SamplePlayer {
+    private static final float RAMP_SECONDS = 0.01f;
+    private static final float SAMPLE_SCALER = 1.0f / 32768.0f;
+
+    private volatile AudioSample mPendingSample;
+    private volatile boolean mLooping;
+    private volatile boolean mPlaying;
+
+    private AudioSample mSample;
+    private int mFrameRate = 48000;
+    private double mPosition;
+    private boolean mActive;
+    private float mGain;
+    private float mTargetGain;
+    private float mGainStep;
+
+    /**
+     * Play sample from now on. Takes effect at the next block; if a sound is
+     * playing it stops.
+     */
+    public void setSample(AudioSample sample) {
+        mPendingSample = sample;
+    }
+
+    public void setLooping(boolean looping) {
+        mLooping = looping;
+    }
+
+    /** True from start() until playback has faded out or reached the end. */
+    public boolean isPlaying() {
+        return mPlaying;
+    }
+
+    /** Set the output frame rate. */
+    public void setFrameRate(int frameRate) {
+        mFrameRate = frameRate;
+    }
+
+    /**
+     * Fade in to gain, resuming at the current position.
+     */
+    public void start(float gain) {
+        updateSample();
+        if (mSample == null || mSample.getNumFrames() == 0) {
+            return;
+        }
+        mTargetGain = gain;
+        mGainStep = (gain - mGain) / rampFrames();
+        mActive = true;
+        mPlaying = true;
+    }
+
+    /**
+     * Fade out, keeping the position for the next start().
+     */
+    public void stop() {
+        if (!mActive) {
+            return;
+        }
+        mTargetGain = 0.0f;
+        mGainStep = -mGain / rampFrames();
+        if (mGain == 0.0f) {
+            finish();
+        }
+    }
+
+    /**
+     * Add the sound to an interleaved output buffer.
+     */
+    public void mix(float[] outputBuffer, int samplesPerFrame) {
+        mix(outputBuffer, 0, outputBuffer.length / samplesPerFrame, samplesPerFrame);
+    }
+
+    /**
+     * Add the sound to part of an interleaved output buffer.
+     */
+    public void mix(float[] outputBuffer, int startFrame, int outputFrames,
+                    int samplesPerFrame) {
+        updateSample();
+        if (!mActive) {
+            return;
+        }
+        short[] data = mSample.getData();
+        int numFrames = mSample.getNumFrames();
+        if (numFrames == 0) {
+            finish();
+            return;
+        }
+        double step = mSample.getFrameRate() / (double) mFrameRate;
+        int endFrame = startFrame + outputFrames;
+        for (int i = startFrame; i < endFrame; i++) {
+            if (mGain != mTargetGain) {
+                mGain += mGainStep;
+                if ((mGainStep > 0.0f) ? (mGain >= mTargetGain) : (mGain <= mTargetGain)) {
+                    mGain = mTargetGain;
+                    if (mGain == 0.0f) {
+                        finish();
+                        return;
+                    }
+                }
+            }
+            int index = (int) mPosition;
+            float fraction = (float) (mPosition - index);
+            int next = index + 1;
+            if (next >= numFrames) {
+                next = mLooping ? 0 : index;
+            }
+            int s0 = index * 2;
+            int s1 = next * 2;
+            float left = data[s0] + fraction * (data[s1] - data[s0]);
+            float right = data[s0 + 1] + fraction * (data[s1 + 1] - data[s0 + 1]);
+            float scaler = mGain * SAMPLE_SCALER;
+            int offset = i * samplesPerFrame;
+            if (samplesPerFrame == 1) {
+                outputBuffer[offset] += 0.5f * (left + right) * scaler;
+            } else {
+                outputBuffer[offset] += left * scaler;
+                outputBuffer[offset + 1] += right * scaler;
+            }
+
+            mPosition += step;
+            if (mPosition >= numFrames) {
+                if (mLooping) {
+                    mPosition -= numFrames;
+                } else {
+                    mPosition = 0.0;
+                    mGain = 0.0f;
+                    finish();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void updateSample() {
+        AudioSample pending = mPendingSample;
+        if (pending != mSample) {
+            mSample = pending;
+            mPosition = 0.0;
+            mGain = 0.0f;
+            finish();
+        }
+    }
+
+    private void finish() {
+        mActive = false;
+        mPlaying = false;
+    }
+
+    private float rampFrames() {
+        return Math.max(1.0f, RAMP_SECONDS * mFrameRate);
+    }
+}
@@ -22,6 +22,8 @@ public class SawOscillator extends SynthUnit {
     private float mFrequency = 0.0f;
     private float mFrequencyScaler = 1.0f;
     private float mAmplitude = 1.0f;
+    // phase change per sample for 1 Hz, 2 per cycle
+    private float mPhaseScaler = 2.0f / DEFAULT_SAMPLE_RATE;
 
     public void setPitch(float pitch) {
         float freq = (float) pitchToFrequency(pitch);
@@ -33,8 +35,19 @@ public class SawOscillator extends SynthUnit {
         updatePhaseIncrement();
     }
 
+    public float getFrequency() {
+        return mFrequency;
+    }
+
+    @Override
+    public void setSampleRate(int sampleRate) {
+        super.setSampleRate(sampleRate);
+        mPhaseScaler = 2.0f / sampleRate;
+        updatePhaseIncrement();
+    }
+
     private void updatePhaseIncrement() {
-        mPhaseIncrement = 2.0f * mFrequency * mFrequencyScaler / 48000.0f;
+        mPhaseIncrement = mFrequency * mFrequencyScaler * mPhaseScaler;
     }
 
     public void setAmplitude(float amplitude) {
@@ -54,6 +67,21 @@ public class SawOscillator extends SynthUnit {
         updatePhaseIncrement();
     }
 
+    float getPhase() {
+        return mPhase;
+    }
+
+    void setPhase(float phase) {
+        mPhase = phase;
+    }
+
+    /**
+     * @return phase change per sample, 2 per cycle
+     */
+    float getPhaseIncrement() {
+        return mPhaseIncrement;
+    }
+
     float incrementWrapPhase() {
         mPhase += mPhaseIncrement;
         while (mPhase > 1.0) {
@@ -65,9 +93,42 @@ public class SawOscillator extends SynthUnit {
         return mPhase;
     }
 
+    /**
+     * Write the next frames values of incrementWrapPhase() into out.
+     */
+    void renderPhases(float[] out, int offset, int frames) {
+        float phase = mPhase;
+        float increment = mPhaseIncrement;
+        int end = offset + frames;
+        if (increment < 0.0f || increment > 2.0f) {
+            for (int i = offset; i < end; i++) {
+                out[i] = incrementWrapPhase();
+            }
+            return;
+        }
+        // With the increment in range one subtraction wraps the phase.
+        for (int i = offset; i < end; i++) {
+            phase += increment;
+            if (phase > 1.0f) {
+                phase -= 2.0f;
+            }
+            out[i] = phase;
+        }
+        mPhase = phase;
+    }
+
     @Override
     public float render() {
         return incrementWrapPhase() * mAmplitude;
     }
 
+    @Override
+    public void renderBlock(float[] out, int offset, int frames) {
+        renderPhases(out, offset, frames);
+        float amplitude = mAmplitude;
+        for (int i = offset, end = offset + frames; i < end; i++) {
+            out[i] *= amplitude;
+        }
+    }
+
 }
@@ -28,14 +28,20 @@ public class SawOscillatorDPW extends SawOscillator {
 
     @Override
     public void setFrequency(float freq) {
-        /* Calculate scaling based on frequency. */
-        freq = Math.abs(freq);
-        super.setFrequency(freq);
-        if (freq < VERY_LOW_FREQ) {
-            mScaler = (float) (0.125 * 44100 / VERY_LOW_FREQ);
-        } else {
-            mScaler = (float) (0.125 * 44100 / freq);
-        }
+        super.setFrequency(Math.abs(freq));
+        updateScaler();
+    }
+
+    @Override
+    public void setSampleRate(int sampleRate) {
+        super.setSampleRate(sampleRate);
+        updateScaler();
+    }
+
+    /* Calculate scaling based on frequency. */
+    private void updateScaler() {
+        float freq = Math.max(getFrequency(), VERY_LOW_FREQ);
+        mScaler = (float) (0.125 * getSampleRate() / freq);
     }
 
     @Override
@@ -49,4 +55,20 @@ public class SawOscillatorDPW extends SawOscillator {
         return diffed * mScaler * getAmplitude();
     }
 
+    @Override
+    public void renderBlock(float[] out, int offset, int frames) {
+        renderPhases(out, offset, frames);
+        float z1 = mZ1;
+        float z2 = mZ2;
+        float scaler = mScaler * getAmplitude();
+        for (int i = offset, end = offset + frames; i < end; i++) {
+            float squared = out[i] * out[i];
+            out[i] = (squared - z2) * scaler;
+            z2 = z1;
+            z1 = squared;
+        }
+        mZ1 = z1;
+        mZ2 = z2;
+    }
+
 }
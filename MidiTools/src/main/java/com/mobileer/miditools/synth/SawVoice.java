@@ -17,19 +17,21 @@
 package com.mobileer.miditools.synth;
 
 /**
- * Sawtooth oscillator with an ADSR.
+ * Band limited sawtooth oscillator with an ADSR.
  */
 public class SawVoice extends SynthVoice {
     private SawOscillator mOscillator;
     private EnvelopeADSR mEnvelope;
+    private final float[] mEnvelopeBlock = new float[MAX_BLOCK_FRAMES];
 
     public SawVoice(int sampleRate) {
         mOscillator = createOscillator();
         mEnvelope = new EnvelopeADSR(sampleRate);
+        mOscillator.setSampleRate(sampleRate);
     }
 
     protected SawOscillator createOscillator() {
-        return new SawOscillator();
+        return new WavetableOscillator(WavetableBank.SAW);
     }
 
     @Override
@@ -51,12 +53,70 @@ public class SawVoice extends SynthVoice {
         mOscillator.setFrequencyScaler(scaler);
     }
 
+    /**
+     * Odd programs play a sawtooth and even ones a sine, twice as loud to
+     * sound about as loud. An oscillator from an overridden
+     * createOscillator() keeps its sound.
+     */
+    @Override
+    public void setProgram(int program) {
+        if (mOscillator instanceof WavetableOscillator) {
+            WavetableOscillator oscillator = (WavetableOscillator) mOscillator;
+            if ((program & 1) == 1) {
+                oscillator.setWaveform(WavetableBank.SAW, 1.0f);
+            } else {
+                oscillator.setWaveform(WavetableBank.SINE, 2.0f);
+            }
+        }
+    }
+
+    @Override
+    public void setSampleRate(int sampleRate) {
+        mOscillator.setSampleRate(sampleRate);
+        mEnvelope.setSampleRate(sampleRate);
+    }
+
     @Override
     public float render() {
         float output = mOscillator.render() * mEnvelope.render();
         return output;
     }
 
+    @Override
+    public void renderBlock(float[] out, int offset, int frames) {
+        float[] envelope = mEnvelopeBlock;
+        while (frames > 0) {
+            int n = Math.min(frames, MAX_BLOCK_FRAMES);
+            if (mEnvelope.renderRamp(envelope, 0, n)) {
+                // The level holds, e.g. in sustain, so scale by it. A voice
+                // that is idle or finished does not run its oscillator.
+                float level = mEnvelope.getLevel();
+                if (level == 0.0f) {
+                    for (int i = offset, end = offset + n; i < end; i++) {
+                        out[i] = 0.0f;
+                    }
+                } else {
+                    mOscillator.renderBlock(out, offset, n);
+                    for (int i = offset, end = offset + n; i < end; i++) {
+                        out[i] *= level;
+                    }
+                }
+            } else {
+                mOscillator.renderBlock(out, offset, n);
+                for (int i = 0; i < n; i++) {
+                    out[offset + i] *= envelope[i];
+                }
+            }
+            offset += n;
+            frames -= n;
+        }
+    }
+
+    @Override
+    public float getLevel() {
+        return getAmplitude() * mEnvelope.getLevel();
+    }
+
     @Override
     public boolean isDone() {
         return mEnvelope.isDone();
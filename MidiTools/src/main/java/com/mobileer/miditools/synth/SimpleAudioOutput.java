@@ -19,6 +19,7 @@ package com.mobileer.miditools.synth;
 import android.annotation.TargetApi;
 import android.media.AudioAttributes;
 import android.media.AudioFormat;
+import android.media.AudioTimestamp;
 import android.media.AudioTrack;
 import android.os.Build;
 import android.util.Log;
@@ -45,6 +46,8 @@ public class SimpleAudioOutput {
 
     private AudioTrack mAudioTrack;
     private int mFrameRate;
+    // rate to ask the AudioTrack for, 0 for the device's native rate
+    private int mRequestedFrameRate;
     private AudioLatencyTuner mLatencyTuner;
     private MyLatencyController mLatencyController = new MyLatencyController();
     private long previousBeginTime;
@@ -114,6 +117,19 @@ public class SimpleAudioOutput {
         }
     }
 
+    /**
+     * Ask for a frame rate at the next start(). The default of 0 uses the
+     * device's native rate, which is needed for a low latency track.
+     * getFrameRate() reports the rate the track actually runs at.
+     */
+    public void setRequestedFrameRate(int frameRate) {
+        mRequestedFrameRate = frameRate;
+    }
+
+    public int getRequestedFrameRate() {
+        return mRequestedFrameRate;
+    }
+
     /**
      * Create an audio track then call play().
      */
@@ -144,10 +160,13 @@ public class SimpleAudioOutput {
         }
         AudioAttributes attributes = attributesBuilder.build();
 
-        AudioFormat format = new AudioFormat.Builder()
+        AudioFormat.Builder formatBuilder = new AudioFormat.Builder()
                 .setEncoding(AudioFormat.ENCODING_PCM_FLOAT)
-                .setChannelMask(AudioFormat.CHANNEL_OUT_STEREO)
-                .build();
+                .setChannelMask(AudioFormat.CHANNEL_OUT_STEREO);
+        if (mRequestedFrameRate > 0) {
+            formatBuilder.setSampleRate(mRequestedFrameRate);
+        }
+        AudioFormat format = formatBuilder.build();
         AudioTrack.Builder builder = new AudioTrack.Builder()
                 .setAudioAttributes(attributes)
                 .setAudioFormat(format);
@@ -209,6 +228,17 @@ public class SimpleAudioOutput {
         return mFrameRate;
     }
 
+    /**
+     * Get the frame that was last presented and when, counting frames from
+     * start().
+     *
+     * @return false if the output cannot tell yet
+     */
+    public boolean getTimestamp(AudioTimestamp timestamp) {
+        AudioTrack track = mAudioTrack;
+        return track != null && track.getTimestamp(timestamp);
+    }
+
     public LatencyController getLatencyController() {
         return mLatencyController;
     }
@@ -26,6 +26,7 @@ public class SineOscillator extends SawOscillator {
     private static final float IF7 = IF5 / (6 * 7);
     private static final float IF9 = IF7 / (8 * 9);
     private static final float IF11 = IF9 / (10 * 11);
+    private static final float PI = (float) Math.PI;
 
     /**
      * Calculate sine using Taylor expansion. Do not use values outside the range.
@@ -38,7 +39,8 @@ public class SineOscillator extends SawOscillator {
         float yp = (currentPhase > 0.5f) ? 1.0f - currentPhase
                 : ((currentPhase < (-0.5f)) ? (-1.0f) - currentPhase : currentPhase);
 
-        float x = (float) (yp * Math.PI);
+        // Stay in float so a loop of these can be vectorized.
+        float x = yp * PI;
         float x2 = (x * x);
         /* Taylor expansion out to x**11/11! factored into multiply-adds */
         return x * (x2 * (x2 * (x2 * (x2 * ((x2 * (-IF11)) + IF9) - IF7) + IF5) - IF3) + 1);
@@ -52,4 +54,13 @@ public class SineOscillator extends SawOscillator {
         return fastSin(phase) * 2 * getAmplitude();
     }
 
+    @Override
+    public void renderBlock(float[] out, int offset, int frames) {
+        renderPhases(out, offset, frames);
+        float scaler = 2 * getAmplitude();
+        for (int i = offset, end = offset + frames; i < end; i++) {
+            out[i] = fastSin(out[i]) * scaler;
+        }
+    }
+
 }
@@ -26,6 +26,8 @@ public class SineVoice extends SawVoice {
 
     @Override
     protected SawOscillator createOscillator() {
-        return new SineOscillator();
+        // Twice the level, like SineOscillator, to sound about as loud as the
+        // sawtooth.
+        return new WavetableOscillator(WavetableBank.SINE, 2.0f);
     }
 }
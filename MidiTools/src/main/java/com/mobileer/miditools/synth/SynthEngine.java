@@ -16,45 +16,94 @@
 
 package com.mobileer.miditools.synth;
 
+import android.media.AudioTimestamp;
 import android.media.midi.MidiReceiver;
 import android.util.Log;
 
 import com.mobileer.miditools.MidiConstants;
+import com.mobileer.miditools.MidiEventRing;
 import com.mobileer.miditools.MidiEventScheduler;
 import com.mobileer.miditools.MidiFramer;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.Arrays;
 
 /**
- * Very simple polyphonic, single channel synthesizer. It runs a background
+ * Very simple polyphonic, multi-channel synthesizer. It runs a background
  * thread that processes MIDI events and synthesizes audio.
+ * Notes on {@link #SAMPLE_CHANNEL} start and stop the sample player instead.
+ *
+ * Each channel has its own program, pitch bend, bend range and volume, so
+ * separate streams of feedback can play on separate channels. The voices
+ * are shared by all channels and tagged with the channel of their note; a
+ * bend only touches the voices of its channel.
+ *
+ * send() and onSend() can be called from any number of threads. Senders
+ * take turns on a lock to write into the single-writer event ring; the
+ * synthesis thread reads the ring without ever taking that lock.
+ *
+ * An event is rendered on the frame that will be heard at its timestamp, as
+ * given by an {@link AudioClock} that follows the AudioTrack's timestamps.
+ * Each block is rendered in pieces split at its events. Events that are
+ * already late are rendered at the start of the next block.
+ *
+ * The sample rate is that of the audio output, optionally requested with
+ * {@link #setSampleRate(int)}. When the engine starts it is passed to the
+ * voices, the sample player and the clock, which precompute what depends on
+ * it. The voices are allocated once and kept across restarts.
  */
 public class SynthEngine extends MidiReceiver {
 
     private static final String TAG = "SynthEngine";
+    /** Note on and note off on this channel control the sample player. */
+    public static final int SAMPLE_CHANNEL = 15;
     // 64 is the greatest common divisor of 192 and 128
     private static final int DEFAULT_FRAMES_PER_BLOCK = 64;
     private static final int SAMPLES_PER_FRAME = 2;
+    // MIDI messages that can be waiting for the synthesis thread
+    private static final int EVENT_RING_CAPACITY = 256;
+    // How often the audio clock is corrected with the output's timestamp.
+    private static final int CLOCK_UPDATES_PER_SECOND = 10;
+    public static final int DEFAULT_POLYPHONY = 16;
+    private static final int NUM_CHANNELS = MidiConstants.MAX_CHANNELS;
+    private static final float DEFAULT_BEND_RANGE = 2.0f; // semitones
+    private static final int NO_REGISTERED_PARAMETER = 0x3FFF;
+    // level of a channel at full volume
+    private static final float MASTER_LEVEL = 0.25f;
 
     private volatile boolean mThreadEnabled;
     private Thread mThread;
     private float[] mBuffer = null;
-    private float mFrequencyScaler = 1.0f;
-    private float mBendRange = 2.0f; // semitones
-    private int mProgram;
-
-    private ArrayList<SynthVoice> mFreeVoices = new ArrayList<SynthVoice>();
-    private Hashtable<Integer, SynthVoice>
-            mVoices = new Hashtable<Integer, SynthVoice>();
-    private MidiEventScheduler mEventScheduler;
+
+    // State of each channel, indexed by channel. Only used by the synthesis
+    // thread once it is running.
+    private final int[] mPrograms = new int[NUM_CHANNELS];
+    private final float[] mFrequencyScalers = new float[NUM_CHANNELS];
+    private final float[] mBendRanges = new float[NUM_CHANNELS];
+    // registered parameter selected by controllers 101 and 100
+    private final int[] mRegisteredParameters = new int[NUM_CHANNELS];
+    // output level of the voices of each channel, from its volume
+    private final float[] mChannelLevels = new float[NUM_CHANNELS];
+
+    private int mPolyphony = DEFAULT_POLYPHONY;
+    private int mStealMode = VoiceAllocator.STEAL_OLDEST;
+    // Created by the first start(), before MIDI can reach the voices.
+    private VoiceAllocator mVoiceAllocator;
+    // Written by the MIDI thread, read by the synthesis thread without locking.
+    private volatile MidiEventRing mEventRing;
+    // Serializes the writers of mEventRing.
+    private final Object mSendLock = new Object();
     private MidiFramer mFramer;
     private MidiReceiver mReceiver = new MyReceiver();
     private SimpleAudioOutput mAudioOutput;
-    private int mSampleRate;
+    private final SamplePlayer mSamplePlayer = new SamplePlayer();
+    private int mSampleRate = SynthUnit.DEFAULT_SAMPLE_RATE;
     private int mFramesPerBlock = DEFAULT_FRAMES_PER_BLOCK;
+    private final AudioClock mClock = new AudioClock();
+    private final AudioTimestamp mTimestamp = new AudioTimestamp();
+    // Index of the first frame of the next block, counted from the start.
+    private long mFramesRendered;
+    private long mNextClockUpdateFrame;
     private int mMidiByteCount;
 
     public SynthEngine() {
@@ -65,23 +114,37 @@ public class SynthEngine extends MidiReceiver {
         mAudioOutput = audioOutput;
         mReceiver = new MyReceiver();
         mFramer = new MidiFramer(mReceiver);
+        Arrays.fill(mFrequencyScalers, 1.0f);
+        Arrays.fill(mBendRanges, DEFAULT_BEND_RANGE);
+        Arrays.fill(mRegisteredParameters, NO_REGISTERED_PARAMETER);
+        Arrays.fill(mChannelLevels, MASTER_LEVEL);
     }
 
     public SimpleAudioOutput getAudioOutput() {
         return mAudioOutput;
     }
 
+    /**
+     * The player for sounds that are mixed into the synthesizer output, such
+     * as rewards. Set its sample here and play it with notes on SAMPLE_CHANNEL.
+     */
+    public SamplePlayer getSamplePlayer() {
+        return mSamplePlayer;
+    }
+
     /* This will be called when MIDI data arrives. */
     @Override
     public void onSend(byte[] data, int offset, int count, long timestamp)
             throws IOException {
-        if (mEventScheduler != null) {
-            if (!MidiConstants.isAllActiveSensing(data, offset, count)) {
-                mEventScheduler.getReceiver().send(data, offset, count,
-                        timestamp);
+        synchronized (mSendLock) {
+            MidiEventRing eventRing = mEventRing;
+            if (eventRing != null) {
+                if (!MidiConstants.isAllActiveSensing(data, offset, count)) {
+                    eventRing.write(data, offset, count, timestamp);
+                }
             }
+            mMidiByteCount += count;
         }
-        mMidiByteCount += count;
     }
 
     /**
@@ -92,6 +155,43 @@ public class SynthEngine extends MidiReceiver {
         mFramesPerBlock = framesPerBlock;
     }
 
+    /**
+     * Ask the audio output for a sample rate. The default of 0 uses the
+     * device's native rate, which gives the lowest latency. Call this before
+     * the engine is started.
+     * @param sampleRate in Hz, or 0
+     */
+    public void setSampleRate(int sampleRate) {
+        mAudioOutput.setRequestedFrameRate(sampleRate);
+    }
+
+    /**
+     * @return the rate the engine renders at, that of the audio output once
+     *         it has started
+     */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * Set the number of notes that can sound at once. When more are played,
+     * voices are stolen. Call this before the engine is started. The voices
+     * are allocated by the first start(), so later calls can only lower the
+     * limit below that number.
+     * @param polyphony
+     */
+    public void setPolyphony(int polyphony) {
+        mPolyphony = polyphony;
+    }
+
+    /**
+     * Call this before the engine is started.
+     * @param stealMode VoiceAllocator.STEAL_OLDEST or STEAL_QUIETEST
+     */
+    public void setStealMode(int stealMode) {
+        mStealMode = stealMode;
+    }
+
 
     private class MyReceiver extends MidiReceiver {
         @Override
@@ -99,6 +199,10 @@ public class SynthEngine extends MidiReceiver {
                 throws IOException {
             byte command = (byte) (data[0] & MidiConstants.STATUS_COMMAND_MASK);
             int channel = (byte) (data[0] & MidiConstants.STATUS_CHANNEL_MASK);
+            if (channel == SAMPLE_CHANNEL) {
+                sampleCommand(command, data[2]);
+                return;
+            }
             switch (command) {
             case MidiConstants.STATUS_NOTE_OFF:
                 noteOff(channel, data[1], data[2]);
@@ -110,31 +214,48 @@ public class SynthEngine extends MidiReceiver {
                 int bend = (data[2] << 7) + data[1];
                 pitchBend(channel, bend);
                 break;
+            case MidiConstants.STATUS_CONTROL_CHANGE:
+                controlChange(channel, data[1], data[2]);
+                break;
             case MidiConstants.STATUS_PROGRAM_CHANGE:
-                mProgram = data[1];
-                mFreeVoices.clear();
+                programChange(channel, data[1]);
                 break;
             default:
-                logMidiMessage(data, offset, count);
+                // Ignored. Logging each one would slow the synthesis thread.
                 break;
             }
         }
     }
 
+    private void sampleCommand(byte command, int velocity) {
+        if (command == MidiConstants.STATUS_NOTE_ON && velocity > 0) {
+            mSamplePlayer.start(velocity / 127.0f);
+        } else if (command == MidiConstants.STATUS_NOTE_ON
+                || command == MidiConstants.STATUS_NOTE_OFF) {
+            mSamplePlayer.stop();
+        }
+    }
+
     class MyRunnable implements Runnable {
         @Override
         public void run() {
             try {
                 mAudioOutput.start(mFramesPerBlock);
-                mSampleRate = mAudioOutput.getFrameRate(); // rate is now valid
+                applySampleRate(mAudioOutput.getFrameRate()); // rate is now valid
                 if (mBuffer == null) {
                     mBuffer = new float[mFramesPerBlock * SAMPLES_PER_FRAME];
                 }
+                // Until the output reports a timestamp, assume the first frame
+                // is heard once the output buffer has been filled.
+                int bufferFrames = getLatencyController().getBufferSizeInFrames();
+                mClock.reset(0, System.nanoTime() + (bufferFrames * 1000000000L) / mSampleRate);
+                mFramesRendered = 0;
+                mNextClockUpdateFrame = 0;
                 onLoopStarted();
                 // The safest way to exit from a thread is to check a variable.
                 while (mThreadEnabled) {
-                    processMidiEvents();
-                    generateBuffer();
+                    updateClock();
+                    renderBlock();
                     float[] buffer = mBuffer;
                     mAudioOutput.write(buffer, 0, buffer.length);
                     onBufferCompleted(mFramesPerBlock);
@@ -148,6 +269,21 @@ public class SynthEngine extends MidiReceiver {
         }
     }
 
+    /**
+     * Pass the output's rate to everything that renders. The voices update
+     * their coefficients in place, so a new rate allocates nothing.
+     */
+    private void applySampleRate(int sampleRate) {
+        if (sampleRate <= 0) {
+            Log.w(TAG, "Output reported frame rate " + sampleRate + ", using " + mSampleRate);
+            sampleRate = mSampleRate;
+        }
+        mSampleRate = sampleRate;
+        mSamplePlayer.setFrameRate(sampleRate);
+        mClock.setFrameRate(sampleRate);
+        mVoiceAllocator.setSampleRate(sampleRate);
+    }
+
     /**
      * This is called from the synthesis thread before it starts looping.
      */
@@ -169,6 +305,8 @@ public class SynthEngine extends MidiReceiver {
     }
 
     /**
+     * Log a message, for debugging. The engine does not call this for the
+     * messages it receives.
      * Assume message has been aligned to the start of a MIDI message.
      *
      * @param data
@@ -183,57 +321,77 @@ public class SynthEngine extends MidiReceiver {
         Log.i(TAG, text);
     }
 
-    /**
-     * @throws IOException
-     *
-     */
-    private void processMidiEvents() throws IOException {
-        long now = System.nanoTime(); // TODO use audio presentation time
-        MidiEventScheduler.MidiEvent event = (MidiEventScheduler.MidiEvent) mEventScheduler.getNextEvent(now);
-        while (event != null) {
-            mFramer.send(event.data, 0, event.count, event.getTimestamp());
-            mEventScheduler.addEventToPool(event);
-            event = (MidiEventScheduler.MidiEvent) mEventScheduler.getNextEvent(now);
+    private void updateClock() {
+        if (mFramesRendered >= mNextClockUpdateFrame) {
+            if (mAudioOutput.getTimestamp(mTimestamp)) {
+                mClock.update(mTimestamp.framePosition, mTimestamp.nanoTime);
+            }
+            mNextClockUpdateFrame = mFramesRendered + mSampleRate / CLOCK_UPDATES_PER_SECOND;
         }
     }
 
     /**
-     * Mix the output of each active voice into a buffer.
+     * Render the next block, processing each MIDI event that falls in it
+     * just before the frame it is heard on.
+     *
+     * @throws IOException
      */
-    private void generateBuffer() {
+    private void renderBlock() throws IOException {
         float[] buffer = mBuffer;
         for (int i = 0; i < buffer.length; i++) {
             buffer[i] = 0.0f;
         }
-        Iterator<SynthVoice> iterator = mVoices.values().iterator();
-        while (iterator.hasNext()) {
-            SynthVoice voice = iterator.next();
-            if (voice.isDone()) {
-                iterator.remove();
-                // mFreeVoices.add(voice);
-            } else {
-                voice.mix(buffer, SAMPLES_PER_FRAME, 0.25f);
+        long blockStart = mFramesRendered;
+        long blockStartTime = mClock.frameToNanos(blockStart);
+        long lastFrameTime = mClock.frameToNanos(blockStart + mFramesPerBlock - 1);
+        MidiEventRing eventRing = mEventRing;
+        int frame = 0;
+        MidiEventScheduler.MidiEvent event = eventRing.getNextEvent(lastFrameTime);
+        while (event != null) {
+            long timestamp = event.getTimestamp();
+            // Timestamp 0, from send() without one, and late events are
+            // processed now. Otherwise the time from the start of the block
+            // is at most a block long, so it converts to frames without
+            // overflowing however long the device has been up.
+            if (timestamp > blockStartTime) {
+                long nanos = Math.min(timestamp, lastFrameTime) - blockStartTime;
+                long eventFrame = (nanos * mSampleRate + 999999999L) / 1000000000L;
+                eventFrame = Math.max(frame, Math.min(eventFrame, mFramesPerBlock - 1));
+                mixFrames(frame, (int) eventFrame - frame);
+                frame = (int) eventFrame;
             }
+            mFramer.send(event.data, 0, event.count, event.getTimestamp());
+            eventRing.recycle(event);
+            event = eventRing.getNextEvent(lastFrameTime);
         }
+        mixFrames(frame, mFramesPerBlock - frame);
+        mFramesRendered += mFramesPerBlock;
     }
 
-    public void noteOff(int channel, int noteIndex, int velocity) {
-        SynthVoice voice = mVoices.get(noteIndex);
-        if (voice != null) {
-            voice.noteOff();
+    /**
+     * Mix the output of each active voice into part of the buffer.
+     */
+    private void mixFrames(int startFrame, int numFrames) {
+        if (numFrames <= 0) {
+            return;
         }
+        float[] buffer = mBuffer;
+        mVoiceAllocator.mix(buffer, startFrame, numFrames, SAMPLES_PER_FRAME, mChannelLevels);
+        mSamplePlayer.mix(buffer, startFrame, numFrames, SAMPLES_PER_FRAME);
+    }
+
+    public void noteOff(int channel, int noteIndex, int velocity) {
+        mVoiceAllocator.noteOff(channel, noteIndex);
     }
 
     public void allNotesOff() {
-        Iterator<SynthVoice> iterator = mVoices.values().iterator();
-        while (iterator.hasNext()) {
-            SynthVoice voice = iterator.next();
-            voice.noteOff();
-        }
+        mVoiceAllocator.allNotesOff();
     }
 
     /**
-     * Create a SynthVoice.
+     * Create a SynthVoice. The voices are shared by all channels, and are
+     * given the program of a channel with {@link SynthVoice#setProgram} when
+     * they start one of its notes.
      */
     public SynthVoice createVoice(int program) {
         // For every odd program number use a sine wave.
@@ -244,6 +402,16 @@ public class SynthEngine extends MidiReceiver {
         }
     }
 
+    private SynthVoice[] createVoices() {
+        SynthVoice[] voices = new SynthVoice[mPolyphony];
+        for (int i = 0; i < voices.length; i++) {
+            voices[i] = createVoice(mPrograms[0]);
+            // in case an override of createVoice() ignores the rate
+            voices[i].setSampleRate(mSampleRate);
+        }
+        return voices;
+    }
+
     /**
      *
      * @param channel
@@ -254,29 +422,66 @@ public class SynthEngine extends MidiReceiver {
         if (velocity == 0) {
             noteOff(channel,noteIndex, velocity);
         } else {
-            mVoices.remove(noteIndex);
-            SynthVoice voice;
-            if (mFreeVoices.size() > 0) {
-                voice = mFreeVoices.remove(mFreeVoices.size() - 1);
-            } else {
-                voice = createVoice(mProgram);
+            SynthVoice voice = mVoiceAllocator.noteOn(channel, noteIndex, velocity);
+            voice.setProgram(mPrograms[channel]);
+            voice.setFrequencyScaler(mFrequencyScalers[channel]);
+        }
+    }
+
+    /**
+     * Set the program of a channel. It takes effect at the channel's next
+     * note, and allocates nothing.
+     */
+    public void programChange(int channel, int program) {
+        mPrograms[channel] = program;
+    }
+
+    /**
+     * Handles volume, all notes off and registered parameter number 0, pitch
+     * bend sensitivity, so a sender can bend over more than the default two
+     * semitones. Other controllers are ignored.
+     */
+    public void controlChange(int channel, int controller, int value) {
+        int parameter = mRegisteredParameters[channel];
+        switch (controller) {
+        case MidiConstants.CONTROLLER_VOLUME:
+            // Channels start at full volume. The square gives a curve
+            // closer to loudness than a straight line.
+            float volume = value / 127.0f;
+            mChannelLevels[channel] = MASTER_LEVEL * volume * volume;
+            break;
+        case MidiConstants.CONTROLLER_ALL_NOTES_OFF:
+            mVoiceAllocator.allNotesOff(channel);
+            break;
+        case MidiConstants.CONTROLLER_RPN_MSB:
+            mRegisteredParameters[channel] = (value << 7) | (parameter & 0x7F);
+            break;
+        case MidiConstants.CONTROLLER_RPN_LSB:
+            mRegisteredParameters[channel] = (parameter & (0x7F << 7)) | value;
+            break;
+        case MidiConstants.CONTROLLER_DATA_ENTRY_MSB:
+            if (parameter == MidiConstants.RPN_PITCH_BEND_SENSITIVITY) {
+                mBendRanges[channel] = value;
             }
-            voice.setFrequencyScaler(mFrequencyScaler);
-            voice.noteOn(noteIndex, velocity);
-            mVoices.put(noteIndex, voice);
+            break;
+        case MidiConstants.CONTROLLER_DATA_ENTRY_LSB:
+            if (parameter == MidiConstants.RPN_PITCH_BEND_SENSITIVITY) {
+                mBendRanges[channel] = (float) Math.floor(mBendRanges[channel]) + value / 100.0f;
+            }
+            break;
+        default:
+            break;
         }
     }
 
+    /**
+     * Bend the notes of one channel, and those it plays until the next bend.
+     */
     public void pitchBend(int channel, int bend) {
-        double semitones = (mBendRange * (bend - 0x2000)) / 0x2000;
-        mFrequencyScaler = (float) Math.pow(2.0, semitones / 12.0);
-
-        Log.e(TAG, "Frequency: " + Float.toString(mFrequencyScaler));
-        Iterator<SynthVoice> iterator = mVoices.values().iterator();
-        while (iterator.hasNext()) {
-            SynthVoice voice = iterator.next();
-            voice.setFrequencyScaler(mFrequencyScaler);
-        }
+        double semitones = (mBendRanges[channel] * (bend - 0x2000)) / 0x2000;
+        float scaler = (float) Math.pow(2.0, semitones / 12.0);
+        mFrequencyScalers[channel] = scaler;
+        mVoiceAllocator.setFrequencyScaler(channel, scaler);
     }
 
     /**
@@ -284,9 +489,16 @@ public class SynthEngine extends MidiReceiver {
      */
     public void start() {
         stop();
+        if (mVoiceAllocator == null) {
+            mVoiceAllocator = new VoiceAllocator(createVoices());
+        } else {
+            mVoiceAllocator.allNotesOff();
+        }
+        mVoiceAllocator.setPolyphony(mPolyphony);
+        mVoiceAllocator.setStealMode(mStealMode);
         mThreadEnabled = true;
         mThread = new Thread(new MyRunnable());
-        mEventScheduler = new MidiEventScheduler();
+        mEventRing = new MidiEventRing(EVENT_RING_CAPACITY);
         mThread.start();
     }
 
@@ -303,7 +515,7 @@ public class SynthEngine extends MidiReceiver {
                 // OK, just stopping safely.
             }
             mThread = null;
-            mEventScheduler = null;
+            mEventRing = null;
         }
     }
 
@@ -18,9 +18,13 @@ package com.mobileer.miditools.synth;
 
 public abstract class SynthUnit {
 
+    /** Rate a unit runs at until it is given the output's rate. */
+    public static final int DEFAULT_SAMPLE_RATE = 48000;
     private static final double CONCERT_A_PITCH = 69.0;
     private static final double CONCERT_A_FREQUENCY = 440.0;
 
+    private int mSampleRate = DEFAULT_SAMPLE_RATE;
+
     /**
      * @param pitch
      *            MIDI pitch in semitones
@@ -31,5 +35,29 @@ public abstract class SynthUnit {
         return CONCERT_A_FREQUENCY * Math.pow(2.0, semitones / 12.0);
     }
 
+    /**
+     * Set the rate the unit renders at. Units override this to recompute the
+     * coefficients that depend on it, so render() does not divide by it.
+     * Call it from the thread that renders, or before rendering starts.
+     */
+    public void setSampleRate(int sampleRate) {
+        mSampleRate = sampleRate;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
     public abstract float render();
+
+    /**
+     * Render frames values into out, starting at offset. This default calls
+     * render() for each frame; units override it with a loop that does not
+     * dispatch per sample.
+     */
+    public void renderBlock(float[] out, int offset, int frames) {
+        for (int i = offset, end = offset + frames; i < end; i++) {
+            out[i] = render();
+        }
+    }
 }
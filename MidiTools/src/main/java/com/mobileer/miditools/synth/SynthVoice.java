@@ -20,6 +20,9 @@ package com.mobileer.miditools.synth;
  * Base class for a polyphonic synthesizer voice.
  */
 public abstract class SynthVoice {
+    /** Longest block rendered at once; longer ones are split. */
+    protected static final int MAX_BLOCK_FRAMES = 256;
+    private final float[] mBlock = new float[MAX_BLOCK_FRAMES];
     private int mNoteIndex;
     private float mAmplitude;
     public static final int STATE_OFF = 0;
@@ -48,18 +51,60 @@ public abstract class SynthVoice {
      * @param level
      */
     public void mix(float[] outputBuffer, int samplesPerFrame, float level) {
-        int numFrames = outputBuffer.length / samplesPerFrame;
-        for (int i = 0; i < numFrames; i++) {
-            float output = render();
-            int offset = i * samplesPerFrame;
-            for (int jf = 0; jf < samplesPerFrame; jf++) {
-                outputBuffer[offset + jf] += output * level;
+        mix(outputBuffer, 0, outputBuffer.length / samplesPerFrame, samplesPerFrame, level);
+    }
+
+    /**
+     * Add the output of this voice to part of an output buffer.
+     *
+     * @param outputBuffer
+     * @param startFrame first frame of the buffer to mix into
+     * @param numFrames
+     * @param samplesPerFrame
+     * @param level
+     */
+    public void mix(float[] outputBuffer, int startFrame, int numFrames,
+                    int samplesPerFrame, float level) {
+        float[] block = mBlock;
+        // A voice that has finished adds nothing, so it is not rendered.
+        while (numFrames > 0 && !isDone()) {
+            int frames = Math.min(numFrames, MAX_BLOCK_FRAMES);
+            renderBlock(block, 0, frames);
+            int offset = startFrame * samplesPerFrame;
+            if (samplesPerFrame == 2) {
+                for (int i = 0; i < frames; i++) {
+                    float output = block[i] * level;
+                    outputBuffer[offset] += output;
+                    outputBuffer[offset + 1] += output;
+                    offset += 2;
+                }
+            } else {
+                for (int i = 0; i < frames; i++) {
+                    float output = block[i] * level;
+                    for (int jf = 0; jf < samplesPerFrame; jf++) {
+                        outputBuffer[offset + jf] += output;
+                    }
+                    offset += samplesPerFrame;
+                }
             }
+            startFrame += frames;
+            numFrames -= frames;
         }
     }
 
     public abstract float render();
 
+    /**
+     * Render frames mono samples of this voice into out, starting at offset.
+     * This default calls render() for each frame; voices override it to
+     * render their units a block at a time.
+     */
+    public void renderBlock(float[] out, int offset, int frames) {
+        for (int i = offset, end = offset + frames; i < end; i++) {
+            out[i] = render();
+        }
+    }
+
     public boolean isDone() {
         return mState == STATE_OFF;
     }
@@ -72,6 +117,13 @@ public abstract class SynthVoice {
         return mAmplitude;
     }
 
+    /**
+     * @return how loud the voice is now, used to pick a voice to steal
+     */
+    public float getLevel() {
+        return isDone() ? 0.0f : mAmplitude;
+    }
+
     public void setAmplitude(float amplitude) {
         this.mAmplitude = amplitude;
     }
@@ -82,4 +134,18 @@ public abstract class SynthVoice {
     public void setFrequencyScaler(float scaler) {
     }
 
+    /**
+     * Choose the sound of the voice's next note, from the program of the
+     * channel that plays it. Voices with a single sound ignore it.
+     */
+    public void setProgram(int program) {
+    }
+
+    /**
+     * Set the rate the voice renders at. Voices pass it on to their units,
+     * which recompute their coefficients in place.
+     */
+    public void setSampleRate(int sampleRate) {
+    }
+
 }
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import com.mobileer.miditools.MidiConstants;
+
+import java.util.Arrays;
+
+/**
+ * Assigns notes to a fixed set of pre-allocated voices.
+ *
+ * Each of the 128 MIDI notes of each of the 16 channels maps to the index of
+ * the voice playing it, or -1, and each voice is tagged with its channel. A
+ * voice stays assigned to its note through the release, so playing the note
+ * again retriggers the same voice, and is recycled once its envelope has
+ * finished. When all voices allowed by the polyphony limit are busy, a voice
+ * is stolen: a released one if there is any, otherwise a held one, choosing
+ * the oldest or the quietest. The methods without a channel use channel 0.
+ *
+ * noteOn(), noteOff() and mix() allocate nothing. Not thread safe; used by
+ * the synthesis thread.
+ */
+public class VoiceAllocator {
+    public static final int STEAL_OLDEST = 0;
+    public static final int STEAL_QUIETEST = 1;
+    private static final int NUM_NOTES = 128;
+    private static final int NUM_KEYS = MidiConstants.MAX_CHANNELS * NUM_NOTES;
+
+    private final SynthVoice[] mVoices;
+    // indexed by key, (channel << 7) | note
+    private final int[] mNoteToVoice = new int[NUM_KEYS];
+    // key of the note each voice is assigned to
+    private final int[] mVoiceKeys;
+    private final boolean[] mActive;
+    private final boolean[] mHeld;
+    private final long[] mStartOrder;
+    private long mNextStartOrder;
+    private int mPolyphony;
+    private int mStealMode = STEAL_OLDEST;
+
+    /**
+     * @param voices the voices to play notes with; the polyphony limit starts
+     *               at their number
+     */
+    public VoiceAllocator(SynthVoice[] voices) {
+        mVoices = voices;
+        mVoiceKeys = new int[voices.length];
+        mActive = new boolean[voices.length];
+        mHeld = new boolean[voices.length];
+        mStartOrder = new long[voices.length];
+        Arrays.fill(mNoteToVoice, -1);
+        mPolyphony = voices.length;
+    }
+
+    /**
+     * Limit the number of voices that sound at once. It can not be more than
+     * the number of voices.
+     */
+    public void setPolyphony(int polyphony) {
+        mPolyphony = Math.max(1, Math.min(polyphony, mVoices.length));
+    }
+
+    public int getPolyphony() {
+        return mPolyphony;
+    }
+
+    /**
+     * @param stealMode STEAL_OLDEST or STEAL_QUIETEST
+     */
+    public void setStealMode(int stealMode) {
+        mStealMode = stealMode;
+    }
+
+    public SynthVoice noteOn(int noteIndex, int velocity) {
+        return noteOn(0, noteIndex, velocity);
+    }
+
+    /**
+     * Start a note on a free voice, the voice already playing it, or a stolen
+     * voice. Voices are shared by all channels.
+     *
+     * @return the voice playing the note
+     */
+    public SynthVoice noteOn(int channel, int noteIndex, int velocity) {
+        int key = (channel << 7) | noteIndex;
+        int index = mNoteToVoice[key];
+        if (index < 0) {
+            index = findFreeVoice();
+            if (index < 0) {
+                index = findVoiceToSteal();
+                mNoteToVoice[mVoiceKeys[index]] = -1;
+            }
+            mNoteToVoice[key] = index;
+            mVoiceKeys[index] = key;
+        }
+        mActive[index] = true;
+        mHeld[index] = true;
+        mStartOrder[index] = mNextStartOrder++;
+        SynthVoice voice = mVoices[index];
+        voice.noteOn(noteIndex, velocity);
+        return voice;
+    }
+
+    public void noteOff(int noteIndex) {
+        noteOff(0, noteIndex);
+    }
+
+    /**
+     * Release the voice playing the note, if any.
+     */
+    public void noteOff(int channel, int noteIndex) {
+        int index = mNoteToVoice[(channel << 7) | noteIndex];
+        if (index >= 0 && mHeld[index]) {
+            mHeld[index] = false;
+            mVoices[index].noteOff();
+        }
+    }
+
+    public void allNotesOff() {
+        for (int i = 0; i < mVoices.length; i++) {
+            if (mHeld[i]) {
+                mHeld[i] = false;
+                mVoices[i].noteOff();
+            }
+        }
+    }
+
+    /**
+     * Release the held notes of one channel.
+     */
+    public void allNotesOff(int channel) {
+        for (int i = 0; i < mVoices.length; i++) {
+            if (mHeld[i] && (mVoiceKeys[i] >> 7) == channel) {
+                mHeld[i] = false;
+                mVoices[i].noteOff();
+            }
+        }
+    }
+
+    /**
+     * Apply a pitch bend to every voice.
+     */
+    public void setFrequencyScaler(float scaler) {
+        for (SynthVoice voice : mVoices) {
+            voice.setFrequencyScaler(scaler);
+        }
+    }
+
+    /**
+     * Apply a pitch bend to the sounding voices of one channel. A voice that
+     * starts a note later must be given the channel's bend then.
+     */
+    public void setFrequencyScaler(int channel, float scaler) {
+        for (int i = 0; i < mVoices.length; i++) {
+            if (mActive[i] && (mVoiceKeys[i] >> 7) == channel) {
+                mVoices[i].setFrequencyScaler(scaler);
+            }
+        }
+    }
+
+    /**
+     * Change the rate of every voice. Nothing is allocated.
+     */
+    public void setSampleRate(int sampleRate) {
+        for (SynthVoice voice : mVoices) {
+            voice.setSampleRate(sampleRate);
+        }
+    }
+
+    public SynthVoice getVoice(int noteIndex) {
+        return getVoice(0, noteIndex);
+    }
+
+    /**
+     * @return the voice playing the note or null
+     */
+    public SynthVoice getVoice(int channel, int noteIndex) {
+        int index = mNoteToVoice[(channel << 7) | noteIndex];
+        return (index < 0) ? null : mVoices[index];
+    }
+
+    /**
+     * @return number of voices that are sounding
+     */
+    public int getActiveCount() {
+        int count = 0;
+        for (boolean active : mActive) {
+            if (active) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Add the sounding voices to part of an output buffer, and recycle the
+     * voices that have finished.
+     */
+    public void mix(float[] outputBuffer, int startFrame, int numFrames,
+                    int samplesPerFrame, float level) {
+        mix(outputBuffer, startFrame, numFrames, samplesPerFrame, level, null);
+    }
+
+    /**
+     * Like mix(), with each voice scaled by the level of its channel.
+     */
+    public void mix(float[] outputBuffer, int startFrame, int numFrames,
+                    int samplesPerFrame, float[] channelLevels) {
+        mix(outputBuffer, startFrame, numFrames, samplesPerFrame, 0.0f, channelLevels);
+    }
+
+    private void mix(float[] outputBuffer, int startFrame, int numFrames,
+                     int samplesPerFrame, float level, float[] channelLevels) {
+        for (int i = 0; i < mVoices.length; i++) {
+            if (!mActive[i]) {
+                continue;
+            }
+            SynthVoice voice = mVoices[i];
+            if (voice.isDone()) {
+                mActive[i] = false;
+                mHeld[i] = false;
+                mNoteToVoice[mVoiceKeys[i]] = -1;
+            } else {
+                float voiceLevel = (channelLevels == null)
+                        ? level : channelLevels[mVoiceKeys[i] >> 7];
+                voice.mix(outputBuffer, startFrame, numFrames, samplesPerFrame, voiceLevel);
+            }
+        }
+    }
+
+    private int findFreeVoice() {
+        for (int i = 0; i < mPolyphony; i++) {
+            if (!mActive[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int findVoiceToSteal() {
+        int best = -1;
+        // Released voices are stolen before held ones.
+        for (int pass = 0; pass < 2 && best < 0; pass++) {
+            boolean held = (pass == 1);
+            for (int i = 0; i < mPolyphony; i++) {
+                if (mHeld[i] != held) {
+                    continue;
+                }
+                if (best < 0 || isBetterToSteal(i, best)) {
+                    best = i;
+                }
+            }
+        }
+        return best;
+    }
+
+    private boolean isBetterToSteal(int candidate, int best) {
+        if (mStealMode == STEAL_QUIETEST) {
+            float level = mVoices[candidate].getLevel();
+            float bestLevel = mVoices[best].getLevel();
+            if (level != bestLevel) {
+                return level < bestLevel;
+            }
+        }
+        return mStartOrder[candidate] < mStartOrder[best];
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+/**
+ * Band limited, mip-mapped wavetables for sine, sawtooth, square and
+ * triangle waves, built once and shared by every oscillator.
+ *
+ * Each waveform has one table per octave. Level 0 holds TABLE_SIZE / 2
+ * harmonics and each further level half as many, down to the fundamental
+ * alone. An oscillator plays the lowest level whose highest harmonic stays
+ * below the Nyquist frequency at its phase increment, so a note never
+ * aliases whatever the output frame rate is. The tables are built by
+ * summing harmonics from a sine table, and all levels of a waveform share
+ * one gain so switching levels does not change the loudness.
+ *
+ * Every table spans one cycle of the phase used by SawOscillator, from -1 to
+ * +1, plus two guard points so that interpolating at a phase of exactly +1
+ * stays inside the table.
+ */
+public class WavetableBank {
+    public static final int SINE = 0;
+    public static final int SAW = 1;
+    public static final int SQUARE = 2;
+    public static final int TRIANGLE = 3;
+    private static final int NUM_WAVEFORMS = 4;
+
+    /** Number of points in one cycle. */
+    public static final int TABLE_SIZE = 2048;
+    /** Number of mip levels, down to a single harmonic. */
+    public static final int NUM_LEVELS = Integer.numberOfTrailingZeros(TABLE_SIZE / 2) + 1;
+
+    private static WavetableBank sInstance;
+
+    // [waveform][level][TABLE_SIZE + 2]
+    private final float[][][] mTables = new float[NUM_WAVEFORMS][][];
+
+    /**
+     * @return the shared bank, building it on first use
+     */
+    public static synchronized WavetableBank getInstance() {
+        if (sInstance == null) {
+            sInstance = new WavetableBank();
+        }
+        return sInstance;
+    }
+
+    private WavetableBank() {
+        float[] sine = new float[TABLE_SIZE];
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            sine[i] = (float) Math.sin(2.0 * Math.PI * i / TABLE_SIZE);
+        }
+        // The sine has nothing to band limit, so all its levels are the same.
+        float[][] sineLevels = new float[NUM_LEVELS][];
+        float[] sineTable = buildTable(sine, SINE, 1);
+        normalize(new float[][] {sineTable});
+        for (int level = 0; level < NUM_LEVELS; level++) {
+            sineLevels[level] = sineTable;
+        }
+        mTables[SINE] = sineLevels;
+        for (int waveform = SAW; waveform < NUM_WAVEFORMS; waveform++) {
+            float[][] levels = new float[NUM_LEVELS][];
+            for (int level = 0; level < NUM_LEVELS; level++) {
+                levels[level] = buildTable(sine, waveform, getHarmonicCount(level));
+            }
+            normalize(levels);
+            mTables[waveform] = levels;
+        }
+    }
+
+    /**
+     * @return the number of harmonics in the tables of level
+     */
+    public static int getHarmonicCount(int level) {
+        return (TABLE_SIZE / 2) >> level;
+    }
+
+    /**
+     * Choose the level to play at a phase increment, in SawOscillator units
+     * of 2 per cycle.
+     *
+     * @return the lowest level whose harmonics all stay below Nyquist
+     */
+    public static int selectLevel(float phaseIncrement) {
+        // Harmonic h is at h * increment / 2 cycles per sample, which must
+        // stay below 1/2.
+        float increment = Math.abs(phaseIncrement);
+        int level = 0;
+        while (level < NUM_LEVELS - 1 && getHarmonicCount(level) * increment >= 1.0f) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * @return the table of waveform at level, TABLE_SIZE + 2 points long
+     */
+    public float[] getTable(int waveform, int level) {
+        return mTables[waveform][level];
+    }
+
+    // Amplitude of harmonic h of waveform, for a wave that is a sum of sines.
+    private static double harmonicAmplitude(int waveform, int h) {
+        switch (waveform) {
+        case SINE:
+            return (h == 1) ? 1.0 : 0.0;
+        case SAW:
+            // rises from -1 to +1 over the cycle, like the raw phase
+            return ((h & 1) == 1 ? 2.0 : -2.0) / (Math.PI * h);
+        case SQUARE:
+            return ((h & 1) == 1) ? 4.0 / (Math.PI * h) : 0.0;
+        case TRIANGLE:
+            if ((h & 1) == 0) {
+                return 0.0;
+            }
+            return (((h >> 1) & 1) == 0 ? 8.0 : -8.0) / (Math.PI * Math.PI * h * h);
+        default:
+            throw new IllegalArgumentException("Unknown waveform " + waveform);
+        }
+    }
+
+    private static float[] buildTable(float[] sine, int waveform, int numHarmonics) {
+        // Point i is at phase 2 * i / TABLE_SIZE - 1, an angle of
+        // 2 * pi * i / TABLE_SIZE - pi, so harmonic h is shifted by h * pi.
+        double[] sum = new double[TABLE_SIZE];
+        for (int h = 1; h <= numHarmonics; h++) {
+            double amplitude = harmonicAmplitude(waveform, h);
+            if (amplitude == 0.0) {
+                continue;
+            }
+            if ((h & 1) == 1) {
+                amplitude = -amplitude;
+            }
+            int index = 0;
+            for (int i = 0; i < TABLE_SIZE; i++) {
+                sum[i] += amplitude * sine[index];
+                index = (index + h) & (TABLE_SIZE - 1);
+            }
+        }
+        float[] table = new float[TABLE_SIZE + 2];
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            table[i] = (float) sum[i];
+        }
+        table[TABLE_SIZE] = table[0];
+        table[TABLE_SIZE + 1] = table[1];
+        return table;
+    }
+
+    // Scale all levels by one gain so the loudest peak is 1.
+    private static void normalize(float[][] levels) {
+        float peak = 0.0f;
+        for (float[] table : levels) {
+            for (float value : table) {
+                peak = Math.max(peak, Math.abs(value));
+            }
+        }
+        float gain = 1.0f / peak;
+        for (float[] table : levels) {
+            for (int i = 0; i < table.length; i++) {
+                table[i] *= gain;
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+/**
+ * Oscillator that plays a band limited wavetable from the shared
+ * {@link WavetableBank}, with linear interpolation. The mip level is chosen
+ * whenever the frequency changes, so the note stays free of aliasing when it
+ * is played high or bent up.
+ */
+public class WavetableOscillator extends SawOscillator {
+    private static final float HALF_TABLE = WavetableBank.TABLE_SIZE / 2;
+
+    private final WavetableBank mBank;
+    private int mWaveform;
+    private float mGain;
+    private float[] mTable;
+
+    /**
+     * @param waveform e.g. WavetableBank.SAW
+     */
+    public WavetableOscillator(int waveform) {
+        this(waveform, 1.0f);
+    }
+
+    /**
+     * @param waveform e.g. WavetableBank.SAW
+     * @param gain     applied on top of the amplitude
+     */
+    public WavetableOscillator(int waveform, float gain) {
+        mBank = WavetableBank.getInstance();
+        mWaveform = waveform;
+        mGain = gain;
+        selectTable();
+    }
+
+    /**
+     * Switch to another waveform of the bank. Nothing is allocated.
+     *
+     * @param waveform e.g. WavetableBank.SINE
+     * @param gain     applied on top of the amplitude
+     */
+    public void setWaveform(int waveform, float gain) {
+        mWaveform = waveform;
+        mGain = gain;
+        selectTable();
+    }
+
+    @Override
+    public void setFrequency(float frequency) {
+        super.setFrequency(frequency);
+        selectTable();
+    }
+
+    @Override
+    public void setFrequencyScaler(float frequencyScaler) {
+        super.setFrequencyScaler(frequencyScaler);
+        selectTable();
+    }
+
+    @Override
+    public void setSampleRate(int sampleRate) {
+        super.setSampleRate(sampleRate);
+        selectTable();
+    }
+
+    private void selectTable() {
+        mTable = mBank.getTable(mWaveform, WavetableBank.selectLevel(getPhaseIncrement()));
+    }
+
+    @Override
+    public float render() {
+        float position = (incrementWrapPhase() + 1.0f) * HALF_TABLE;
+        int index = (int) position;
+        float fraction = position - index;
+        float[] table = mTable;
+        float value = table[index] + fraction * (table[index + 1] - table[index]);
+        return value * mGain * getAmplitude();
+    }
+
+    @Override
+    public void renderBlock(float[] out, int offset, int frames) {
+        float[] table = mTable;
+        float scaler = mGain * getAmplitude();
+        float increment = getPhaseIncrement();
+        if (increment < 0.0f || increment > 2.0f) {
+            for (int i = offset, end = offset + frames; i < end; i++) {
+                out[i] = render();
+            }
+            return;
+        }
+        // Same phase wrap as SawOscillator.renderPhases, with the lookup in
+        // the same pass.
+        float phase = getPhase();
+        for (int i = offset, end = offset + frames; i < end; i++) {
+            phase += increment;
+            if (phase > 1.0f) {
+                phase -= 2.0f;
+            }
+            float position = (phase + 1.0f) * HALF_TABLE;
+            int index = (int) position;
+            float fraction = position - index;
+            out[i] = (table[index] + fraction * (table[index + 1] - table[index])) * scaler;
+        }
+        setPhase(phase);
+    }
+}
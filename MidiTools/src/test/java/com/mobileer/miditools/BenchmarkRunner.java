@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+/**
+ * Times the cases of the benchmarks in this source set. They are plain Java
+ * programs that run on the JVM of the local unit tests, from the IDE or with
+ * java on a desktop, in place of JMH, which the Android build does not have.
+ */
+public final class BenchmarkRunner {
+    public static final int RUNS = 5;
+
+    /** One thing to time. */
+    public abstract static class Case {
+        /** Prepare a run. Not timed. */
+        protected void setUp() {
+        }
+
+        /**
+         * @return the number of operations done
+         */
+        protected abstract long run();
+    }
+
+    private BenchmarkRunner() {
+    }
+
+    /**
+     * Run a case RUNS times. The first runs warm up the JIT; the best one is
+     * kept.
+     *
+     * @return nanoseconds per operation of the best run
+     */
+    public static double nanosPerOperation(Case benchmark) {
+        double best = Double.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            benchmark.setUp();
+            long start = System.nanoTime();
+            long operations = benchmark.run();
+            best = Math.min(best, (System.nanoTime() - start) / (double) operations);
+        }
+        return best;
+    }
+}
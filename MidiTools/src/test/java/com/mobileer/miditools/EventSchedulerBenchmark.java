@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Compares the EventScheduler with the TreeMap of per-timestamp queues it
+ * used before, on the pattern the synthesizer produces: a backlog of pending
+ * notes, and for each one that becomes due another one scheduled a little
+ * later. Prints nanoseconds per poll/add pair. That the heap allocates
+ * nothing in this steady state is checked by TestEventHeap.
+ */
+public class EventSchedulerBenchmark {
+    private static final int[] BACKLOGS = {16, 256, 4096};
+    private static final int OPERATIONS = 2000000;
+
+    /** The former EventScheduler buffer, for comparison. */
+    private static class TreeMapBuffer {
+        private final Object lock = new Object();
+        private final SortedMap<Long, ArrayDeque<EventScheduler.SchedulableEvent>> mEventBuffer =
+                new TreeMap<Long, ArrayDeque<EventScheduler.SchedulableEvent>>();
+
+        void add(EventScheduler.SchedulableEvent event) {
+            synchronized (lock) {
+                ArrayDeque<EventScheduler.SchedulableEvent> list =
+                        mEventBuffer.get(event.getTimestamp());
+                if (list == null) {
+                    list = new ArrayDeque<EventScheduler.SchedulableEvent>();
+                    mEventBuffer.put(event.getTimestamp(), list);
+                }
+                list.add(event);
+            }
+        }
+
+        EventScheduler.SchedulableEvent getNextEvent(long time) {
+            synchronized (lock) {
+                if (mEventBuffer.isEmpty()) {
+                    return null;
+                }
+                long lowestTime = mEventBuffer.firstKey();
+                if (lowestTime > time) {
+                    return null;
+                }
+                ArrayDeque<EventScheduler.SchedulableEvent> list = mEventBuffer.get(lowestTime);
+                EventScheduler.SchedulableEvent event = list.poll();
+                if (list.isEmpty()) {
+                    mEventBuffer.remove(lowestTime);
+                }
+                return event;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        System.out.println("backlog  heap ns/op  treemap ns/op");
+        for (final int backlog : BACKLOGS) {
+            double heapNanos = BenchmarkRunner.nanosPerOperation(new BenchmarkRunner.Case() {
+                @Override
+                protected long run() {
+                    runHeap(backlog);
+                    return OPERATIONS;
+                }
+            });
+            double treeNanos = BenchmarkRunner.nanosPerOperation(new BenchmarkRunner.Case() {
+                @Override
+                protected long run() {
+                    runTreeMap(backlog);
+                    return OPERATIONS;
+                }
+            });
+            System.out.println(String.format("%7d  %10.1f  %13.1f", backlog,
+                    heapNanos, treeNanos));
+        }
+    }
+
+    private static EventScheduler.SchedulableEvent[] createEvents(int backlog, Random random) {
+        EventScheduler.SchedulableEvent[] events = new EventScheduler.SchedulableEvent[backlog];
+        for (int i = 0; i < backlog; i++) {
+            events[i] = new EventScheduler.SchedulableEvent(random.nextInt(backlog * 100));
+        }
+        return events;
+    }
+
+    private static void runHeap(int backlog) {
+        Random random = new Random(backlog);
+        EventScheduler scheduler = new EventScheduler();
+        for (EventScheduler.SchedulableEvent event : createEvents(backlog, random)) {
+            scheduler.add(event);
+        }
+        long now = 0;
+        for (int i = 0; i < OPERATIONS; i++) {
+            EventScheduler.SchedulableEvent event = scheduler.getNextEvent(Long.MAX_VALUE);
+            now = event.getTimestamp();
+            event.setTimestamp(now + random.nextInt(backlog * 100));
+            scheduler.add(event);
+        }
+    }
+
+    private static void runTreeMap(int backlog) {
+        Random random = new Random(backlog);
+        TreeMapBuffer buffer = new TreeMapBuffer();
+        for (EventScheduler.SchedulableEvent event : createEvents(backlog, random)) {
+            buffer.add(event);
+        }
+        long now = 0;
+        for (int i = 0; i < OPERATIONS; i++) {
+            EventScheduler.SchedulableEvent event = buffer.getNextEvent(Long.MAX_VALUE);
+            now = event.getTimestamp();
+            event.setTimestamp(now + random.nextInt(backlog * 100));
+            buffer.add(event);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import com.mobileer.miditools.BenchmarkRunner;
+
+/**
+ * Measures the EnvelopeADSR in each kind of segment, one sample at a time
+ * through render() and a block at a time through renderRamp(). Prints
+ * nanoseconds per frame.
+ */
+public class EnvelopeBenchmark {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int BLOCK_SIZE = 64;
+    private static final int BLOCKS_PER_RUN = 200000;
+
+    private static class EnvelopeCase extends BenchmarkRunner.Case {
+        private final int mKind;
+        private final boolean mBlocks;
+        private final float[] mBuffer = new float[BLOCK_SIZE];
+        private EnvelopeADSR mEnvelope;
+
+        EnvelopeCase(int kind, boolean blocks) {
+            mKind = kind;
+            mBlocks = blocks;
+        }
+
+        @Override
+        protected void setUp() {
+            mEnvelope = create(mKind);
+        }
+
+        @Override
+        protected long run() {
+            float sum = 0.0f;
+            for (int b = 0; b < BLOCKS_PER_RUN; b++) {
+                if (mBlocks) {
+                    if (mEnvelope.renderRamp(mBuffer, 0, BLOCK_SIZE)) {
+                        sum += mEnvelope.getLevel();
+                    } else {
+                        sum += mBuffer[0];
+                    }
+                } else {
+                    for (int i = 0; i < BLOCK_SIZE; i++) {
+                        mBuffer[i] = mEnvelope.render();
+                    }
+                    sum += mBuffer[0];
+                }
+            }
+            if (sum < 0.0f) {
+                // keeps the JIT from dropping the loop
+                System.out.println(sum);
+            }
+            return (long) BLOCKS_PER_RUN * BLOCK_SIZE;
+        }
+    }
+
+    public static void main(String[] args) {
+        String[] names = {"ramp", "sustain", "finished"};
+        System.out.println("segment    render ns  renderRamp ns");
+        for (int k = 0; k < names.length; k++) {
+            double perSample = BenchmarkRunner.nanosPerOperation(new EnvelopeCase(k, false));
+            double perBlock = BenchmarkRunner.nanosPerOperation(new EnvelopeCase(k, true));
+            System.out.println(String.format("%-9s  %9.3f  %13.3f", names[k], perSample, perBlock));
+        }
+    }
+
+    private static EnvelopeADSR create(int kind) {
+        EnvelopeADSR envelope = new EnvelopeADSR(SAMPLE_RATE);
+        // long enough that the attack lasts the whole run
+        envelope.setAttackTime(1000.0f);
+        envelope.on();
+        if (kind > 0) {
+            envelope.setAttackTime(0.001f);
+            envelope.on();
+            for (int i = 0; i < SAMPLE_RATE; i++) {
+                envelope.render();
+            }
+        }
+        if (kind > 1) {
+            envelope.off();
+            for (int i = 0; i < 2 * SAMPLE_RATE; i++) {
+                envelope.render();
+            }
+        }
+        return envelope;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import com.mobileer.miditools.BenchmarkRunner;
+
+/**
+ * Compares the cost per sample of the wavetable oscillators with the Taylor
+ * series SineOscillator and the naive SawOscillator, through render() and
+ * renderBlock(). Prints nanoseconds per sample.
+ */
+public class OscillatorBenchmark {
+    private static final int BLOCK_SIZE = 64;
+    private static final int SAMPLES_PER_RUN = 48000 * 20;
+
+    private static class OscillatorCase extends BenchmarkRunner.Case {
+        private final int mKind;
+        private final boolean mBlocks;
+        private final float[] mBuffer = new float[BLOCK_SIZE];
+        private SawOscillator mOscillator;
+
+        OscillatorCase(int kind, boolean blocks) {
+            mKind = kind;
+            mBlocks = blocks;
+        }
+
+        @Override
+        protected void setUp() {
+            mOscillator = create(mKind);
+        }
+
+        @Override
+        protected long run() {
+            for (int n = 0; n < SAMPLES_PER_RUN; n += BLOCK_SIZE) {
+                if (mBlocks) {
+                    mOscillator.renderBlock(mBuffer, 0, BLOCK_SIZE);
+                } else {
+                    for (int i = 0; i < BLOCK_SIZE; i++) {
+                        mBuffer[i] = mOscillator.render();
+                    }
+                }
+            }
+            return SAMPLES_PER_RUN;
+        }
+    }
+
+    public static void main(String[] args) {
+        WavetableBank.getInstance();
+        String[] names = {"SineOscillator", "SawOscillator", "Wavetable sine", "Wavetable saw"};
+        System.out.println("oscillator        render ns  renderBlock ns");
+        for (int k = 0; k < names.length; k++) {
+            double perSample = BenchmarkRunner.nanosPerOperation(new OscillatorCase(k, false));
+            double perBlock = BenchmarkRunner.nanosPerOperation(new OscillatorCase(k, true));
+            System.out.println(String.format("%-16s  %9.2f  %14.2f", names[k], perSample, perBlock));
+        }
+    }
+
+    private static SawOscillator create(int kind) {
+        SawOscillator oscillator;
+        switch (kind) {
+        case 0:
+            oscillator = new SineOscillator();
+            break;
+        case 1:
+            oscillator = new SawOscillator();
+            break;
+        case 2:
+            oscillator = new WavetableOscillator(WavetableBank.SINE);
+            break;
+        default:
+            oscillator = new WavetableOscillator(WavetableBank.SAW);
+            break;
+        }
+        oscillator.setPitch(60);
+        return oscillator;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import com.mobileer.miditools.BenchmarkRunner;
+
+/**
+ * Compares mixing voices one sample at a time through render() with mixing
+ * them a block at a time through renderBlock(), for several numbers of
+ * voices and block sizes. Prints nanoseconds per voice and frame.
+ */
+public class SynthVoiceBenchmark {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int SAMPLES_PER_FRAME = 2;
+    private static final int[] VOICE_COUNTS = {1, 8, 32};
+    private static final int[] BLOCK_SIZES = {16, 64, 256};
+    private static final int FRAMES_PER_RUN = SAMPLE_RATE * 10;
+
+    private static class MixCase extends BenchmarkRunner.Case {
+        private final int mNumVoices;
+        private final int mBlockSize;
+        private final boolean mBlocks;
+        private final float[] mBuffer;
+        private SynthVoice[] mVoices;
+
+        MixCase(int numVoices, int blockSize, boolean blocks) {
+            mNumVoices = numVoices;
+            mBlockSize = blockSize;
+            mBlocks = blocks;
+            mBuffer = new float[blockSize * SAMPLES_PER_FRAME];
+        }
+
+        @Override
+        protected void setUp() {
+            mVoices = createVoices(mNumVoices);
+        }
+
+        @Override
+        protected long run() {
+            float[] buffer = mBuffer;
+            int numBlocks = FRAMES_PER_RUN / mBlockSize;
+            for (int b = 0; b < numBlocks; b++) {
+                for (int i = 0; i < buffer.length; i++) {
+                    buffer[i] = 0.0f;
+                }
+                for (SynthVoice voice : mVoices) {
+                    if (mBlocks) {
+                        voice.mix(buffer, 0, mBlockSize, SAMPLES_PER_FRAME, 0.25f);
+                    } else {
+                        mixPerSample(voice, buffer, mBlockSize);
+                    }
+                }
+            }
+            return (long) numBlocks * mBlockSize * mNumVoices;
+        }
+    }
+
+    public static void main(String[] args) {
+        System.out.println("voices  block  per sample ns  per block ns");
+        for (int numVoices : VOICE_COUNTS) {
+            for (int blockSize : BLOCK_SIZES) {
+                double perSample = BenchmarkRunner.nanosPerOperation(
+                        new MixCase(numVoices, blockSize, false));
+                double perBlock = BenchmarkRunner.nanosPerOperation(
+                        new MixCase(numVoices, blockSize, true));
+                System.out.println(String.format("%6d  %5d  %13.2f  %12.2f",
+                        numVoices, blockSize, perSample, perBlock));
+            }
+        }
+    }
+
+    private static SynthVoice[] createVoices(int numVoices) {
+        SynthVoice[] voices = new SynthVoice[numVoices];
+        for (int i = 0; i < numVoices; i++) {
+            // a mix of both kinds, held so they never finish
+            voices[i] = ((i & 1) == 0) ? new SineVoice(SAMPLE_RATE) : new SawVoice(SAMPLE_RATE);
+            voices[i].noteOn(48 + i, 100);
+        }
+        return voices;
+    }
+
+    // How SynthVoice.mix worked before renderBlock.
+    private static void mixPerSample(SynthVoice voice, float[] buffer, int numFrames) {
+        for (int i = 0; i < numFrames; i++) {
+            float output = voice.render();
+            int offset = i * SAMPLES_PER_FRAME;
+            for (int jf = 0; jf < SAMPLES_PER_FRAME; jf++) {
+                buffer[offset + jf] += output * 0.25f;
+            }
+        }
+    }
+}
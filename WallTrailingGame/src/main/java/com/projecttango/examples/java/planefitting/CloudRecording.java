@@ -0,0 +1,136 @@
+package com.projecttango.examples.java.planefitting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
+/**
+ * A file of point clouds with the poses they were taken at, so a walk along
+ * a wall can be recorded on the tablet and replayed through {@link WallTracker}
+ * on any machine.
+ *
+ * The file starts with a magic number and a version, followed by one record
+ * per cloud: the timestamp, the column major depth to odom matrix, the device
+ * translation and rotation in odom, the number of points and the points as
+ * x, y, z, confidence. Everything is big endian, as written by DataOutputStream.
+ */
+public final class CloudRecording {
+
+    private static final int MAGIC = 0x434C4F44; // "CLOD"
+    private static final int VERSION = 1;
+
+    /** One recorded cloud. A Frame is reused by {@link Reader#next(Frame)}. */
+    public static class Frame {
+        public double timestamp;
+        public final float[] depthTodom = new float[16];
+        public final double[] translation = new double[3];
+        public final double[] rotation = new double[4];
+        public int numPoints;
+        public float[] points = new float[0];
+
+        /** The points wrapped for {@link WallTracker#process}. */
+        public FloatBuffer pointBuffer() {
+            return FloatBuffer.wrap(points, 0, numPoints * 4);
+        }
+    }
+
+    private CloudRecording() {
+    }
+
+    /** Appends clouds to a file. */
+    public static class Writer implements Closeable {
+        private final DataOutputStream mOut;
+
+        public Writer(File file) throws IOException {
+            mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            mOut.writeInt(MAGIC);
+            mOut.writeInt(VERSION);
+        }
+
+        public void write(double timestamp, float[] depthTodom, double[] translation,
+                          double[] rotation, FloatBuffer points, int numPoints)
+                throws IOException {
+            mOut.writeDouble(timestamp);
+            for (int i = 0; i < 16; i++) {
+                mOut.writeFloat(depthTodom[i]);
+            }
+            for (int i = 0; i < 3; i++) {
+                mOut.writeDouble(translation[i]);
+            }
+            for (int i = 0; i < 4; i++) {
+                mOut.writeDouble(rotation[i]);
+            }
+            mOut.writeInt(numPoints);
+            for (int i = 0, n = numPoints * 4; i < n; i++) {
+                mOut.writeFloat(points.get(i));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+    }
+
+    /** Reads the clouds of a file in order. */
+    public static class Reader implements Closeable {
+        private final DataInputStream mIn;
+
+        public Reader(File file) throws IOException {
+            mIn = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (mIn.readInt() != MAGIC) {
+                mIn.close();
+                throw new IOException(file + " is not a cloud recording");
+            }
+            int version = mIn.readInt();
+            if (version != VERSION) {
+                mIn.close();
+                throw new IOException("Unsupported cloud recording version " + version);
+            }
+        }
+
+        /**
+         * Read the next cloud into frame, growing its point array if needed.
+         *
+         * @return false at the end of the file.
+         */
+        public boolean next(Frame frame) throws IOException {
+            try {
+                frame.timestamp = mIn.readDouble();
+            } catch (EOFException e) {
+                return false;
+            }
+            for (int i = 0; i < 16; i++) {
+                frame.depthTodom[i] = mIn.readFloat();
+            }
+            for (int i = 0; i < 3; i++) {
+                frame.translation[i] = mIn.readDouble();
+            }
+            for (int i = 0; i < 4; i++) {
+                frame.rotation[i] = mIn.readDouble();
+            }
+            frame.numPoints = mIn.readInt();
+            int n = frame.numPoints * 4;
+            if (frame.points.length < n) {
+                frame.points = new float[n];
+            }
+            for (int i = 0; i < n; i++) {
+                frame.points[i] = mIn.readFloat();
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+    }
+}
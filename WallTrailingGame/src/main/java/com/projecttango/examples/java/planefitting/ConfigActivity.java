@@ -2,17 +2,16 @@ package com.projecttango.examples.java.planefitting;
 
 import android.Manifest;
 import android.app.Activity;
-import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
-import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.media.AudioManager;
-import android.media.MediaPlayer;
 import android.media.midi.MidiManager;
 import android.media.midi.MidiReceiver;
 import android.net.Uri;
 import android.os.Bundle;
-import android.support.v4.content.LocalBroadcastManager;
+import android.os.IBinder;
 import android.util.Log;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
@@ -25,21 +24,69 @@ import android.widget.Toast;
 
 import com.mobileer.miditools.MidiConstants;
 import com.mobileer.miditools.MidiInputPortSelector;
+import com.mobileer.miditools.synth.AudioSample;
 import com.mobileer.miditools.synth.LatencyController;
+import com.mobileer.miditools.synth.SynthEngine;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 
 public class ConfigActivity extends Activity {
 
     public static final String TAG = ConfigActivity.class.getSimpleName();
+    /**
+     * Intent extra naming a file in the app's external files directory. When
+     * it is set, the point clouds of the session are recorded there, e.g.
+     * adb shell am start --es record_clouds walk.clouds
+     *     -n com.projecttango.experiments.planefittingsample/com.projecttango.examples.java.planefitting.ConfigActivity
+     */
+    public static final String EXTRA_RECORD_CLOUDS = "record_clouds";
     Button mButton = null;
-    private boolean mIsPaused = true;
-    private Intent mServiceIntent;
+    private volatile boolean mIsPaused = true;
+    // Wall sensing runs in a bound service that keeps Tango connected while the game is paused
+    private WallSensingService mWallSensingService;
+    private boolean mWallSensingRequested;
+    private boolean mWallSensingStarted;
+    private final ServiceConnection mWallSensingConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mWallSensingService = ((WallSensingService.LocalBinder) service).getService();
+            startCloudRecording();
+            if (mWallSensingRequested) {
+                resumeWallSensing();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mWallSensingService = null;
+        }
+    };
     double mWallDist = -1.0;
+    // Wall distance samples, read by the feedback thread only
+    private final WallDistanceChannel.Sample mWallSample = new WallDistanceChannel.Sample();
+    private long mLastWallSequence;
+    private int mLastWallId = -1;
+    // Smooths the distances and decides when the reward plays, with hysteresis
+    // so a distance hovering around the reward distance does not toggle it.
+    private static final int DISTANCE_MEDIAN_WINDOW = 3;
+    private static final double DISTANCE_PROCESS_NOISE = 0.25; // square feet per second
+    private static final double DISTANCE_MEASUREMENT_NOISE = 0.04; // square feet
+    private static final double REWARD_HYSTERESIS = 0.3; // feet
+    private final DistanceFilter mDistanceFilter = new DistanceFilter(DISTANCE_MEDIAN_WINDOW);
+    private static final int LATENCY_REPORT_INTERVAL = 50;
+    private long mLatencyTotalNanos;
+    private long mLatencyMaxNanos;
+    private int mLatencyCount;
     Button selectButton = null;
     Spinner mSelectSpinner = null;
-    MediaPlayer mediaPlayer = null;
+    // The reward sound, decoded once and played by the synth's sample player
+    AudioSample mRewardSample = null;
+    private static final double MAX_REWARD_SECONDS = 60.0;
+    private static final int REWARD_NOTE = 60;
+    private static final int REWARD_VELOCITY = 127;
+    private boolean mRewardPlaying; // feedback thread only
     double mRewardSoundDist = 0.0; // Distance at which reward sounds are played
     double mMaxFreqDist = 5.0; // Distance at which frequency maxes out
     Uri uriSound;
@@ -56,10 +103,32 @@ public class ConfigActivity extends Activity {
     private static final int DEFAULT_VELOCITY = 64;
     private LatencyController mLatencyController;
 
+    // Continuous pitch mode holds one note and bends it with every new distance
+    // instead of playing a note per half second.
+    private static final int CONTINUOUS_BEND_RANGE = 6; // semitones either way
+    private static final int PITCH_BEND_CENTER = 0x2000;
+    private static final long DISTANCE_WAIT_NANOS = 100000000L;
+    private volatile boolean mContinuousPitch = false;
+
+    // The discrete mode pulses faster as the wall gets closer, like a parking sensor.
+    private static final long MIN_PULSE_PERIOD_NANOS = 150000000L;
+    private static final long MAX_PULSE_PERIOD_NANOS = 800000000L;
+    private final PulseSequencer mPulseSequencer = new PulseSequencer(new MidiReceiver() {
+        @Override
+        public void onSend(byte[] data, int offset, int count, long timestamp) {
+            midiSend(data, offset, count, timestamp);
+        }
+    }, 0);
+
     @Override
     protected void onCreate(Bundle saveIntentState) {
         super.onCreate(saveIntentState);
         setContentView(R.layout.activity_config);
+        mDistanceFilter.setProcessNoise(DISTANCE_PROCESS_NOISE);
+        mDistanceFilter.setMeasurementNoise(DISTANCE_MEASUREMENT_NOISE);
+        // Connect to Tango now so that pressing play starts feedback right away
+        bindService(new Intent(this, WallSensingService.class), mWallSensingConnection,
+                Context.BIND_AUTO_CREATE);
 
         array.add(conString);
         array.add("1.0");
@@ -89,7 +158,7 @@ public class ConfigActivity extends Activity {
                 }
                 else{
                     //The use hasn't selected the music but has selected the distance
-                    if(mediaPlayer == null && !item.toString().equals("Wall Distance (feet)"))
+                    if(mRewardSample == null && !item.toString().equals("Wall Distance (feet)"))
                     {
                         mButton.setText("Play");
                         if(!item.toString().equals(conString)){
@@ -118,24 +187,12 @@ public class ConfigActivity extends Activity {
         selectButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                mediaPlayer = null;
+                mRewardSample = null;
                 Intent intent = new Intent(Intent.ACTION_PICK, android.provider.MediaStore.Audio.Media.EXTERNAL_CONTENT_URI);
                 startActivityForResult(intent, 10);
             }
         });
 
-        // The filter's action is BROADCAST_WALLDISTANCE
-        IntentFilter statusIntentFilter = new IntentFilter(
-                Constants.BROADCAST_WALLDISTANCE);
-        // Instantiates a new DownloadStateReceiver
-        DownloadStateReceiver mDownloadStateReceiver =
-                new DownloadStateReceiver();
-        // Registers the DownloadStateReceiver and its intent filters
-        LocalBroadcastManager.getInstance(this).registerReceiver(
-                mDownloadStateReceiver,
-                statusIntentFilter);
-
-
         // MIDI SETUP
         if (getPackageManager().hasSystemFeature(PackageManager.FEATURE_MIDI)) {
             setupMidi();
@@ -217,6 +274,11 @@ public class ConfigActivity extends Activity {
         if (id == R.id.action_settings) {
             return true;
         }
+        if (id == R.id.action_continuous_pitch) {
+            item.setChecked(!item.isChecked());
+            mContinuousPitch = item.isChecked();
+            return true;
+        }
 
         return super.onOptionsItemSelected(item);
     }
@@ -242,19 +304,34 @@ public class ConfigActivity extends Activity {
         midiCommand(MidiConstants.STATUS_NOTE_ON + channel, pitch, velocity);
     }
 
+    private void pitchBend(int channel, int bend) {
+        midiCommand(MidiConstants.STATUS_PITCH_BEND + channel, bend & 0x7F, (bend >> 7) & 0x7F);
+    }
+
+    /*
+     * Sets the pitch bend sensitivity (registered parameter 0) of a channel, in semitones.
+     */
+    private void setPitchBendRange(int channel, int semitones) {
+        int status = MidiConstants.STATUS_CONTROL_CHANGE + channel;
+        midiCommand(status, MidiConstants.CONTROLLER_RPN_MSB, 0);
+        midiCommand(status, MidiConstants.CONTROLLER_RPN_LSB, MidiConstants.RPN_PITCH_BEND_SENSITIVITY);
+        midiCommand(status, MidiConstants.CONTROLLER_DATA_ENTRY_MSB, semitones);
+        midiCommand(status, MidiConstants.CONTROLLER_DATA_ENTRY_LSB, 0);
+    }
+
     private void midiCommand(int status, int data1, int data2) {
         mByteBuffer[0] = (byte) status;
         mByteBuffer[1] = (byte) data1;
         mByteBuffer[2] = (byte) data2;
         long now = System.nanoTime();
-        midiSend(mByteBuffer, 3, now);
+        midiSend(mByteBuffer, 0, 3, now);
     }
 
     private void midiCommand(int status, int data1) {
         mByteBuffer[0] = (byte) status;
         mByteBuffer[1] = (byte) data1;
         long now = System.nanoTime();
-        midiSend(mByteBuffer, 2, now);
+        midiSend(mByteBuffer, 0, 2, now);
     }
 
     private void closeSynthResources() {
@@ -264,19 +341,62 @@ public class ConfigActivity extends Activity {
         }
     }
 
+    /*
+     * Processes point clouds again. The first call starts a new session with no walls
+     * known; later ones resume the paused session. If the service is not bound yet,
+     * sensing starts as soon as it is.
+     */
+    private void resumeWallSensing() {
+        mWallSensingRequested = true;
+        if (mWallSensingService == null) {
+            return;
+        }
+        if (mWallSensingStarted) {
+            mWallSensingService.resumeSensing();
+        } else {
+            mWallSensingService.startSensing();
+            mWallSensingStarted = true;
+        }
+    }
+
+    private void startCloudRecording() {
+        String name = getIntent().getStringExtra(EXTRA_RECORD_CLOUDS);
+        if (name == null) {
+            return;
+        }
+        File file = new File(getExternalFilesDir(null), name);
+        try {
+            mWallSensingService.startRecording(file);
+            Log.i(TAG, "Recording point clouds to " + file);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not record point clouds to " + file, e);
+        }
+    }
+
+    private void pauseWallSensing() {
+        mWallSensingRequested = false;
+        if (mWallSensingService != null) {
+            mWallSensingService.pauseSensing();
+        }
+    }
+
     @Override
     public void onDestroy() {
         closeSynthResources();
-        stopService(mServiceIntent);
+        pauseWallSensing();
+        if (mWallSensingService != null) {
+            mWallSensingService.stopRecording();
+        }
+        unbindService(mWallSensingConnection);
         super.onDestroy();
     }
 
-    private void midiSend(byte[] buffer, int count, long timestamp) {
+    private void midiSend(byte[] buffer, int offset, int count, long timestamp) {
         try {
             // send event immediately
             MidiReceiver receiver = mKeyboardReceiverSelector.getReceiver();
             if (receiver != null) {
-                receiver.send(buffer, 0, count, timestamp);
+                receiver.send(buffer, offset, count, timestamp);
             }
         } catch (IOException e) {
             Log.e(TAG, "mKeyboardReceiverSelector.send() failed " + e);
@@ -284,16 +404,19 @@ public class ConfigActivity extends Activity {
     }
 
     /*
-     * Returns a semitone pitch, from 0-11, based on distance to the wall
+     * Returns how many semitones above the lowest note the distance to the wall maps to.
+     * The range between reward and maxfreq is divided into 12 semitones.
      */
-    private int pitchFromDistance() {
-        // Divide the range between reward and maxfreq into 12 semitones
+    private double semitonesFromDistance() {
         double semiToneInterval = (mMaxFreqDist - mRewardSoundDist) / 12.0;
+        return Math.max(0.0, (mWallDist - mRewardSoundDist) / semiToneInterval);
+    }
 
-        int semiTone = 0;
-        while (mWallDist > mRewardSoundDist + (semiToneInterval * semiTone)) {
-            semiTone++;
-        }
+    /*
+     * Returns a semitone pitch, from 0-11, based on distance to the wall
+     */
+    private int pitchFromDistance() {
+        int semiTone = (int) Math.ceil(semitonesFromDistance());
 
         if (semiTone >= 12) {
             Log.e(TAG, "Step closer to wall to hear the notes!");
@@ -302,22 +425,106 @@ public class ConfigActivity extends Activity {
         return semiTone;
     }
 
-    // Broadcast receiver for receiving status updates from the IntentService
-    private class DownloadStateReceiver extends BroadcastReceiver
-    {
-        // Prevents instantiation
-        private DownloadStateReceiver() {
+    /*
+     * Returns the pitch bend that moves a note held CONTINUOUS_BEND_RANGE semitones above
+     * the lowest note to the pitch for the distance to the wall.
+     */
+    private int bendFromDistance() {
+        double semitones = Math.min(12.0, semitonesFromDistance()) - CONTINUOUS_BEND_RANGE;
+        int bend = PITCH_BEND_CENTER
+                + (int) Math.round(semitones * PITCH_BEND_CENTER / CONTINUOUS_BEND_RANGE);
+        return Math.max(0, Math.min(0x3FFF, bend));
+    }
+
+    /*
+     * Returns the time between pulses for the distance to the wall: the closer, the faster.
+     */
+    private long pulsePeriodFromDistance() {
+        double fraction = Math.min(12.0, semitonesFromDistance()) / 12.0;
+        return MIN_PULSE_PERIOD_NANOS
+                + (long) ((MAX_PULSE_PERIOD_NANOS - MIN_PULSE_PERIOD_NANOS) * fraction);
+    }
+
+    /*
+     * Feedback loop of the continuous pitch mode. Wakes up for every new wall distance,
+     * so the pitch follows the wall at the point cloud rate.
+     */
+    private void runContinuousFeedback() {
+        int note = mLowestNoteOffset + CONTINUOUS_BEND_RANGE;
+        boolean sounding = false;
+        setPitchBendRange(0, CONTINUOUS_BEND_RANGE);
+        long sequence = WallDistanceChannel.getSequence();
+        while (!mIsPaused && mContinuousPitch) {
+            sequence = WallDistanceChannel.awaitNewer(sequence, DISTANCE_WAIT_NANOS);
+            updateWallDistance();
+            if (mDistanceFilter.isInRewardZone()) {
+                if (sounding) {
+                    noteOff(0, note, DEFAULT_VELOCITY);
+                    sounding = false;
+                }
+                startReward();
+            } else {
+                stopReward();
+                pitchBend(0, bendFromDistance());
+                if (!sounding) {
+                    noteOn(0, note, DEFAULT_VELOCITY);
+                    sounding = true;
+                }
+            }
         }
-        // Called when the BroadcastReceiver gets an Intent it's registered to receive
-        @Override
-        public void onReceive(Context context, Intent intent) {
-        /*
-         * Handle Intents here.
-         */
-            // Converting meters to feet
-            mWallDist = 3.28 * intent.getDoubleExtra(Constants.WALLDISTANCE, 0.0);
+        if (sounding) {
+            noteOff(0, note, DEFAULT_VELOCITY);
         }
+        pitchBend(0, PITCH_BEND_CENTER);
+    }
 
+    /*
+     * The reward sound is mixed into the synth output, so starting and stopping it
+     * is a MIDI message on the sample channel, timed like any other note.
+     */
+    private void startReward() {
+        if (!mRewardPlaying) {
+            noteOn(SynthEngine.SAMPLE_CHANNEL, REWARD_NOTE, REWARD_VELOCITY);
+            mRewardPlaying = true;
+        }
+    }
+
+    private void stopReward() {
+        if (mRewardPlaying) {
+            noteOff(SynthEngine.SAMPLE_CHANNEL, REWARD_NOTE, REWARD_VELOCITY);
+            mRewardPlaying = false;
+        }
+    }
+
+    /*
+     * Takes the latest sample from WallSensingService, if there is a new one, and
+     * records how long it took from the point cloud arriving to this audio decision.
+     */
+    private void updateWallDistance() {
+        if (!WallDistanceChannel.read(mWallSample) || mWallSample.sequence == mLastWallSequence) {
+            return;
+        }
+        mLastWallSequence = mWallSample.sequence;
+        if (mWallSample.planeId != mLastWallId) {
+            // a different wall; its distances have nothing to do with the last one's
+            mDistanceFilter.reset();
+            mLastWallId = mWallSample.planeId;
+        }
+        mDistanceFilter.setRewardDistance(mRewardSoundDist, REWARD_HYSTERESIS);
+        // Converting meters to feet
+        mWallDist = mDistanceFilter.update(mWallSample.timestamp,
+                3.28 * mWallSample.distance, mWallSample.confidence);
+
+        long latency = System.nanoTime() - mWallSample.arrivalNanos;
+        mLatencyTotalNanos += latency;
+        mLatencyMaxNanos = Math.max(mLatencyMaxNanos, latency);
+        if (++mLatencyCount == LATENCY_REPORT_INTERVAL) {
+            Log.i(TAG, String.format("cloud to feedback latency: mean %.1f ms, max %.1f ms",
+                    mLatencyTotalNanos / 1e6 / mLatencyCount, mLatencyMaxNanos / 1e6));
+            mLatencyTotalNanos = 0;
+            mLatencyMaxNanos = 0;
+            mLatencyCount = 0;
+        }
     }
 
     public void setVariable(Context context, Uri uri){
@@ -331,148 +538,129 @@ public class ConfigActivity extends Activity {
             // MY_PERMISSIONS_REQUEST_READ_EXTERNAL_STORAGE is an
             // app-defined int constant that should be quite unique
         }
-        mediaPlayer =  new MediaPlayer();
         setVolumeControlStream(AudioManager.STREAM_MUSIC);
-        mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-
-        try {
-            Log.e(TAG, "setting data source " + uri);
-            mediaPlayer.setDataSource(context, uri);
-            //mp3 will be started after completion of preparing...
-            mediaPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
-                @Override
-                public void onPrepared(MediaPlayer player) {
-                    final Runnable runnable = new Runnable() {
+        final Context appContext = context.getApplicationContext();
+        final Uri sampleUri = uri;
+        // Decode the whole file up front so the reward starts without any decoder latency.
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Log.i(TAG, "decoding reward sound " + sampleUri);
+                    final AudioSample sample = AudioSample.decode(appContext, sampleUri,
+                            MAX_REWARD_SECONDS);
+                    runOnUiThread(new Runnable() {
                         @Override
                         public void run() {
-                            Log.e(TAG,"Started Thread");
-                            while(mIsPaused != true){
-                                if(mWallDist < mRewardSoundDist && mWallDist > 0){
-                                    if(mediaPlayer.isPlaying() != true){
-                                        Log.e(TAG,"Started Music Play Back");
-                                        mediaPlayer.start();
-                                    }
-                                }
-                                else{
-                                    mediaPlayer.pause();
-                                    int semiTone = pitchFromDistance();
-                                    noteOn(0, mLowestNoteOffset + semiTone, DEFAULT_VELOCITY);
-                                    try {
-                                        Thread.sleep(500);
-                                    } catch (InterruptedException e) {
-                                        e.printStackTrace();
-                                    }
-                                    noteOff(0, mLowestNoteOffset + semiTone, DEFAULT_VELOCITY);
-                                }
-                                try {
-                                    Thread.sleep(10);
-                                } catch (InterruptedException ex) {
-
-                                }
-                            }
-                            Log.e(TAG,"Ended the Thread");
+                            onRewardSampleDecoded(sample);
                         }
-                    };
-
-                    mButton.setOnClickListener(new View.OnClickListener() {
-                        public void onClick(View v) {
-
-                            if(mRewardSoundDist == 0.0)
-                            {
-                                Context context = getApplicationContext();
-                                CharSequence text = "Please Select Distance";
-                                int duration = Toast.LENGTH_LONG;
-                                Toast.makeText(context, text,duration).show();
-                            }
-                            else if(mediaPlayer == null)
-                            {
-                                mButton.setText("Play");
-                                mButton.setTextColor(0xFF808080);
-                                mButton.setBackgroundResource(R.drawable.neutral_button);
-                                Context context = getApplicationContext();
-                                CharSequence text = "No Music Selected";
-                                int duration = Toast.LENGTH_LONG;
-                                Toast.makeText(context, text,duration).show();
-                            }
-                            else
-                            {
-                                /*
-                                * Creates a new Intent to start the WallSensingService
-                                * IntentService. Passes a URI in the
-                                * Intent's "data" field.
-                                */
-                                if (mIsPaused) {
-                                    setButtonPause();
-                                    Log.w(TAG, "Starting Wall Sensing Service");
-                                    mIsPaused = false;
-                                    mediaPlayer.start();
-
-                                    //Start the audio thread
-                                    Thread runThread = new Thread(runnable);
-                                    runThread.start();
-
-                                    // Send work request to do wall sensing with an intent
-                                    mServiceIntent = new Intent(v.getContext(), WallSensingService.class);
-                                    startService(mServiceIntent);
-                                }
-                                else {
-                                    Log.w(TAG, "Stopping Wall Sensing Service");
-
-                                    // Since the original wall sensing intent is a forever running job, we can't
-                                    // send another work request action to stop the service. It would forever be
-                                    // queued. Instead, we use local broadcasters to communicate the stop request
-                                    // as a workaround.
-                                    Intent stopServiceIntent =
-                                            new Intent(Constants.BROADCAST_WALLSENSINGSERVICE_STOP)
-                                                    // Puts the status into the Intent
-                                                    .putExtra(Constants.WALLSENSINGSERVICE_STOP, true);
-                                    LocalBroadcastManager.getInstance(v.getContext()).sendBroadcast(stopServiceIntent);
-                                    mediaPlayer.pause();
-                                    setButtonStart();
-                                    mIsPaused = true;
-                                }
-                            }
-                        }
-
+                    });
+                } catch (IOException e) {
+                    Log.e(TAG, "could not decode " + sampleUri, e);
+                }
+            }
+        }).start();
+    }
 
+    private void onRewardSampleDecoded(AudioSample sample) {
+        mRewardSample = sample;
+        MidiSynthDeviceService.getSamplePlayer().setLooping(true);
+        MidiSynthDeviceService.getSamplePlayer().setSample(sample);
 
-                    });
+        final Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                Log.e(TAG,"Started Thread");
+                while(mIsPaused != true){
+                    if (mContinuousPitch) {
+                        mPulseSequencer.stop();
+                        runContinuousFeedback();
+                        continue;
+                    }
+                    updateWallDistance();
+                    long now = System.nanoTime();
+                    if(mDistanceFilter.isInRewardZone()){
+                        mPulseSequencer.stop();
+                        startReward();
+                    }
+                    else{
+                        stopReward();
+                        int semiTone = pitchFromDistance();
+                        mPulseSequencer.setNote(mLowestNoteOffset + semiTone);
+                        mPulseSequencer.setPeriodNanos(pulsePeriodFromDistance(), now);
+                        mPulseSequencer.start(now);
+                    }
+                    // Pulses are sent ahead with future timestamps; wake up for the
+                    // next distance or when more pulses are due, whichever is first.
+                    long wakeAt = mPulseSequencer.schedule(now);
+                    WallDistanceChannel.awaitNewer(mLastWallSequence,
+                            Math.max(0, wakeAt - System.nanoTime()));
+                }
+                mPulseSequencer.stop();
+                stopReward();
+                Log.e(TAG,"Ended the Thread");
+            }
+        };
 
-                    selectButton.setOnClickListener(new View.OnClickListener() {
-                        @Override
-                        public void onClick(View view) {
-                            if(mIsPaused == false){
-                                Log.w(TAG, "Stopping Wall Sensing Service");
-
-                                // Since the original wall sensing intent is a forever running job, we can't
-                                // send another work request action to stop the service. It would forever be
-                                // queued. Instead, we use local broadcasters to communicate the stop request
-                                // as a workaround.
-                                Intent stopServiceIntent =
-                                        new Intent(Constants.BROADCAST_WALLSENSINGSERVICE_STOP)
-                                                // Puts the status into the Intent
-                                                .putExtra(Constants.WALLSENSINGSERVICE_STOP, true);
-                                LocalBroadcastManager.getInstance(view.getContext()).sendBroadcast(stopServiceIntent);
-                                setButtonStart();
-                                mIsPaused = true;
-                            }
-                            if(mediaPlayer != null){
-                                mediaPlayer.release();
-                            }
-                            mediaPlayer = null;
-                            Intent intent = new Intent(Intent.ACTION_PICK, android.provider.MediaStore.Audio.Media.EXTERNAL_CONTENT_URI);
-                            startActivityForResult(intent, 10);
-                        }
-                    });
+        mButton.setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
 
+                if(mRewardSoundDist == 0.0)
+                {
+                    Context context = getApplicationContext();
+                    CharSequence text = "Please Select Distance";
+                    int duration = Toast.LENGTH_LONG;
+                    Toast.makeText(context, text,duration).show();
+                }
+                else if(mRewardSample == null)
+                {
+                    mButton.setText("Play");
+                    mButton.setTextColor(0xFF808080);
+                    mButton.setBackgroundResource(R.drawable.neutral_button);
+                    Context context = getApplicationContext();
+                    CharSequence text = "No Music Selected";
+                    int duration = Toast.LENGTH_LONG;
+                    Toast.makeText(context, text,duration).show();
                 }
+                else
+                {
+                    if (mIsPaused) {
+                        setButtonPause();
+                        Log.w(TAG, "Resuming wall sensing");
+                        mIsPaused = false;
+
+                        //Start the audio thread
+                        Thread runThread = new Thread(runnable);
+                        runThread.start();
+
+                        resumeWallSensing();
+                    }
+                    else {
+                        Log.w(TAG, "Pausing wall sensing");
+                        pauseWallSensing();
+                        setButtonStart();
+                        mIsPaused = true;
+                    }
+                }
+            }
 
-            });
-            mediaPlayer.prepareAsync();
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-        }
+
+
+        });
+
+        selectButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                if(mIsPaused == false){
+                    Log.w(TAG, "Pausing wall sensing");
+                    pauseWallSensing();
+                    setButtonStart();
+                    mIsPaused = true;
+                }
+                mRewardSample = null;
+                Intent intent = new Intent(Intent.ACTION_PICK, android.provider.MediaStore.Audio.Media.EXTERNAL_CONTENT_URI);
+                startActivityForResult(intent, 10);
+            }
+        });
     }
 }
-
@@ -1,21 +0,0 @@
-package com.projecttango.examples.java.planefitting;
-
-/**
- * Created by ryan on 7/17/17.
- */
-
-public final class Constants {
-
-    // Defines a custom Intent action
-    public static final String BROADCAST_WALLDISTANCE =
-            "com.example.projecttango.examples.java.planefitting.broadcast_walldistance";
-    // Defines the key for the status "extra" in an Intent
-    public static final String WALLDISTANCE =
-            "com.example.projecttango.examples.java.planefitting.walldistance";
-    // Defines play / start WallSensingService
-    public static final String BROADCAST_WALLSENSINGSERVICE_STOP =
-            "com.example.projecttango.examples.java.planefitting.broadcast.wallsensingservice.stop";
-    // Defines stop WallSensingService
-    public static final String WALLSENSINGSERVICE_STOP =
-            "com.example.projecttango.examples.java.planefitting.wallsensingservice.stop";
-}
\ No newline at end of file
@@ -0,0 +1,187 @@
+package com.projecttango.examples.java.planefitting;
+
+/**
+ * Smooths the stream of wall distances before the game reacts to it.
+ *
+ * Each sample first goes through a running median over the last few samples,
+ * which removes single bad plane fits. The median then updates a one
+ * dimensional Kalman filter whose measurement noise grows as the sample's
+ * confidence drops. A median that falls far outside the filter's expected
+ * range is treated as an outlier, unless several arrive in a row, in which
+ * case the user has probably turned to another wall and the filter restarts
+ * from the new distance.
+ *
+ * The reward zone uses hysteresis: it is entered below the reward distance
+ * and only left above the reward distance plus the hysteresis, so a distance
+ * hovering around the threshold does not toggle the reward.
+ *
+ * The filter works on fixed primitive arrays and does not allocate per
+ * sample. It is not thread safe.
+ */
+public class DistanceFilter {
+
+    private final double[] mWindow;
+    private final double[] mSorted;
+    private int mWindowCount;
+    private int mWindowNext;
+
+    // Kalman state: estimate and its variance
+    private double mEstimate;
+    private double mVariance;
+    private double mLastTimestamp;
+    private boolean mHasEstimate;
+
+    // variance added per second, and of a sample with full confidence
+    private double mProcessNoise = 0.05;
+    private double mMeasurementNoise = 0.01;
+    private double mOutlierSigmas = 4.0;
+    private int mOutliersBeforeReset = 3;
+    private int mOutlierRun;
+
+    private double mRewardDistance = Double.NaN;
+    private double mHysteresis;
+    private boolean mInRewardZone;
+
+    /**
+     * @param medianWindow number of samples the median is taken over; 1 disables it.
+     */
+    public DistanceFilter(int medianWindow) {
+        if (medianWindow < 1) {
+            throw new IllegalArgumentException("medianWindow must be at least 1");
+        }
+        mWindow = new double[medianWindow];
+        mSorted = new double[medianWindow];
+    }
+
+    /** How much the true distance may drift, as variance per second. */
+    public void setProcessNoise(double variancePerSecond) {
+        mProcessNoise = variancePerSecond;
+    }
+
+    /** Variance of a sample with confidence 1. */
+    public void setMeasurementNoise(double variance) {
+        mMeasurementNoise = variance;
+    }
+
+    /**
+     * A median further than sigmas standard deviations from the prediction is an
+     * outlier; after count outliers in a row the filter restarts from the median.
+     */
+    public void setOutlierGate(double sigmas, int count) {
+        mOutlierSigmas = sigmas;
+        mOutliersBeforeReset = count;
+    }
+
+    /** Set the distance below which the reward zone is entered. */
+    public void setRewardDistance(double rewardDistance, double hysteresis) {
+        mRewardDistance = rewardDistance;
+        mHysteresis = hysteresis;
+        updateRewardZone();
+    }
+
+    public void reset() {
+        mWindowCount = 0;
+        mWindowNext = 0;
+        mHasEstimate = false;
+        mOutlierRun = 0;
+        mInRewardZone = false;
+    }
+
+    public boolean hasEstimate() {
+        return mHasEstimate;
+    }
+
+    /** The filtered distance, or -1 before the first sample. */
+    public double getDistance() {
+        return mHasEstimate ? mEstimate : -1.0;
+    }
+
+    public boolean isInRewardZone() {
+        return mInRewardZone;
+    }
+
+    /**
+     * Add a sample.
+     *
+     * @param timestamp  time of the sample in seconds.
+     * @param distance   measured distance.
+     * @param confidence 0 to 1; lower confidence samples move the estimate less.
+     * @return the filtered distance.
+     */
+    public double update(double timestamp, double distance, float confidence) {
+        double median = addToWindow(distance);
+        double measurementNoise = mMeasurementNoise / Math.max(confidence, 0.05f);
+
+        if (!mHasEstimate) {
+            restart(timestamp, median, measurementNoise);
+            return mEstimate;
+        }
+
+        // predict
+        double dt = Math.max(0.0, timestamp - mLastTimestamp);
+        mLastTimestamp = timestamp;
+        mVariance += mProcessNoise * dt;
+
+        // gate
+        double innovation = median - mEstimate;
+        double innovationVariance = mVariance + measurementNoise;
+        if (innovation * innovation > mOutlierSigmas * mOutlierSigmas * innovationVariance) {
+            if (++mOutlierRun >= mOutliersBeforeReset) {
+                restart(timestamp, median, measurementNoise);
+            }
+            return mEstimate;
+        }
+        mOutlierRun = 0;
+
+        // correct
+        double gain = mVariance / innovationVariance;
+        mEstimate += gain * innovation;
+        mVariance *= 1.0 - gain;
+        updateRewardZone();
+        return mEstimate;
+    }
+
+    private void restart(double timestamp, double distance, double variance) {
+        mEstimate = distance;
+        mVariance = variance;
+        mLastTimestamp = timestamp;
+        mHasEstimate = true;
+        mOutlierRun = 0;
+        updateRewardZone();
+    }
+
+    private void updateRewardZone() {
+        if (!mHasEstimate || Double.isNaN(mRewardDistance) || mEstimate <= 0) {
+            mInRewardZone = false;
+        } else if (mInRewardZone) {
+            mInRewardZone = mEstimate <= mRewardDistance + mHysteresis;
+        } else {
+            mInRewardZone = mEstimate < mRewardDistance;
+        }
+    }
+
+    /** Add distance to the ring and return the median of its contents. */
+    private double addToWindow(double distance) {
+        mWindow[mWindowNext] = distance;
+        mWindowNext = (mWindowNext + 1) % mWindow.length;
+        if (mWindowCount < mWindow.length) {
+            mWindowCount++;
+        }
+        // insertion sort; the window is a handful of samples
+        double[] sorted = mSorted;
+        int n = mWindowCount;
+        for (int i = 0; i < n; i++) {
+            double v = mWindow[i];
+            int j = i - 1;
+            while (j >= 0 && sorted[j] > v) {
+                sorted[j + 1] = sorted[j];
+                j--;
+            }
+            sorted[j + 1] = v;
+        }
+        if ((n & 1) == 1) {
+            return sorted[n / 2];
+        }
+        return 0.5 * (sorted[n / 2 - 1] + sorted[n / 2]);
+    }
+}
@@ -0,0 +1,133 @@
+package com.projecttango.examples.java.planefitting;
+
+/**
+ * Scores a batch of candidate planes against a point cloud in a single pass.
+ *
+ * Points are x, y, z, confidence quadruplets in a float array and are read by
+ * absolute index, so the same cloud can be scored any number of times. A point
+ * is an inlier of the plane ax + by + cz + d = 0 if its distance to the plane,
+ * |ax + by + cz + d| / |(a, b, c)|, is below the threshold; the normal does not
+ * need to be normalized. Points whose confidence is below the minimum are
+ * ignored, and each inlier adds its confidence to the plane's score.
+ *
+ * A counter keeps its arrays between batches and is not thread safe.
+ */
+public class InlierCounter {
+
+    // a, b, c, d and the scaled threshold of each candidate
+    private static final int STRIDE = 5;
+
+    private float mThreshold = 0.03f;
+    private float mMinConfidence = 0.0f;
+
+    private double[] mPlanes;
+    private int[] mCounts;
+    private float[] mScores;
+    private int mNumPlanes;
+
+    public InlierCounter(int capacity) {
+        mPlanes = new double[capacity * STRIDE];
+        mCounts = new int[capacity];
+        mScores = new float[capacity];
+    }
+
+    /** Maximum point to plane distance of an inlier, in meters. */
+    public void setThreshold(float meters) {
+        mThreshold = meters;
+    }
+
+    /** Points less confident than this are not counted. */
+    public void setMinConfidence(float minConfidence) {
+        mMinConfidence = minConfidence;
+    }
+
+    /** Forget all candidates. */
+    public void clear() {
+        mNumPlanes = 0;
+    }
+
+    public int getPlaneCount() {
+        return mNumPlanes;
+    }
+
+    /**
+     * Add a candidate plane.
+     *
+     * @return its index, or -1 if the normal is zero or the batch is full.
+     */
+    public int addPlane(double a, double b, double c, double d) {
+        double norm = Math.sqrt(a * a + b * b + c * c);
+        if (norm < 1e-12 || mNumPlanes == mCounts.length) {
+            return -1;
+        }
+        int i = mNumPlanes * STRIDE;
+        mPlanes[i] = a;
+        mPlanes[i + 1] = b;
+        mPlanes[i + 2] = c;
+        mPlanes[i + 3] = d;
+        // compare |ax + by + cz + d| with threshold * |n| instead of dividing per point
+        mPlanes[i + 4] = mThreshold * norm;
+        return mNumPlanes++;
+    }
+
+    /**
+     * Count the inliers of every candidate among the first numPoints points.
+     * Points i with skip[i] set are left out; skip may be null.
+     */
+    public void count(float[] points, int numPoints, boolean[] skip) {
+        final double[] planes = mPlanes;
+        final int[] counts = mCounts;
+        final float[] scores = mScores;
+        final int n = mNumPlanes * STRIDE;
+        for (int k = 0; k < mNumPlanes; k++) {
+            counts[k] = 0;
+            scores[k] = 0;
+        }
+        for (int i = 0; i < numPoints; i++) {
+            if (skip != null && skip[i]) {
+                continue;
+            }
+            int j = i * 4;
+            float confidence = points[j + 3];
+            if (confidence < mMinConfidence) {
+                continue;
+            }
+            double x = points[j];
+            double y = points[j + 1];
+            double z = points[j + 2];
+            for (int k = 0, p = 0; p < n; k++, p += STRIDE) {
+                double dist = planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3];
+                if (dist < planes[p + 4] && dist > -planes[p + 4]) {
+                    counts[k]++;
+                    scores[k] += confidence;
+                }
+            }
+        }
+    }
+
+    /** Number of inliers of candidate i in the last count. */
+    public int getCount(int i) {
+        return mCounts[i];
+    }
+
+    /** Summed confidence of the inliers of candidate i in the last count. */
+    public float getScore(int i) {
+        return mScores[i];
+    }
+
+    /** Index of the candidate with the highest score, or -1 if there is none. */
+    public int getBest() {
+        int best = -1;
+        for (int k = 0; k < mNumPlanes; k++) {
+            if (mCounts[k] > 0 && (best < 0 || mScores[k] > mScores[best])) {
+                best = k;
+            }
+        }
+        return best;
+    }
+
+    /** Coefficient j (0 = a .. 3 = d) of candidate i, as it was added. */
+    public double getCoefficient(int i, int j) {
+        return mPlanes[i * STRIDE + j];
+    }
+}
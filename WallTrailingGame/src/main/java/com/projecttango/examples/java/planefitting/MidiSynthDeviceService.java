@@ -24,6 +24,7 @@ import android.media.midi.MidiDeviceStatus;
 import android.media.midi.MidiReceiver;
 
 import com.mobileer.miditools.synth.LatencyController;
+import com.mobileer.miditools.synth.SamplePlayer;
 import com.mobileer.miditools.synth.SynthEngine;
 
 public class MidiSynthDeviceService extends MidiDeviceService {
@@ -76,6 +77,10 @@ public class MidiSynthDeviceService extends MidiDeviceService {
         return mSynthEngine.getLatencyController();
     }
 
+    public static SamplePlayer getSamplePlayer() {
+        return mSynthEngine.getSamplePlayer();
+    }
+
     public static int getMidiByteCount() {
         return mSynthEngine.getMidiByteCount();
     }
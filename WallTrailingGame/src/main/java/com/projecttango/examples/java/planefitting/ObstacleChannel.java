@@ -0,0 +1,93 @@
+package com.projecttango.examples.java.planefitting;
+
+/**
+ * Hands the latest obstacle summary from the wall sensing thread to its
+ * readers, the same way {@link WallDistanceChannel} hands over wall distances:
+ * one writer, newest summary wins, and a sequence counter that is odd while
+ * the writer is filling a summary in.
+ */
+public final class ObstacleChannel {
+
+    /** What is in the corridor ahead, from one point cloud. */
+    public static class Summary {
+        // sequence number of the summary; 0 if nothing has been published
+        public long sequence;
+        // Tango timestamp of the point cloud, in seconds
+        public double timestamp;
+        // System.nanoTime() when the point cloud arrived
+        public long arrivalNanos;
+        // z of the floor in the odom frame
+        public double floorHeight;
+        // bit s set if sector s of the corridor, counted from the right, is blocked
+        public int sectorMask;
+        // number of obstacle points in the blocked sectors
+        public int numPoints;
+        // nearest obstacle: forward distance, offset to the left and height above
+        // the floor, in meters; distance is Double.MAX_VALUE if the corridor is clear
+        public double nearestDistance;
+        public double nearestOffset;
+        public double nearestHeight;
+    }
+
+    private static volatile long sSequence;
+    private static volatile double sTimestamp;
+    private static volatile long sArrivalNanos;
+    private static volatile double sFloorHeight;
+    private static volatile int sSectorMask;
+    private static volatile int sNumPoints;
+    private static volatile double sNearestDistance;
+    private static volatile double sNearestOffset;
+    private static volatile double sNearestHeight;
+
+    private ObstacleChannel() {
+    }
+
+    /** Publish the result of detector. Must only be called from a single thread. */
+    public static void publish(double timestamp, long arrivalNanos, double floorHeight,
+                               ObstacleDetector detector) {
+        long sequence = sSequence;
+        sSequence = sequence + 1;
+        sTimestamp = timestamp;
+        sArrivalNanos = arrivalNanos;
+        sFloorHeight = floorHeight;
+        sSectorMask = detector.getSectorMask();
+        sNumPoints = detector.getPointCount();
+        sNearestDistance = detector.getNearestDistance();
+        sNearestOffset = detector.getNearestOffset();
+        sNearestHeight = detector.getNearestHeight();
+        sSequence = sequence + 2;
+    }
+
+    /** Sequence number of the latest summary, 0 if none has been published. */
+    public static long getSequence() {
+        return sSequence >>> 1;
+    }
+
+    /**
+     * Copy the latest summary into out.
+     *
+     * @return false if nothing has been published yet.
+     */
+    public static boolean read(Summary out) {
+        while (true) {
+            long before = sSequence;
+            if ((before & 1) != 0) {
+                // the writer is in the middle of a summary
+                Thread.yield();
+                continue;
+            }
+            out.timestamp = sTimestamp;
+            out.arrivalNanos = sArrivalNanos;
+            out.floorHeight = sFloorHeight;
+            out.sectorMask = sSectorMask;
+            out.numPoints = sNumPoints;
+            out.nearestDistance = sNearestDistance;
+            out.nearestOffset = sNearestOffset;
+            out.nearestHeight = sNearestHeight;
+            if (sSequence == before) {
+                out.sequence = before >>> 1;
+                return before != 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.projecttango.examples.java.planefitting;
+
+/**
+ * Looks for obstacles in the corridor the user is walking into.
+ *
+ * The corridor is a box in the odom frame that starts at the device, extends
+ * forward along its horizontal heading, and spans a height range above the
+ * floor. Points inside it are obstacles, except those of planes the caller
+ * ignores, such as the floor and the wall being trailed, which can run
+ * through the corridor without blocking it. The corridor is split across its
+ * width into sectors. A sector is blocked once it holds enough points to rule
+ * out depth noise. The summary is the set of blocked sectors and the nearest
+ * obstacle point in them.
+ *
+ * One pass over the points, no allocation; not thread safe.
+ */
+public class ObstacleDetector {
+
+    public static final int NUM_SECTORS = 5;
+
+    private double mLength = 3.0;
+    private double mWidth = 1.0;
+    private double mMinHeight = 0.1;
+    private double mMaxHeight = 2.0;
+    private int mMinPoints = 3;
+
+    private final int[] mSectorCounts = new int[NUM_SECTORS];
+    private final double[] mSectorNearest = new double[NUM_SECTORS];
+    private final double[] mSectorOffset = new double[NUM_SECTORS];
+    private final double[] mSectorHeight = new double[NUM_SECTORS];
+
+    private int mSectorMask;
+    private int mNumPoints;
+    private double mNearestDistance;
+    private double mNearestOffset;
+    private double mNearestHeight;
+
+    /** Size of the corridor ahead of the device, in meters. */
+    public void setCorridor(double length, double width) {
+        mLength = length;
+        mWidth = width;
+    }
+
+    /** Only points between these heights above the floor are obstacles. */
+    public void setHeightRange(double minHeight, double maxHeight) {
+        mMinHeight = minHeight;
+        mMaxHeight = maxHeight;
+    }
+
+    /** Points a sector needs to be blocked. */
+    public void setMinPoints(int minPoints) {
+        mMinPoints = minPoints;
+    }
+
+    /**
+     * Find the obstacles among numPoints odom frame points (x, y, z, confidence).
+     *
+     * @param floorHeight z of the floor.
+     * @param position    device position in the odom frame.
+     * @param headingX    x of the unit horizontal direction the device faces.
+     * @param headingY    y of the unit horizontal direction the device faces.
+     * @return true if any sector is blocked.
+     */
+    public boolean detect(float[] points, int numPoints, double floorHeight,
+                          double[] position, double headingX, double headingY) {
+        return detect(points, numPoints, null, 0, floorHeight, position, headingX, headingY);
+    }
+
+    /**
+     * Find the obstacles among numPoints odom frame points (x, y, z, confidence),
+     * leaving out the points of some planes.
+     *
+     * @param labels        plane index of each point, as given by
+     *                      {@link PlaneExtractor#getLabels()}, or null.
+     * @param ignoredPlanes bit i is set if the points of plane i are not obstacles.
+     * @param floorHeight   z of the floor.
+     * @param position    device position in the odom frame.
+     * @param headingX    x of the unit horizontal direction the device faces.
+     * @param headingY    y of the unit horizontal direction the device faces.
+     * @return true if any sector is blocked.
+     */
+    public boolean detect(float[] points, int numPoints, int[] labels, int ignoredPlanes,
+                          double floorHeight, double[] position,
+                          double headingX, double headingY) {
+        for (int s = 0; s < NUM_SECTORS; s++) {
+            mSectorCounts[s] = 0;
+            mSectorNearest[s] = Double.MAX_VALUE;
+        }
+        double halfWidth = 0.5 * mWidth;
+        double sectorScale = NUM_SECTORS / mWidth;
+        double px = position[0];
+        double py = position[1];
+        for (int i = 0, j = 0; i < numPoints; i++, j += 4) {
+            if (labels != null && labels[i] != PlaneExtractor.NO_PLANE
+                    && (ignoredPlanes & (1 << labels[i])) != 0) {
+                continue;
+            }
+            double height = points[j + 2] - floorHeight;
+            if (height < mMinHeight || height > mMaxHeight) {
+                continue;
+            }
+            double dx = points[j] - px;
+            double dy = points[j + 1] - py;
+            double forward = dx * headingX + dy * headingY;
+            if (forward <= 0 || forward > mLength) {
+                continue;
+            }
+            // positive to the left of the heading
+            double offset = headingX * dy - headingY * dx;
+            if (offset < -halfWidth || offset > halfWidth) {
+                continue;
+            }
+            int s = Math.min(NUM_SECTORS - 1, (int) ((offset + halfWidth) * sectorScale));
+            mSectorCounts[s]++;
+            if (forward < mSectorNearest[s]) {
+                mSectorNearest[s] = forward;
+                mSectorOffset[s] = offset;
+                mSectorHeight[s] = height;
+            }
+        }
+
+        mSectorMask = 0;
+        mNumPoints = 0;
+        mNearestDistance = Double.MAX_VALUE;
+        for (int s = 0; s < NUM_SECTORS; s++) {
+            if (mSectorCounts[s] < mMinPoints) {
+                continue;
+            }
+            mSectorMask |= 1 << s;
+            mNumPoints += mSectorCounts[s];
+            if (mSectorNearest[s] < mNearestDistance) {
+                mNearestDistance = mSectorNearest[s];
+                mNearestOffset = mSectorOffset[s];
+                mNearestHeight = mSectorHeight[s];
+            }
+        }
+        return mSectorMask != 0;
+    }
+
+    /** Bit s is set if sector s, counted from the right, is blocked. */
+    public int getSectorMask() {
+        return mSectorMask;
+    }
+
+    /** Number of points in the blocked sectors. */
+    public int getPointCount() {
+        return mNumPoints;
+    }
+
+    /** Forward distance to the nearest obstacle, or Double.MAX_VALUE if there is none. */
+    public double getNearestDistance() {
+        return mNearestDistance;
+    }
+
+    /** Sideways offset of the nearest obstacle, positive to the left. */
+    public double getNearestOffset() {
+        return mNearestOffset;
+    }
+
+    /** Height above the floor of the nearest obstacle. */
+    public double getNearestHeight() {
+        return mNearestHeight;
+    }
+}
@@ -0,0 +1,366 @@
+package com.projecttango.examples.java.planefitting;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Finds the planes in a Tango point cloud.
+ *
+ * The cloud is copied once into a float array and transformed into the odom
+ * (start of service) frame, where Z is up. Planes are then peeled off one by
+ * one with RANSAC: each round keeps the hypothesis best supported by the points
+ * no earlier plane has claimed. All hypotheses of a round are scored together,
+ * in a single pass over the cloud, by an {@link InlierCounter}. Every plane
+ * found is classified as a wall (vertical), the floor (the lowest horizontal
+ * plane) or other, so the same pass serves wall trailing and floor detection.
+ * The transformed points stay available for further processing, such as
+ * looking for obstacles above the floor, along with the plane each of them
+ * belongs to.
+ *
+ * An extractor keeps its buffers between clouds and is not thread safe.
+ */
+public class PlaneExtractor {
+
+    public static final int KIND_WALL = 0;
+    public static final int KIND_FLOOR = 1;
+    public static final int KIND_OTHER = 2;
+
+    /** Label of a point that no plane claimed. */
+    public static final int NO_PLANE = -1;
+
+    /** A plane ax + by + cz + d = 0 in the odom frame, with (a, b, c) a unit normal. */
+    public static class Plane {
+        // one of KIND_WALL, KIND_FLOOR, KIND_OTHER
+        public int kind;
+        public double a;
+        public double b;
+        public double c;
+        public double d;
+        public int inliers;
+        // extent of the inliers along the horizontal tangent (-b, a, 0) and along z
+        public double minS;
+        public double maxS;
+        public double minZ;
+        public double maxZ;
+
+        /** Distance from the point xyz (odom frame) to the plane. */
+        public double distanceTo(double[] xyz) {
+            return Math.abs(a * xyz[0] + b * xyz[1] + c * xyz[2] + d);
+        }
+
+        /** The plane as {a, b, c, d}. */
+        public double[] toArray() {
+            return new double[] {a, b, c, d};
+        }
+
+        /** Height of a horizontal plane, i.e. the z where it crosses the z axis. */
+        public double height() {
+            return -d / c;
+        }
+    }
+
+    private static final int MAX_PLANES = 8;
+    // tries to draw an unclaimed point before giving up on a hypothesis
+    private static final int MAX_SAMPLE_TRIES = 16;
+
+    // number of hypotheses drawn per extracted plane
+    private static final int MAX_ITERATIONS = 256;
+    private int mIterations = 64;
+    // maximum point to plane distance of an inlier, in meters
+    private float mInlierThreshold = 0.03f;
+    // less confident points neither support nor join a plane
+    private float mMinConfidence = 0.0f;
+    // planes supported by fewer points are ignored, and extraction stops
+    private int mMinInliers = 100;
+    // |c| of a vertical plane's unit normal is below this
+    private double mVerticalThreshold = 0.05;
+    // |c| of a horizontal plane's unit normal is above this
+    private double mHorizontalThreshold = 0.95;
+
+    // x, y, z, confidence per point, in the odom frame
+    private float[] mPoints = new float[0];
+    private boolean[] mClaimed = new boolean[0];
+    // index of the plane that claimed each point, or NO_PLANE
+    private int[] mLabels = new int[0];
+    private int mNumPoints;
+
+    private final Plane[] mPlanes = new Plane[MAX_PLANES];
+    private int mNumPlanes;
+    private int mFloor = -1;
+
+    private final InlierCounter mCounter = new InlierCounter(MAX_ITERATIONS);
+
+    private long mRandomState = 0x2545F4914F6CDD1DL;
+
+    public PlaneExtractor() {
+        for (int i = 0; i < MAX_PLANES; i++) {
+            mPlanes[i] = new Plane();
+        }
+    }
+
+    public void setIterations(int iterations) {
+        mIterations = Math.min(iterations, MAX_ITERATIONS);
+    }
+
+    public void setInlierThreshold(float meters) {
+        mInlierThreshold = meters;
+        mCounter.setThreshold(meters);
+    }
+
+    /** Points less confident than this do not support a hypothesis. */
+    public void setMinConfidence(float minConfidence) {
+        mMinConfidence = minConfidence;
+        mCounter.setMinConfidence(minConfidence);
+    }
+
+    public void setMinInliers(int minInliers) {
+        mMinInliers = minInliers;
+    }
+
+    public void setVerticalThreshold(double threshold) {
+        mVerticalThreshold = threshold;
+    }
+
+    public void setHorizontalThreshold(double threshold) {
+        mHorizontalThreshold = threshold;
+    }
+
+    /** Reseed the sampler, e.g. to make a replayed cloud give the same planes. */
+    public void setSeed(long seed) {
+        mRandomState = seed == 0 ? 1 : seed;
+    }
+
+    /**
+     * Copy numPoints points (x, y, z, confidence) out of points, transform them
+     * with the column major depth to odom matrix and extract their planes.
+     * The buffer's position is left unchanged.
+     *
+     * @return the number of planes found.
+     */
+    public int extract(FloatBuffer points, int numPoints, float[] depthTodom) {
+        ensureCapacity(numPoints);
+        int position = points.position();
+        points.position(0);
+        points.get(mPoints, 0, numPoints * 4);
+        points.position(position);
+        mNumPoints = numPoints;
+        transform(depthTodom);
+        return extractPlanes();
+    }
+
+    /** Extract the planes of numPoints points already in the odom frame. */
+    public int extract(float[] odomPoints, int numPoints) {
+        ensureCapacity(numPoints);
+        System.arraycopy(odomPoints, 0, mPoints, 0, numPoints * 4);
+        mNumPoints = numPoints;
+        return extractPlanes();
+    }
+
+    public int getPlaneCount() {
+        return mNumPlanes;
+    }
+
+    /** The i-th plane of the last cloud. Valid until the next extract. */
+    public Plane getPlane(int i) {
+        return mPlanes[i];
+    }
+
+    /** The floor of the last cloud, or null if it was not seen. */
+    public Plane getFloor() {
+        return mFloor < 0 ? null : mPlanes[mFloor];
+    }
+
+    /** The wall with the most inliers, or null if there is none. */
+    public Plane getLargestWall() {
+        Plane largest = null;
+        for (int i = 0; i < mNumPlanes; i++) {
+            Plane plane = mPlanes[i];
+            if (plane.kind == KIND_WALL && (largest == null || plane.inliers > largest.inliers)) {
+                largest = plane;
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * The points of the last cloud in the odom frame, as x, y, z, confidence.
+     * Valid until the next extract.
+     */
+    public float[] getPoints() {
+        return mPoints;
+    }
+
+    public int getPointCount() {
+        return mNumPoints;
+    }
+
+    /**
+     * The index of the plane that claimed each point of the last cloud, or
+     * NO_PLANE. Valid until the next extract.
+     */
+    public int[] getLabels() {
+        return mLabels;
+    }
+
+    private void ensureCapacity(int numPoints) {
+        if (mPoints.length < numPoints * 4) {
+            mPoints = new float[numPoints * 4];
+            mClaimed = new boolean[numPoints];
+            mLabels = new int[numPoints];
+        }
+    }
+
+    private void transform(float[] m) {
+        float[] p = mPoints;
+        for (int i = 0, n = mNumPoints * 4; i < n; i += 4) {
+            float x = p[i];
+            float y = p[i + 1];
+            float z = p[i + 2];
+            p[i] = m[0] * x + m[4] * y + m[8] * z + m[12];
+            p[i + 1] = m[1] * x + m[5] * y + m[9] * z + m[13];
+            p[i + 2] = m[2] * x + m[6] * y + m[10] * z + m[14];
+        }
+    }
+
+    private int extractPlanes() {
+        mNumPlanes = 0;
+        mFloor = -1;
+        if (mNumPoints == 0) {
+            return 0;
+        }
+        for (int i = 0; i < mNumPoints; i++) {
+            mClaimed[i] = false;
+            mLabels[i] = NO_PLANE;
+        }
+        int remaining = mNumPoints;
+        for (int round = 0; round < MAX_PLANES && remaining >= mMinInliers; round++) {
+            // draw all hypotheses of this round, then score them in one pass
+            mCounter.clear();
+            for (int it = 0; it < mIterations; it++) {
+                int i0 = sampleUnclaimed();
+                int i1 = sampleUnclaimed();
+                int i2 = sampleUnclaimed();
+                if (i0 < 0 || i1 < 0 || i2 < 0) {
+                    continue;
+                }
+                float[] p = mPoints;
+                double ux = p[i1] - p[i0], uy = p[i1 + 1] - p[i0 + 1], uz = p[i1 + 2] - p[i0 + 2];
+                double vx = p[i2] - p[i0], vy = p[i2 + 1] - p[i0 + 1], vz = p[i2 + 2] - p[i0 + 2];
+                double a = uy * vz - uz * vy;
+                double b = uz * vx - ux * vz;
+                double c = ux * vy - uy * vx;
+                double d = -(a * p[i0] + b * p[i0 + 1] + c * p[i0 + 2]);
+                // collinear samples have a zero normal and are rejected by the counter
+                mCounter.addPlane(a, b, c, d);
+            }
+            mCounter.count(mPoints, mNumPoints, mClaimed);
+            int best = mCounter.getBest();
+            if (best < 0 || mCounter.getCount(best) < mMinInliers) {
+                break;
+            }
+            double bestA = mCounter.getCoefficient(best, 0);
+            double bestB = mCounter.getCoefficient(best, 1);
+            double bestC = mCounter.getCoefficient(best, 2);
+            double bestD = mCounter.getCoefficient(best, 3);
+            double norm = Math.sqrt(bestA * bestA + bestB * bestB + bestC * bestC);
+            bestA /= norm;
+            bestB /= norm;
+            bestC /= norm;
+            bestD /= norm;
+            Plane plane = mPlanes[mNumPlanes];
+            plane.a = bestA;
+            plane.b = bestB;
+            plane.c = bestC;
+            plane.d = bestD;
+            plane.inliers = claimInliers(plane, mNumPlanes);
+            remaining -= plane.inliers;
+            classify(mNumPlanes++);
+        }
+        return mNumPlanes;
+    }
+
+    private void classify(int index) {
+        Plane plane = mPlanes[index];
+        double absC = Math.abs(plane.c);
+        if (absC < mVerticalThreshold) {
+            plane.kind = KIND_WALL;
+        } else if (absC > mHorizontalThreshold) {
+            // the lowest horizontal plane is the floor; tables, steps and the like are other
+            if (mFloor < 0 || plane.height() < mPlanes[mFloor].height()) {
+                if (mFloor >= 0) {
+                    mPlanes[mFloor].kind = KIND_OTHER;
+                }
+                mFloor = index;
+                plane.kind = KIND_FLOOR;
+            } else {
+                plane.kind = KIND_OTHER;
+            }
+        } else {
+            plane.kind = KIND_OTHER;
+        }
+    }
+
+    /**
+     * Mark the inliers of the plane as claimed, record their extent and move the
+     * plane through their centroid. As when scoring, points below the minimum
+     * confidence are not inliers.
+     *
+     * @param index the plane's index, to label its inliers with.
+     * @return the number of points claimed.
+     */
+    private int claimInliers(Plane plane, int index) {
+        float[] p = mPoints;
+        boolean[] claimed = mClaimed;
+        int[] labels = mLabels;
+        double sum = 0;
+        int count = 0;
+        double minS = Double.MAX_VALUE, maxS = -Double.MAX_VALUE;
+        double minZ = Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+        for (int i = 0; i < mNumPoints; i++) {
+            int j = i * 4;
+            if (claimed[i] || p[j + 3] < mMinConfidence) {
+                continue;
+            }
+            double dist = plane.a * p[j] + plane.b * p[j + 1] + plane.c * p[j + 2] + plane.d;
+            if (Math.abs(dist) < mInlierThreshold) {
+                claimed[i] = true;
+                labels[i] = index;
+                sum += dist;
+                count++;
+                double s = plane.a * p[j + 1] - plane.b * p[j];
+                minS = Math.min(minS, s);
+                maxS = Math.max(maxS, s);
+                minZ = Math.min(minZ, p[j + 2]);
+                maxZ = Math.max(maxZ, p[j + 2]);
+            }
+        }
+        plane.minS = minS;
+        plane.maxS = maxS;
+        plane.minZ = minZ;
+        plane.maxZ = maxZ;
+        if (count > 0) {
+            plane.d -= sum / count;
+        }
+        return count;
+    }
+
+    /** Index into mPoints of a random point no plane has claimed yet, or -1. */
+    private int sampleUnclaimed() {
+        for (int t = 0; t < MAX_SAMPLE_TRIES; t++) {
+            int i = nextInt(mNumPoints);
+            if (!mClaimed[i]) {
+                return i * 4;
+            }
+        }
+        return -1;
+    }
+
+    // xorshift64*, so sampling neither allocates nor contends with other threads
+    private int nextInt(int bound) {
+        long x = mRandomState;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        mRandomState = x;
+        return (int) (((x * 0x2545F4914F6CDD1DL) >>> 33) % bound);
+    }
+}
@@ -0,0 +1,295 @@
+package com.projecttango.examples.java.planefitting;
+
+/**
+ * A small map of the walls seen so far, in the odom frame.
+ *
+ * Every wall is a vertical plane ax + by + d = 0 whose unit normal points
+ * towards the side it was observed from, together with the extent of its
+ * points along the wall and the time it was last seen. Walls are kept sorted
+ * by the azimuth of their normal, so both associating a new plane fit with a
+ * tracked wall and looking up the walls that face a given direction are a
+ * binary search plus a scan over the few walls within the angle tolerance.
+ *
+ * New fits that match a wall in orientation, offset and extent are merged
+ * into it; others become new walls, evicting the least recently seen one when
+ * the map is full. The map keeps all its walls preallocated and is not thread
+ * safe.
+ */
+public class PlaneMap {
+
+    public static class Wall {
+        // unique for the life of the map, so a wall can be told apart after its slot is reused
+        public int id;
+        public double a;
+        public double b;
+        public double c;
+        public double d;
+        // atan2(b, a) of the normal, in [-PI, PI]
+        public double azimuth;
+        // extent along the tangent (-b, a, 0) and along z
+        public double minS;
+        public double maxS;
+        public double minZ;
+        public double maxZ;
+        public double lastSeen;
+        public int observations;
+
+        /** Signed distance from the point xyz; positive on the observed side. */
+        public double signedDistanceTo(double[] xyz) {
+            return a * xyz[0] + b * xyz[1] + c * xyz[2] + d;
+        }
+
+        /** Distance from the point xyz to the (unbounded) plane. */
+        public double distanceTo(double[] xyz) {
+            return Math.abs(signedDistanceTo(xyz));
+        }
+
+        /** Whether xyz projects onto the wall, allowing margin meters past its ends. */
+        public boolean covers(double[] xyz, double margin) {
+            double s = a * xyz[1] - b * xyz[0];
+            return s >= minS - margin && s <= maxS + margin;
+        }
+
+        /** The plane as {a, b, c, d}. */
+        public double[] toArray() {
+            return new double[] {a, b, c, d};
+        }
+    }
+
+    // a fit's weight against the wall it merges into stops growing here, so a
+    // wall that has been seen for long still follows small pose corrections
+    private static final int MAX_MERGE_WEIGHT = 10;
+
+    private double mAngleThreshold = Math.toRadians(15);
+    private double mOffsetThreshold = 0.2;
+    private double mExtentGap = 0.5;
+
+    private final Wall[] mWalls;
+    private int mSize;
+    private int mNextId;
+
+    public PlaneMap(int capacity) {
+        mWalls = new Wall[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mWalls[i] = new Wall();
+        }
+    }
+
+    /** Maximum angle between the normals of a fit and the wall it merges into. */
+    public void setAngleThreshold(double radians) {
+        mAngleThreshold = radians;
+    }
+
+    /** Maximum difference in d between a fit and the wall it merges into. */
+    public void setOffsetThreshold(double meters) {
+        mOffsetThreshold = meters;
+    }
+
+    /** Maximum gap between the extents of a fit and the wall it merges into. */
+    public void setExtentGap(double meters) {
+        mExtentGap = meters;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /** The i-th wall in azimuth order. */
+    public Wall get(int i) {
+        return mWalls[i];
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Add a vertical plane seen from devicePosition at timestamp, merging it into
+     * the matching wall if there is one.
+     *
+     * @return the wall the plane was merged into or stored as.
+     */
+    public Wall observe(PlaneExtractor.Plane plane, double[] devicePosition, double timestamp) {
+        // orient the normal towards the device
+        double sign = (plane.a * devicePosition[0] + plane.b * devicePosition[1]
+                + plane.c * devicePosition[2] + plane.d) < 0 ? -1 : 1;
+        double a = sign * plane.a;
+        double b = sign * plane.b;
+        double c = sign * plane.c;
+        double d = sign * plane.d;
+        // flipping the normal flips the tangent as well
+        double minS = sign > 0 ? plane.minS : -plane.maxS;
+        double maxS = sign > 0 ? plane.maxS : -plane.minS;
+        double azimuth = Math.atan2(b, a);
+
+        int match = findMatch(azimuth, d, minS, maxS);
+        if (match >= 0) {
+            Wall wall = mWalls[match];
+            double w = Math.min(wall.observations, MAX_MERGE_WEIGHT);
+            double na = w * wall.a + a;
+            double nb = w * wall.b + b;
+            double nc = w * wall.c + c;
+            double norm = Math.sqrt(na * na + nb * nb + nc * nc);
+            wall.a = na / norm;
+            wall.b = nb / norm;
+            wall.c = nc / norm;
+            wall.d = (w * wall.d + d) / (w + 1);
+            wall.azimuth = Math.atan2(wall.b, wall.a);
+            wall.minS = Math.min(wall.minS, minS);
+            wall.maxS = Math.max(wall.maxS, maxS);
+            wall.minZ = Math.min(wall.minZ, plane.minZ);
+            wall.maxZ = Math.max(wall.maxZ, plane.maxZ);
+            wall.lastSeen = timestamp;
+            wall.observations++;
+            return reposition(match);
+        }
+
+        Wall wall;
+        if (mSize < mWalls.length) {
+            wall = mWalls[mSize++];
+        } else {
+            // reuse the least recently seen wall
+            int oldest = 0;
+            for (int i = 1; i < mSize; i++) {
+                if (mWalls[i].lastSeen < mWalls[oldest].lastSeen) {
+                    oldest = i;
+                }
+            }
+            wall = mWalls[oldest];
+            System.arraycopy(mWalls, oldest + 1, mWalls, oldest, mSize - oldest - 1);
+            mWalls[mSize - 1] = wall;
+        }
+        wall.id = mNextId++;
+        wall.a = a;
+        wall.b = b;
+        wall.c = c;
+        wall.d = d;
+        wall.azimuth = azimuth;
+        wall.minS = minS;
+        wall.maxS = maxS;
+        wall.minZ = plane.minZ;
+        wall.maxZ = plane.maxZ;
+        wall.lastSeen = timestamp;
+        wall.observations = 1;
+        return reposition(mSize - 1);
+    }
+
+    /** Forget the walls last seen more than maxAge seconds before now. */
+    public void prune(double now, double maxAge) {
+        int kept = 0;
+        for (int i = 0; i < mSize; i++) {
+            Wall wall = mWalls[i];
+            if (now - wall.lastSeen <= maxAge) {
+                mWalls[i] = mWalls[kept];
+                mWalls[kept++] = wall;
+            }
+        }
+        mSize = kept;
+    }
+
+    /**
+     * The nearest wall whose normal is within tolerance of azimuth and that
+     * position projects onto, or null if there is none.
+     */
+    public Wall nearestWall(double[] position, double azimuth, double tolerance) {
+        Wall nearest = null;
+        double nearestDist = Double.MAX_VALUE;
+        double lo = azimuth - tolerance;
+        double hi = azimuth + tolerance;
+        // the range may wrap around +-PI; scan it as (up to) two pieces
+        for (int piece = 0; piece < 3; piece++) {
+            double shift = (piece - 1) * 2 * Math.PI;
+            double pieceLo = Math.max(lo + shift, -Math.PI);
+            double pieceHi = Math.min(hi + shift, Math.PI);
+            if (pieceLo > pieceHi) {
+                continue;
+            }
+            for (int i = lowerBound(pieceLo); i < mSize && mWalls[i].azimuth <= pieceHi; i++) {
+                Wall wall = mWalls[i];
+                double dist = wall.signedDistanceTo(position);
+                if (dist >= 0 && dist < nearestDist && wall.covers(position, mExtentGap)) {
+                    nearest = wall;
+                    nearestDist = dist;
+                }
+            }
+        }
+        return nearest;
+    }
+
+    /** The nearest wall that position projects onto, or null if there is none. */
+    public Wall nearestWall(double[] position) {
+        return nearestWall(position, 0, Math.PI);
+    }
+
+    /**
+     * Whether a plane with the given azimuth, offset and extent is the same
+     * wall as wall: the normals must agree within the angle threshold, the
+     * offsets within the offset threshold, and the extents must overlap or
+     * be less than the extent gap apart.
+     */
+    private boolean matches(Wall wall, double azimuth, double d, double minS, double maxS) {
+        return angleBetween(wall.azimuth, azimuth) < mAngleThreshold
+                && Math.abs(wall.d - d) < mOffsetThreshold
+                && minS <= wall.maxS + mExtentGap
+                && maxS >= wall.minS - mExtentGap;
+    }
+
+    private int findMatch(double azimuth, double d, double minS, double maxS) {
+        int best = -1;
+        double bestOffset = Double.MAX_VALUE;
+        double lo = azimuth - mAngleThreshold;
+        double hi = azimuth + mAngleThreshold;
+        for (int piece = 0; piece < 3; piece++) {
+            double shift = (piece - 1) * 2 * Math.PI;
+            double pieceLo = Math.max(lo + shift, -Math.PI);
+            double pieceHi = Math.min(hi + shift, Math.PI);
+            if (pieceLo > pieceHi) {
+                continue;
+            }
+            for (int i = lowerBound(pieceLo); i < mSize && mWalls[i].azimuth <= pieceHi; i++) {
+                Wall wall = mWalls[i];
+                double offset = Math.abs(wall.d - d);
+                if (matches(wall, azimuth, d, minS, maxS) && offset < bestOffset) {
+                    best = i;
+                    bestOffset = offset;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** First index whose azimuth is at least azimuth. */
+    private int lowerBound(double azimuth) {
+        int lo = 0;
+        int hi = mSize;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mWalls[mid].azimuth < azimuth) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Move the wall at index i to its place in azimuth order. */
+    private Wall reposition(int i) {
+        Wall wall = mWalls[i];
+        while (i > 0 && mWalls[i - 1].azimuth > wall.azimuth) {
+            mWalls[i] = mWalls[i - 1];
+            i--;
+        }
+        while (i < mSize - 1 && mWalls[i + 1].azimuth < wall.azimuth) {
+            mWalls[i] = mWalls[i + 1];
+            i++;
+        }
+        mWalls[i] = wall;
+        return wall;
+    }
+
+    private static double angleBetween(double x, double y) {
+        double diff = Math.abs(x - y) % (2 * Math.PI);
+        return diff > Math.PI ? 2 * Math.PI - diff : diff;
+    }
+}
@@ -0,0 +1,141 @@
+package com.projecttango.examples.java.planefitting;
+
+import android.media.midi.MidiReceiver;
+import android.util.Log;
+
+import com.mobileer.miditools.MidiConstants;
+
+import java.io.IOException;
+
+/**
+ * Plays the wall distance as a train of short notes, like a parking sensor:
+ * the closer the wall, the faster the pulses.
+ *
+ * Instead of sleeping between note on and note off, the sequencer sends both
+ * ahead of time with future timestamps and leaves the timing to the receiver's
+ * MidiEventScheduler. Only the pulses that start within the lookahead window
+ * are sent, so a change of period or note is heard from the next unsent pulse
+ * on, without restarting the rhythm.
+ *
+ * All methods must be called from the same thread.
+ */
+public class PulseSequencer {
+    private static final String TAG = PulseSequencer.class.getSimpleName();
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private final MidiReceiver mReceiver;
+    private final byte[] mBuffer = new byte[3];
+    private int mChannel;
+    private int mVelocity = 64;
+    private long mLookaheadNanos = 100 * NANOS_PER_MILLI;
+
+    private long mPeriodNanos = 500 * NANOS_PER_MILLI;
+    private double mDutyCycle = 0.5;
+    private int mNote = 60;
+
+    private boolean mRunning;
+    // start of the last pulse sent, and of the next one to send
+    private long mLastPulseNanos;
+    private long mNextPulseNanos;
+    // end of the last pulse sent; a pulse starting earlier would be cut off by it
+    private long mLastNoteOffNanos;
+
+    public PulseSequencer(MidiReceiver receiver, int channel) {
+        mReceiver = receiver;
+        mChannel = channel;
+    }
+
+    public void setVelocity(int velocity) {
+        mVelocity = velocity;
+    }
+
+    /** How far ahead pulses are sent. Longer is more robust, shorter reacts faster. */
+    public void setLookaheadNanos(long lookaheadNanos) {
+        mLookaheadNanos = lookaheadNanos;
+    }
+
+    /** Fraction of the period the note sounds for. */
+    public void setDutyCycle(double dutyCycle) {
+        mDutyCycle = dutyCycle;
+    }
+
+    /** Note of the pulses that have not been sent yet. */
+    public void setNote(int note) {
+        mNote = note;
+    }
+
+    /**
+     * Change the time between pulses. The next unsent pulse moves so that it
+     * follows the last sent one by the new period, but never into the past
+     * nor before the last sent one ends.
+     */
+    public void setPeriodNanos(long periodNanos, long now) {
+        if (periodNanos == mPeriodNanos) {
+            return;
+        }
+        mPeriodNanos = periodNanos;
+        if (mRunning) {
+            mNextPulseNanos = Math.max(Math.max(mLastPulseNanos + periodNanos, now),
+                    mLastNoteOffNanos);
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Start pulsing, with the first pulse at now, or once a pulse sent before
+     * stop() has ended.
+     */
+    public void start(long now) {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mNextPulseNanos = Math.max(now, mLastNoteOffNanos);
+        mLastPulseNanos = now - mPeriodNanos;
+    }
+
+    /**
+     * Stop pulsing. Pulses already sent still play; there are at most a
+     * lookahead's worth of them.
+     */
+    public void stop() {
+        mRunning = false;
+    }
+
+    /**
+     * Send every pulse that starts before now plus the lookahead.
+     *
+     * @return the System.nanoTime() by which schedule should be called again.
+     */
+    public long schedule(long now) {
+        if (!mRunning) {
+            return now + mLookaheadNanos;
+        }
+        long horizon = now + mLookaheadNanos;
+        long noteLength = (long) (mPeriodNanos * mDutyCycle);
+        while (mNextPulseNanos < horizon) {
+            long start = mNextPulseNanos;
+            send(MidiConstants.STATUS_NOTE_ON + mChannel, mNote, mVelocity, start);
+            send(MidiConstants.STATUS_NOTE_OFF + mChannel, mNote, mVelocity, start + noteLength);
+            mLastPulseNanos = start;
+            mLastNoteOffNanos = start + noteLength;
+            mNextPulseNanos = start + mPeriodNanos;
+        }
+        return mNextPulseNanos - mLookaheadNanos;
+    }
+
+    private void send(int status, int data1, int data2, long timestamp) {
+        mBuffer[0] = (byte) status;
+        mBuffer[1] = (byte) data1;
+        mBuffer[2] = (byte) data2;
+        try {
+            mReceiver.send(mBuffer, 0, 3, timestamp);
+        } catch (IOException e) {
+            Log.e(TAG, "send() failed " + e);
+        }
+    }
+}
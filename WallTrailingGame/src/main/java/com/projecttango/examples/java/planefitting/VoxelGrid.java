@@ -0,0 +1,221 @@
+package com.projecttango.examples.java.planefitting;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Accumulates successive point clouds into a voxel grid in the odom frame.
+ *
+ * Each occupied voxel keeps the number of points that fell into it, the sum of
+ * their positions and confidences, and the time it was last seen. Voxels are
+ * stored in an open addressing hash table keyed by their packed integer
+ * coordinates, so merging a cloud does not allocate. Once a voxel has seen
+ * maxWeight points its sums are decayed, so its centroid follows a wall that
+ * is re-observed from a new pose. Voxels not seen for a while are dropped by
+ * {@link #prune(double, double)}.
+ *
+ * The grid is not thread safe.
+ */
+public class VoxelGrid {
+
+    // 21 bits per axis, biased so that negative indices pack as positive ones
+    private static final int AXIS_BITS = 21;
+    private static final long AXIS_MASK = (1L << AXIS_BITS) - 1;
+    private static final int AXIS_BIAS = 1 << (AXIS_BITS - 1);
+    private static final long EMPTY = -1L;
+
+    private final float mVoxelSize;
+    private final float mInvVoxelSize;
+    private final int mMaxWeight;
+    private final int mMaxVoxels;
+
+    // table slots; a slot is free when its key is EMPTY
+    private long[] mKeys;
+    private int[] mCounts;
+    private float[] mSums;       // x, y, z, confidence per slot
+    private double[] mLastSeen;
+    private int mMask;
+    private int mSize;
+
+    // second table that prune() rehashes into, swapped with the first
+    private long[] mSpareKeys;
+    private int[] mSpareCounts;
+    private float[] mSpareSums;
+    private double[] mSpareLastSeen;
+
+    /**
+     * @param voxelSize edge of a voxel in meters.
+     * @param maxVoxels voxels beyond this many are not added until pruning frees room.
+     * @param maxWeight number of points after which a voxel's centroid starts to decay.
+     */
+    public VoxelGrid(float voxelSize, int maxVoxels, int maxWeight) {
+        mVoxelSize = voxelSize;
+        mInvVoxelSize = 1.0f / voxelSize;
+        mMaxWeight = maxWeight;
+        mMaxVoxels = maxVoxels;
+        // keep the load factor at or below one half
+        int capacity = Integer.highestOneBit(Math.max(maxVoxels, 1) * 2 - 1) << 1;
+        mMask = capacity - 1;
+        mKeys = new long[capacity];
+        mCounts = new int[capacity];
+        mSums = new float[capacity * 4];
+        mLastSeen = new double[capacity];
+        mSpareKeys = new long[capacity];
+        mSpareCounts = new int[capacity];
+        mSpareSums = new float[capacity * 4];
+        mSpareLastSeen = new double[capacity];
+        clear();
+    }
+
+    public float getVoxelSize() {
+        return mVoxelSize;
+    }
+
+    /** Number of occupied voxels. */
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        Arrays.fill(mKeys, EMPTY);
+        mSize = 0;
+    }
+
+    /**
+     * Transform numPoints points (x, y, z, confidence) of a depth camera cloud
+     * into the odom frame with the column major matrix depthTodom, and add them.
+     * The buffer is read by absolute index and its position is left unchanged.
+     */
+    public void merge(FloatBuffer points, int numPoints, float[] depthTodom, double timestamp) {
+        float[] m = depthTodom;
+        for (int i = 0, j = 0; i < numPoints; i++, j += 4) {
+            float x = points.get(j);
+            float y = points.get(j + 1);
+            float z = points.get(j + 2);
+            add(m[0] * x + m[4] * y + m[8] * z + m[12],
+                    m[1] * x + m[5] * y + m[9] * z + m[13],
+                    m[2] * x + m[6] * y + m[10] * z + m[14],
+                    points.get(j + 3),
+                    timestamp);
+        }
+    }
+
+    /** Add one point already in the odom frame. */
+    public void add(float x, float y, float z, float confidence, double timestamp) {
+        long key = key(index(x), index(y), index(z));
+        int slot = find(key);
+        if (mKeys[slot] == EMPTY) {
+            if (mSize >= mMaxVoxels) {
+                return;
+            }
+            mKeys[slot] = key;
+            mCounts[slot] = 0;
+            mSums[slot * 4] = 0;
+            mSums[slot * 4 + 1] = 0;
+            mSums[slot * 4 + 2] = 0;
+            mSums[slot * 4 + 3] = 0;
+            mSize++;
+        }
+        int s = slot * 4;
+        int count = mCounts[slot];
+        if (count >= mMaxWeight) {
+            // forget a little of the old points to make room for the new one
+            float decay = (count - 1) / (float) count;
+            mSums[s] *= decay;
+            mSums[s + 1] *= decay;
+            mSums[s + 2] *= decay;
+            mSums[s + 3] *= decay;
+        } else {
+            mCounts[slot] = count + 1;
+        }
+        mSums[s] += x;
+        mSums[s + 1] += y;
+        mSums[s + 2] += z;
+        mSums[s + 3] += confidence;
+        mLastSeen[slot] = timestamp;
+    }
+
+    /** Drop the voxels last seen more than maxAge seconds before now. */
+    public void prune(double now, double maxAge) {
+        double oldest = now - maxAge;
+        long[] keys = mSpareKeys;
+        Arrays.fill(keys, EMPTY);
+        int size = 0;
+        for (int slot = 0; slot <= mMask; slot++) {
+            if (mKeys[slot] == EMPTY || mLastSeen[slot] < oldest) {
+                continue;
+            }
+            int to = probe(keys, mKeys[slot]);
+            keys[to] = mKeys[slot];
+            mSpareCounts[to] = mCounts[slot];
+            System.arraycopy(mSums, slot * 4, mSpareSums, to * 4, 4);
+            mSpareLastSeen[to] = mLastSeen[slot];
+            size++;
+        }
+        mSpareKeys = mKeys;
+        mKeys = keys;
+        int[] counts = mSpareCounts;
+        mSpareCounts = mCounts;
+        mCounts = counts;
+        float[] sums = mSpareSums;
+        mSpareSums = mSums;
+        mSums = sums;
+        double[] lastSeen = mSpareLastSeen;
+        mSpareLastSeen = mLastSeen;
+        mLastSeen = lastSeen;
+        mSize = size;
+    }
+
+    /**
+     * Write the centroid and mean confidence of every voxel that holds at least
+     * minCount points into out, as x, y, z, confidence quadruplets.
+     *
+     * @return the number of points written; out must hold 4 * size() floats.
+     */
+    public int getPoints(float[] out, int minCount) {
+        int n = 0;
+        for (int slot = 0; slot <= mMask; slot++) {
+            int count = mCounts[slot];
+            if (mKeys[slot] == EMPTY || count < minCount) {
+                continue;
+            }
+            float inv = 1.0f / count;
+            int s = slot * 4;
+            int o = n * 4;
+            out[o] = mSums[s] * inv;
+            out[o + 1] = mSums[s + 1] * inv;
+            out[o + 2] = mSums[s + 2] * inv;
+            out[o + 3] = mSums[s + 3] * inv;
+            n++;
+        }
+        return n;
+    }
+
+    private int index(float v) {
+        return (int) Math.floor(v * mInvVoxelSize);
+    }
+
+    private static long key(int ix, int iy, int iz) {
+        return (((ix + AXIS_BIAS) & AXIS_MASK) << (2 * AXIS_BITS))
+                | (((iy + AXIS_BIAS) & AXIS_MASK) << AXIS_BITS)
+                | ((iz + AXIS_BIAS) & AXIS_MASK);
+    }
+
+    /** Slot holding key, or the free slot where it would go. */
+    private int find(long key) {
+        return probe(mKeys, key);
+    }
+
+    private int probe(long[] keys, long key) {
+        int slot = hash(key) & mMask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mMask;
+        }
+        return slot;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
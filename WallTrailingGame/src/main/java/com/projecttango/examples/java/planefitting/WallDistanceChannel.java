@@ -0,0 +1,115 @@
+package com.projecttango.examples.java.planefitting;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands the latest wall distance from the wall sensing thread to the audio
+ * feedback thread without going through the main looper.
+ *
+ * There is one writer, WallSensingService, and readers always get the newest
+ * sample; older samples are overwritten, not queued. A sample is published
+ * under a sequence counter that is odd while the writer is filling it in, so a
+ * reader retries instead of seeing half of one sample and half of another.
+ * Neither side allocates or takes a lock. One reader thread at a time can also
+ * block in {@link #awaitNewer(long, long)} until the next sample arrives.
+ */
+public final class WallDistanceChannel {
+
+    /** One wall distance measurement. */
+    public static class Sample {
+        // sequence number of the sample; 0 if nothing has been published
+        public long sequence;
+        // Tango timestamp of the point cloud, in seconds
+        public double timestamp;
+        // System.nanoTime() when the point cloud arrived
+        public long arrivalNanos;
+        // distance to the wall in meters
+        public double distance;
+        // 0 to 1, how well established the wall is
+        public float confidence;
+        // id of the wall in the service's plane map
+        public int planeId;
+    }
+
+    private static volatile long sSequence;
+    private static volatile double sTimestamp;
+    private static volatile long sArrivalNanos;
+    private static volatile double sDistance;
+    private static volatile float sConfidence;
+    private static volatile int sPlaneId;
+
+    private static volatile Thread sWaiter;
+
+    private WallDistanceChannel() {
+    }
+
+    /** Publish a sample. Must only be called from a single thread. */
+    public static void publish(double timestamp, long arrivalNanos, double distance,
+                               float confidence, int planeId) {
+        long sequence = sSequence;
+        sSequence = sequence + 1;
+        sTimestamp = timestamp;
+        sArrivalNanos = arrivalNanos;
+        sDistance = distance;
+        sConfidence = confidence;
+        sPlaneId = planeId;
+        sSequence = sequence + 2;
+        Thread waiter = sWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /** Sequence number of the latest sample, 0 if none has been published. */
+    public static long getSequence() {
+        return sSequence >>> 1;
+    }
+
+    /**
+     * Copy the latest sample into out.
+     *
+     * @return false if nothing has been published yet.
+     */
+    public static boolean read(Sample out) {
+        while (true) {
+            long before = sSequence;
+            if ((before & 1) != 0) {
+                // the writer is in the middle of a sample
+                Thread.yield();
+                continue;
+            }
+            out.timestamp = sTimestamp;
+            out.arrivalNanos = sArrivalNanos;
+            out.distance = sDistance;
+            out.confidence = sConfidence;
+            out.planeId = sPlaneId;
+            if (sSequence == before) {
+                out.sequence = before >>> 1;
+                return before != 0;
+            }
+        }
+    }
+
+    /**
+     * Block the calling thread until a sample newer than sequence is published,
+     * the timeout elapses or the thread is interrupted.
+     *
+     * @return the sequence number of the latest sample.
+     */
+    public static long awaitNewer(long sequence, long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        sWaiter = Thread.currentThread();
+        try {
+            while (getSequence() <= sequence) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                LockSupport.parkNanos(remaining);
+            }
+            return getSequence();
+        } finally {
+            sWaiter = null;
+        }
+    }
+}
@@ -1,12 +1,12 @@
 package com.projecttango.examples.java.planefitting;
 
-import android.app.IntentService;
-import android.content.BroadcastReceiver;
+import android.app.Service;
 import android.content.Intent;
-import android.content.Context;
-import android.content.IntentFilter;
 import android.opengl.Matrix;
-import android.support.v4.content.LocalBroadcastManager;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
 import android.util.Log;
 import android.view.Surface;
 import android.widget.Toast;
@@ -25,18 +25,21 @@ import com.google.atap.tangoservice.TangoXyzIjData;
 import com.projecttango.tangosupport.TangoPointCloudManager;
 import com.projecttango.tangosupport.TangoSupport;
 
-import java.nio.FloatBuffer;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 
-import static android.opengl.Matrix.multiplyMV;
-import static android.opengl.Matrix.transposeM;
-
 
 /**
- * An {@link IntentService} subclass for handling asynchronous task requests in
- * a service on a separate handler thread.
+ * A bound service that measures the distance to the wall being trailed.
+ *
+ * The service connects to Tango when the first client binds and stays
+ * connected until the last one unbinds, so pausing and resuming a game does
+ * not pay for a Tango reconnect. Clients control the processing pipeline with
+ * {@link #startSensing()}, {@link #pauseSensing()} and {@link #resumeSensing()};
+ * while paused, point clouds keep arriving but are not processed.
  */
-public class WallSensingService extends IntentService {
+public class WallSensingService extends Service {
 
     private static final String TAG = WallSensingService.class.getSimpleName();
     private Tango mTango;
@@ -44,55 +47,109 @@ public class WallSensingService extends IntentService {
     private TangoPointCloudManager mPointCloudManager = new TangoPointCloudManager();
     private double mLastPointCloudTimestamp;
     private int mDisplayRotation = Surface.ROTATION_0;
-    private double[] mSavedPlaneModel;
-
-    // amount of difference there can be between parameters in plane model
-    // without assuming the current wall is different from the previous wall.
-    private double abcMatchThresh = 0.75;
-    private double dMatchThresh = 0.2;
-
-    // Threshold used to decide if plane model represents a vertical plane (i.e. a wall)
-    private double verticalThreshold = 0.05;
-
-    public WallSensingService() {
-        super("WallSensingService");
-
-        // The filter's action is BROADCAST_WALLSENSINGSERVICE_STOP
-        IntentFilter statusIntentFilter = new IntentFilter(
-                Constants.BROADCAST_WALLSENSINGSERVICE_STOP);
-
-        // Instantiates a new DownloadStateReceiver
-        WallSensingService.ShutdownServiceReceiver mShutdownServiceReceiver =
-                new WallSensingService.ShutdownServiceReceiver();
-        // Registers the DownloadStateReceiver and its intent filters
-        LocalBroadcastManager.getInstance(this).registerReceiver(
-                mShutdownServiceReceiver,
-                statusIntentFilter);
+
+    private final IBinder mBinder = new LocalBinder();
+
+    // Wall detection runs on its own thread. The Tango callback only hands the
+    // newest cloud over; clouds that arrive while a fit is running replace each
+    // other, so the worker never falls more than one cloud behind.
+    private Thread mWallSensingThread;
+    private volatile boolean mWallSensingEnabled;
+    // whether clouds are processed; the worker and Tango stay up while paused
+    private volatile boolean mSensingActive;
+    private final Object mCloudLock = new Object();
+    private boolean mCloudPending;
+    private long mCloudArrivalNanos;
+    private double mLastProcessedTimestamp;
+    private int mCloudsReceived;
+    private int mCloudsProcessed;
+    private Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Voxel grid, plane extraction, wall map and obstacles; see WallTracker.
+    private WallTracker mWallTracker = new WallTracker();
+    // a wall seen in this many clouds is reported with full confidence
+    private static final int CONFIDENT_OBSERVATIONS = 10;
+    // when set, every processed cloud is also written here for offline replay
+    private CloudRecording.Writer mRecorder;
+
+    /**
+     * Binder handed to clients in the same process.
+     */
+    public class LocalBinder extends Binder {
+        public WallSensingService getService() {
+            return WallSensingService.this;
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        startWallSensing();
+        bindTangoService();
     }
 
-    // Broadcast receiver for receiving shutdown service request from the activity
-    private class ShutdownServiceReceiver extends BroadcastReceiver
-    {
-        // Prevents instantiation
-        private ShutdownServiceReceiver() {
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    /**
+     * Start a new sensing session: forget the walls seen so far and process
+     * clouds from now on. Can be called before Tango has connected.
+     */
+    public void startSensing() {
+        synchronized (this) {
+            mWallTracker.reset();
         }
-        // Called when the BroadcastReceiver gets an Intent it's registered to receive
-        @Override
-        public void onReceive(Context context, Intent intent) {
-        /*
-         * Handle Intents here.
-         */
-            boolean doShutdown = intent.getBooleanExtra(Constants.WALLSENSINGSERVICE_STOP, true);
-            if (doShutdown) {
-                onDestroy();
-            }
+        resumeSensing();
+    }
+
+    /**
+     * Stop processing clouds, keeping Tango connected and the walls seen so far.
+     */
+    public void pauseSensing() {
+        mSensingActive = false;
+        Log.i(TAG, "Wall sensing paused, processed " + mCloudsProcessed + " of "
+                + mCloudsReceived + " point clouds");
+    }
+
+    /**
+     * Process clouds again, starting with the next one Tango delivers.
+     */
+    public void resumeSensing() {
+        synchronized (mCloudLock) {
+            // a cloud from before the pause is stale
+            mCloudPending = false;
+            mSensingActive = true;
         }
     }
 
-    @Override
-    protected void onHandleIntent(Intent intent) {
-        if (intent != null) {
-            bindTangoService();
+    public boolean isSensing() {
+        return mSensingActive;
+    }
+
+    /**
+     * Also write every processed cloud and its pose to file, for replaying
+     * through {@link WallTracker} off the device.
+     */
+    public void startRecording(File file) throws IOException {
+        synchronized (this) {
+            stopRecording();
+            mRecorder = new CloudRecording.Writer(file);
+        }
+    }
+
+    public void stopRecording() {
+        synchronized (this) {
+            if (mRecorder == null) {
+                return;
+            }
+            try {
+                mRecorder.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Could not close the cloud recording", e);
+            }
+            mRecorder = null;
         }
     }
 
@@ -122,9 +179,8 @@ public class WallSensingService extends IntentService {
      * Initialize Tango Service as a normal Android Service.
      */
     private void bindTangoService() {
-        // Initialize Tango Service as a normal Android Service. Since we call mTango.disconnect()
-        // in onPause, this will unbind Tango Service, so every time onResume gets called we
-        // should create a new Tango object.
+        // Initialize Tango Service as a normal Android Service. The connection is kept for
+        // the life of this service and only dropped in onDestroy, when the last client unbinds.
         mTango = new Tango(WallSensingService.this, new Runnable() {
             // Pass in a Runnable to be called from UI thread when Tango is ready; this Runnable
             // will be running on a new thread.
@@ -140,7 +196,7 @@ public class WallSensingService extends IntentService {
                         mTango.connect(mConfig);
                         startupTango();
                         TangoSupport.initialize(mTango);
-                        Log.e(TAG, "Service has started. Boogaa");
+                        Log.i(TAG, "Tango connected");
                     } catch (TangoOutOfDateException e) {
                         Log.e(TAG, getString(R.string.exception_out_of_date), e);
                     } catch (TangoErrorException e) {
@@ -155,9 +211,15 @@ public class WallSensingService extends IntentService {
 
     @Override
     public void onDestroy() {
-        super.onDestroy();
-        mTango.disconnect();
+        // Stop the worker first so no fit is running against a disconnected Tango.
+        mSensingActive = false;
+        stopWallSensing();
+        stopRecording();
+        synchronized (this) {
+            mTango.disconnect();
+        }
         Log.w(TAG, "WallSensingService shutdown successfully");
+        super.onDestroy();
     }
 
     /**
@@ -189,7 +251,15 @@ public class WallSensingService extends IntentService {
             public void onPointCloudAvailable(TangoPointCloudData pointCloud) {
                 // Save the cloud and point data for later use.
                 mPointCloudManager.updatePointCloud(pointCloud);
-                findWall();
+                if (!mSensingActive) {
+                    return;
+                }
+                synchronized (mCloudLock) {
+                    mCloudPending = true;
+                    mCloudArrivalNanos = System.nanoTime();
+                    mCloudsReceived++;
+                    mCloudLock.notify();
+                }
             }
 
             @Override
@@ -199,12 +269,65 @@ public class WallSensingService extends IntentService {
         });
     }
 
-    public boolean findWall() {
-        // Synchronize against concurrent access to the RGB timestamp in the OpenGL thread
-        // and a possible service disconnection due to an onPause event.
+    private void startWallSensing() {
+        mWallSensingEnabled = true;
+        mWallSensingThread = new Thread(new WallSensingRunnable(), "WallSensing");
+        mWallSensingThread.start();
+    }
+
+    private void stopWallSensing() {
+        mWallSensingEnabled = false;
+        if (mWallSensingThread == null) {
+            return;
+        }
+        synchronized (mCloudLock) {
+            mCloudLock.notify();
+        }
+        try {
+            mWallSensingThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mWallSensingThread = null;
+        Log.i(TAG, "Wall sensing processed " + mCloudsProcessed + " of "
+                + mCloudsReceived + " point clouds");
+    }
+
+    class WallSensingRunnable implements Runnable {
+        @Override
+        public void run() {
+            while (mWallSensingEnabled) {
+                long arrivalNanos;
+                synchronized (mCloudLock) {
+                    while (!(mCloudPending && mSensingActive) && mWallSensingEnabled) {
+                        try {
+                            mCloudLock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    mCloudPending = false;
+                    arrivalNanos = mCloudArrivalNanos;
+                }
+                if (!mWallSensingEnabled) {
+                    break;
+                }
+                TangoPointCloudData pointCloud = mPointCloudManager.getLatestPointCloud();
+                // skip a cloud that was already handled
+                if (pointCloud == null || pointCloud.timestamp <= mLastProcessedTimestamp) {
+                    continue;
+                }
+                mLastProcessedTimestamp = pointCloud.timestamp;
+                mCloudsProcessed++;
+                findWall(pointCloud, arrivalNanos);
+            }
+        }
+    }
+
+    public boolean findWall(TangoPointCloudData pointCloud, long arrivalNanos) {
+        // Synchronize against a possible service disconnection due to an onDestroy event.
         synchronized (this) {
 
-            TangoPointCloudData pointCloud = mPointCloudManager.getLatestPointCloud();
             mLastPointCloudTimestamp = pointCloud.timestamp;
 
             // Get X, Y, Z of position
@@ -231,89 +354,55 @@ public class WallSensingService extends IntentService {
                     TangoSupport.TANGO_SUPPORT_ENGINE_TANGO,
                     TangoSupport.ROTATION_IGNORED);
 
-            // get largest plane
-            int mostInliers = 0;
-            double[] bestPlaneModelThisTs = null;
-            float[] us = {0.5f, 0.4f, 0.6f, 0.2f, 0.8f, 0.0f, 1.0f};
-            float[] vs = {0.5f, 0.4f, 0.6f, 0.2f, 0.8f, 0.0f, 1.0f};
-            for (float u : us) {
-                for (float v : vs) {
-                    try {
-                        TangoSupport.IntersectionPointPlaneModelPair planeModel = doFitPlane(u, v, mLastPointCloudTimestamp, pointCloud);
-
-                        float[] planeInOdom = transformPlaneNormal(planeModel.planeModel, depthTodom);
-                        double[] planeInOdomDouble = {
-                                (double) planeInOdom[0],
-                                (double) planeInOdom[1],
-                                (double) planeInOdom[2],
-                                (double) planeInOdom[3],
-                        };
-//                            Log.w(TAG, String.format("depth X: %f Y: %f Z: %f\n", planeModel.planeModel[0], planeModel.planeModel[1], planeModel.planeModel[2]));
-//                            Log.w(TAG, String.format("odom  X: %f Y: %f Z: %f\n", planeInOdom[0], planeInOdom[1], planeInOdom[2]));
-
-                        // Choose walls (not ceilings) + largest plane (the one with most inliers)
-                        int nInliers = numInliers(pointCloud.points, planeModel.planeModel);
-                        if ((Math.abs(planeInOdom[2]) < verticalThreshold) && (nInliers > mostInliers)) {
-                            mostInliers = nInliers;
-                            bestPlaneModelThisTs = planeInOdomDouble;
-                        }
+            if (depthTodom.statusCode != TangoPoseData.POSE_VALID) {
+                Log.d(TAG, "Could not get a valid transform from depth camera"
+                        + "to odom at time " + mLastPointCloudTimestamp);
+                return false;
+            }
 
-                    } catch(TangoException t){
-                        // Failed to fit plane.
-                    } catch(SecurityException t){
-                        Toast.makeText(getApplicationContext(),
-                                R.string.failed_permissions,
-                                Toast.LENGTH_SHORT).show();
-                        Log.e(TAG, getString(R.string.failed_permissions), t);
-                    }
+            if (mRecorder != null) {
+                try {
+                    mRecorder.write(mLastPointCloudTimestamp, depthTodom.matrix,
+                            odomPose.translation, odomPose.rotation, pointCloud.points,
+                            pointCloud.numPoints);
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not record point cloud", e);
+                    stopRecording();
                 }
-
             }
 
-            // Found good candidate plane during grid search
-            if (bestPlaneModelThisTs != null) {
-
-                if (mSavedPlaneModel != null) {
-                    boolean match = planesMatch(mSavedPlaneModel, bestPlaneModelThisTs);
-                    if (match) {
-                        Log.i(TAG, "Matching Wall");
-                    }
-                    else {
-                        Log.i(TAG, "New Wall");
-                        double oldWallDist = planeDistance(mSavedPlaneModel, odomPose.translation);
-                        double newWallDist = planeDistance(bestPlaneModelThisTs,
-                                                           odomPose.translation);
-                        // New Wall is closer
-                        if (newWallDist < oldWallDist) {
-                            mSavedPlaneModel = bestPlaneModelThisTs;
-                        }
-                    }
-                }
-                else {
-                    mSavedPlaneModel = bestPlaneModelThisTs;
-                }
+            PlaneMap.Wall wall = mWallTracker.process(pointCloud.points, pointCloud.numPoints,
+                    depthTodom.matrix, odomPose.translation, odomPose.rotation,
+                    mLastPointCloudTimestamp);
+            if (mWallTracker.hasObstacles()) {
+                ObstacleChannel.publish(mLastPointCloudTimestamp, arrivalNanos,
+                        mWallTracker.getFloorHeight(), mWallTracker.getObstacleDetector());
+            }
+            if (mWallTracker.isNewWall()) {
+                Log.i(TAG, "New Wall");
             }
 
-            if (mSavedPlaneModel != null)
+            if (wall != null)
             {
                 // Save and Publish Distance to Wall
-                double newdist = planeDistance(mSavedPlaneModel, odomPose.translation);
-                /* Creates a new Intent containing a Uri object
-                 * BROADCAST_ACTION is a custom Intent action
-                 */
-                Intent localIntent =
-                        new Intent(Constants.BROADCAST_WALLDISTANCE)
-                                // Puts the status into the Intent
-                                .putExtra(Constants.WALLDISTANCE, newdist);
-                // Broadcasts the Intent to receivers in this app.
-                LocalBroadcastManager.getInstance(this).sendBroadcast(localIntent);
+                double newdist = wall.distanceTo(odomPose.translation);
+                // Hand the distance straight to the audio feedback thread
+                float confidence = Math.min(1.0f, wall.observations / (float) CONFIDENT_OBSERVATIONS);
+                WallDistanceChannel.publish(mLastPointCloudTimestamp, arrivalNanos, newdist,
+                        confidence, wall.id);
                 Log.w(TAG, "Distance to Wall: " + Double.toString(newdist));
             }
             // We still have never seen a plane
             else {
-                Toast.makeText(getApplicationContext(),
-                        R.string.failed_measurement,
-                        Toast.LENGTH_SHORT).show();
+                // Toasts need a Looper, which the wall sensing thread does not have
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(getApplicationContext(),
+                                R.string.failed_measurement,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                });
                 Log.e(TAG, getString(R.string.failed_measurement));
                 return false;
             }
@@ -321,43 +410,6 @@ public class WallSensingService extends IntentService {
         return true;
     }
 
-    /**
-     * Use the Tango Support Library with point cloud data to calculate the plane
-     * of the world feature pointed at the location the camera is looking.
-     * It returns the IntersectionPoint and the PlaneModel as a pair.
-     */
-    private TangoSupport.IntersectionPointPlaneModelPair doFitPlane(float u, float v, double rgbTimestamp, TangoPointCloudData pointCloud) {
-
-        if (pointCloud == null) {
-            return null;
-        }
-
-        TangoPoseData depthToColorPose = TangoSupport.getPoseAtTime(
-                rgbTimestamp,
-                TangoPoseData.COORDINATE_FRAME_CAMERA_DEPTH,
-                TangoPoseData.COORDINATE_FRAME_CAMERA_COLOR,
-                TangoSupport.TANGO_SUPPORT_ENGINE_TANGO,
-                TangoSupport.TANGO_SUPPORT_ENGINE_TANGO,
-                TangoSupport.ROTATION_IGNORED);
-        if (depthToColorPose.statusCode != TangoPoseData.POSE_VALID) {
-            Log.d(TAG, "Could not get a valid pose from depth camera"
-                    + "to color camera at time " + rgbTimestamp);
-            return null;
-        }
-
-        // Plane model is in depth camera space due to input poses.
-        TangoSupport.IntersectionPointPlaneModelPair intersectionPointPlaneModelPair =
-                TangoSupport.fitPlaneModelNearPoint(pointCloud,
-                        new double[] {0.0, 0.0, 0.0},
-                        new double[] {0.0, 0.0, 0.0, 1.0},
-                        u, v,
-                        mDisplayRotation,
-                        depthToColorPose.translation,
-                        depthToColorPose.rotation);
-
-        return intersectionPointPlaneModelPair;
-    }
-
     private float[] convertPlaneModelToMatrix(TangoSupport.IntersectionPointPlaneModelPair planeModel) {
         // Note that depth camera's space is:
         // X - right
@@ -420,81 +472,4 @@ public class WallSensingService extends IntentService {
         result[2] = v1[0] * v2[1] - v2[0] * v1[1];
         return result;
     }
-
-    /**
-     * Finds the distance to a plane model in the odom reference frame to the phone's position
-     * the Equation used is abs(a*x + b*y + c*z + d) / sqrt(a^2 + b^2 + c^2)
-     * where a, b, c, and d are the plane_model in the form (ax+by+cz+d = 0)
-     * and x, y, and z are the position of the phone
-     */
-    private double planeDistance(double[] normal, double[] xyz) {
-        double result = (Math.abs(normal[0]*xyz[0] + normal[1]*xyz[1] + normal[2]*xyz[2] + normal[3]) /
-                Math.sqrt(Math.pow(normal[0], 2) + Math.pow(normal[1], 2) + Math.pow(normal[2], 2)));
-        return result;
-    }
-
-    /**
-     * calculates p_twiddle = T_transpose * p
-     * where T_tranpose is the transpose of the transform matrix from depth to odom
-     * and p is [a,b,c,d] plane params, in the depth camera frame.
-     */
-    private float[] transformPlaneNormal(
-            double[] depthNormal,
-            TangoSupport.TangoMatrixTransformData depthTodom) {
-
-        float[] depthNormalF = {
-                (float) depthNormal[0],
-                (float) depthNormal[1],
-                (float) depthNormal[2],
-                (float) depthNormal[3]
-        };
-
-        float[] depthTodomTranspose = new float[16];
-        transposeM(depthTodomTranspose, 0, depthTodom.matrix, 0);
-
-        float[] odomNormal = new float[4];
-        multiplyMV(odomNormal, 0, depthTodomTranspose, 0, depthNormalF, 0);
-
-        return odomNormal;
-    }
-
-    private int numInliers(FloatBuffer points, double[] normal) {
-        int count = 0;
-        int idx = 0;
-        float[] quad = new float[4];
-        while (points.hasRemaining()) {
-            quad[idx] = points.get();
-            idx++;
-
-            // filled a quadruplet
-            if (idx > 3) {
-                // calculate if inlier
-                double planeEq = normal[0]*quad[0] + normal[1]*quad[1] + normal[2]*quad[2] + normal[3];
-                if (Math.abs(planeEq) < 0.001) {
-                    count++;
-                }
-                idx = 0;
-            }
-        }
-        return count;
-    }
-
-    private boolean planesMatch(double[] savedPlaneModel, double[] planeModel) {
-
-        return ((Math.abs(savedPlaneModel[0] - planeModel[0]) < abcMatchThresh) &&
-                (Math.abs(savedPlaneModel[1] - planeModel[1]) < abcMatchThresh) &&
-                (Math.abs(savedPlaneModel[2] - planeModel[2]) < abcMatchThresh) &&
-                (Math.abs(savedPlaneModel[2] - planeModel[2]) < dMatchThresh));
-    }
-
-    /*
-     * TODO: implement PassedPlane function to find walls that set deeper than current walls
-     *             -->
-     * Good __________
-     *                \__ --> ___________
-     * vs
-     *             -->    -->
-     * Bad  __________
-     *                \__________________
-     */
 }
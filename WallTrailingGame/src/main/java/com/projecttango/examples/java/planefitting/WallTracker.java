@@ -0,0 +1,187 @@
+package com.projecttango.examples.java.planefitting;
+
+import java.nio.FloatBuffer;
+
+/**
+ * The geometric core of wall sensing, free of Android and Tango types so it
+ * can be replayed and benchmarked on any JVM.
+ *
+ * Each cloud is merged into a voxel grid in the odom frame, and planes are
+ * extracted from the voxel centroids, which are fewer than the raw points and
+ * keep a wall around for a while when the depth camera briefly sees nothing.
+ * Walls go into a plane map; the tracked wall is the nearest one parallel to
+ * the wall followed so far, which also picks up a wall that steps back, or
+ * the nearest wall of any direction, e.g. at a corner. The floor found in the
+ * same pass is used to look for obstacles in the corridor ahead.
+ *
+ * Not thread safe.
+ */
+public class WallTracker {
+
+    private static final float VOXEL_SIZE = 0.05f;
+    private static final int MAX_VOXELS = 20000;
+    private static final int VOXEL_MAX_WEIGHT = 20;
+    private static final int VOXEL_MIN_POINTS = 2;
+    private static final double VOXEL_MAX_AGE = 3.0;
+
+    // amount of difference there can be between the offsets of two plane models
+    // without assuming the current wall is different from the previous wall.
+    private static final double OFFSET_MATCH_THRESHOLD = 0.2;
+    // Threshold used to decide if plane model represents a vertical plane (i.e. a wall)
+    private static final double VERTICAL_THRESHOLD = 0.05;
+
+    private static final int MAX_WALLS = 32;
+    private static final double WALL_MAX_AGE = 60.0;
+    private static final double TRACKED_WALL_TOLERANCE = Math.toRadians(45);
+
+    private static final double CORRIDOR_LENGTH = 3.0;
+    private static final double CORRIDOR_WIDTH = 1.0;
+    private static final double OBSTACLE_MIN_HEIGHT = 0.1;
+    private static final double OBSTACLE_MAX_HEIGHT = 2.0;
+    // Walls running this close to the heading are passed alongside, not walked into.
+    private static final double SIDE_WALL_TOLERANCE = Math.toRadians(45);
+
+    private final VoxelGrid mVoxelGrid = new VoxelGrid(VOXEL_SIZE, MAX_VOXELS, VOXEL_MAX_WEIGHT);
+    private final float[] mVoxelPoints = new float[MAX_VOXELS * 4];
+    private final PlaneExtractor mPlaneExtractor = new PlaneExtractor();
+    private final PlaneMap mPlaneMap = new PlaneMap(MAX_WALLS);
+    private final ObstacleDetector mObstacleDetector = new ObstacleDetector();
+
+    private double mTrackedAzimuth = Double.NaN;
+    private boolean mNewWall;
+    // the floor is kept from the last cloud that showed it
+    private double mFloorHeight = Double.NaN;
+    private boolean mObstaclesDetected;
+
+    public WallTracker() {
+        mPlaneExtractor.setVerticalThreshold(VERTICAL_THRESHOLD);
+        mPlaneMap.setOffsetThreshold(OFFSET_MATCH_THRESHOLD);
+        mObstacleDetector.setCorridor(CORRIDOR_LENGTH, CORRIDOR_WIDTH);
+        mObstacleDetector.setHeightRange(OBSTACLE_MIN_HEIGHT, OBSTACLE_MAX_HEIGHT);
+    }
+
+    /** Forget every wall, voxel and floor seen so far. */
+    public void reset() {
+        mVoxelGrid.clear();
+        mPlaneMap.clear();
+        mTrackedAzimuth = Double.NaN;
+        mFloorHeight = Double.NaN;
+        mObstaclesDetected = false;
+    }
+
+    /**
+     * Process one cloud of numPoints points (x, y, z, confidence) in the depth
+     * camera frame.
+     *
+     * @param depthTodom column major transform from the depth camera to odom.
+     * @param position   device position in odom.
+     * @param rotation   device orientation in odom, as a quaternion x, y, z, w.
+     * @param timestamp  time of the cloud in seconds.
+     * @return the tracked wall, or null if no wall is known.
+     */
+    public PlaneMap.Wall process(FloatBuffer points, int numPoints, float[] depthTodom,
+                                 double[] position, double[] rotation, double timestamp) {
+        mVoxelGrid.merge(points, numPoints, depthTodom, timestamp);
+        mVoxelGrid.prune(timestamp, VOXEL_MAX_AGE);
+        int numVoxels = mVoxelGrid.getPoints(mVoxelPoints, VOXEL_MIN_POINTS);
+
+        int numPlanes = mPlaneExtractor.extract(mVoxelPoints, numVoxels);
+        for (int i = 0; i < numPlanes; i++) {
+            PlaneExtractor.Plane plane = mPlaneExtractor.getPlane(i);
+            if (plane.kind == PlaneExtractor.KIND_WALL) {
+                mPlaneMap.observe(plane, position, timestamp);
+            }
+        }
+        mPlaneMap.prune(timestamp, WALL_MAX_AGE);
+
+        detectObstacles(position, rotation);
+
+        PlaneMap.Wall wall = null;
+        if (!Double.isNaN(mTrackedAzimuth)) {
+            wall = mPlaneMap.nearestWall(position, mTrackedAzimuth, TRACKED_WALL_TOLERANCE);
+        }
+        mNewWall = false;
+        if (wall == null) {
+            wall = mPlaneMap.nearestWall(position);
+            mNewWall = wall != null;
+        }
+        if (wall != null) {
+            mTrackedAzimuth = wall.azimuth;
+        }
+        return wall;
+    }
+
+    /** Whether the last cloud switched to a wall of a different direction. */
+    public boolean isNewWall() {
+        return mNewWall;
+    }
+
+    /** Whether the last cloud produced an obstacle summary; false until the floor is seen. */
+    public boolean hasObstacles() {
+        return mObstaclesDetected;
+    }
+
+    public ObstacleDetector getObstacleDetector() {
+        return mObstacleDetector;
+    }
+
+    public double getFloorHeight() {
+        return mFloorHeight;
+    }
+
+    public PlaneMap getPlaneMap() {
+        return mPlaneMap;
+    }
+
+    public PlaneExtractor getPlaneExtractor() {
+        return mPlaneExtractor;
+    }
+
+    private void detectObstacles(double[] position, double[] rotation) {
+        mObstaclesDetected = false;
+        PlaneExtractor.Plane floor = mPlaneExtractor.getFloor();
+        if (floor != null) {
+            mFloorHeight = floor.height();
+        }
+        if (Double.isNaN(mFloorHeight)) {
+            return;
+        }
+        // The depth camera looks along the device's -Z; rotate that into odom and
+        // keep its horizontal part.
+        double[] q = rotation;
+        double headingX = -2 * (q[0] * q[2] + q[3] * q[1]);
+        double headingY = -2 * (q[1] * q[2] - q[3] * q[0]);
+        double norm = Math.sqrt(headingX * headingX + headingY * headingY);
+        if (norm < 1e-3) {
+            // looking straight up or down
+            return;
+        }
+        headingX /= norm;
+        headingY /= norm;
+        mObstacleDetector.detect(mPlaneExtractor.getPoints(), mPlaneExtractor.getPointCount(),
+                mPlaneExtractor.getLabels(), ignoredPlanes(mPlaneExtractor, headingX, headingY),
+                mFloorHeight, position, headingX, headingY);
+        mObstaclesDetected = true;
+    }
+
+    /**
+     * The planes whose points are not obstacles: the floor and the walls along
+     * the heading, such as the one being trailed. A wall across the way still
+     * blocks it.
+     *
+     * @return bit i is set if plane i of the extractor's last cloud is ignored.
+     */
+    static int ignoredPlanes(PlaneExtractor extractor, double headingX, double headingY) {
+        double maxAcross = Math.sin(SIDE_WALL_TOLERANCE);
+        int mask = 0;
+        for (int i = 0; i < extractor.getPlaneCount(); i++) {
+            PlaneExtractor.Plane plane = extractor.getPlane(i);
+            if (plane.kind == PlaneExtractor.KIND_FLOOR
+                    || (plane.kind == PlaneExtractor.KIND_WALL
+                    && Math.abs(plane.a * headingX + plane.b * headingY) < maxAcross)) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,71 @@
+package com.projecttango.examples.java.planefitting;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replays a cloud recording made by WallSensingService through WallTracker
+ * and prints the tracked wall distance and the processing time of every
+ * cloud, so plane fitting changes can be checked without a Tango tablet.
+ *
+ * Usage: CloudReplay recording-file
+ *
+ * Recordings are made by starting ConfigActivity with the
+ * {@link ConfigActivity#EXTRA_RECORD_CLOUDS} extra, and pulled from the
+ * app's external files directory with adb.
+ */
+public class CloudReplay {
+
+    /** Replays every cloud of a recording and collects the results. */
+    public static class Result {
+        public int clouds;
+        public int cloudsWithWall;
+        public double lastDistance = -1.0;
+        public long totalNanos;
+        public long maxNanos;
+    }
+
+    public static Result replay(File file, boolean verbose) throws IOException {
+        Result result = new Result();
+        WallTracker tracker = new WallTracker();
+        tracker.getPlaneExtractor().setSeed(1);
+        CloudRecording.Frame frame = new CloudRecording.Frame();
+        CloudRecording.Reader reader = new CloudRecording.Reader(file);
+        try {
+            while (reader.next(frame)) {
+                long start = System.nanoTime();
+                PlaneMap.Wall wall = tracker.process(frame.pointBuffer(), frame.numPoints,
+                        frame.depthTodom, frame.translation, frame.rotation, frame.timestamp);
+                long elapsed = System.nanoTime() - start;
+                result.clouds++;
+                result.totalNanos += elapsed;
+                result.maxNanos = Math.max(result.maxNanos, elapsed);
+                if (wall != null) {
+                    result.cloudsWithWall++;
+                    result.lastDistance = wall.distanceTo(frame.translation);
+                }
+                if (verbose) {
+                    System.out.println(String.format("%.3f %6d points %7.2f ms wall %s",
+                            frame.timestamp, frame.numPoints, elapsed / 1e6,
+                            wall == null ? "-" : String.format("%d at %.3f m", wall.id,
+                                    wall.distanceTo(frame.translation))));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: CloudReplay recording-file");
+            System.exit(1);
+        }
+        Result result = replay(new File(args[0]), true);
+        System.out.println(String.format("%d clouds, %d with a wall, mean %.2f ms, max %.2f ms",
+                result.clouds, result.cloudsWithWall,
+                result.clouds == 0 ? 0.0 : result.totalNanos / 1e6 / result.clouds,
+                result.maxNanos / 1e6));
+    }
+}
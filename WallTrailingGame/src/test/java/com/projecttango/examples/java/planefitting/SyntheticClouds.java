@@ -0,0 +1,76 @@
+package com.projecttango.examples.java.planefitting;
+
+import java.util.Random;
+
+/**
+ * Generates clouds of a device walking along +x, 1 m from a wall at y = 1,
+ * with the floor 1.2 m below the device and a post standing at x = 3 in the
+ * middle of the way, in the format
+ * Tango delivers them: points in the depth camera frame plus the poses.
+ */
+public class SyntheticClouds {
+    public static final double WALL_Y = 1.0;
+    public static final double FLOOR_Z = -1.2;
+    public static final double SPEED = 1.0; // meters per second
+    public static final double PERIOD = 0.2; // seconds between clouds
+    public static final double POST_X = 3.0;
+
+    // device -Z, where the depth camera looks, turned to +x
+    private static final double[] ROTATION = {0.0, -Math.sqrt(0.5), 0.0, Math.sqrt(0.5)};
+
+    private final Random mRandom;
+    private final int mNumPoints;
+    private final float mNoise;
+
+    public SyntheticClouds(int numPoints, float noise, long seed) {
+        mNumPoints = numPoints;
+        mNoise = noise;
+        mRandom = new Random(seed);
+    }
+
+    /** Fill frame with the index-th cloud of the walk. */
+    public void fill(CloudRecording.Frame frame, int index) {
+        double x0 = SPEED * PERIOD * index;
+        frame.timestamp = PERIOD * index;
+        frame.translation[0] = x0;
+        frame.translation[1] = 0.0;
+        frame.translation[2] = 0.0;
+        System.arraycopy(ROTATION, 0, frame.rotation, 0, 4);
+        // depth camera axes are left aligned with odom; only the origin moves
+        for (int i = 0; i < 16; i++) {
+            frame.depthTodom[i] = (i % 5 == 0) ? 1.0f : 0.0f;
+        }
+        frame.depthTodom[12] = (float) x0;
+        frame.numPoints = mNumPoints;
+        if (frame.points.length < mNumPoints * 4) {
+            frame.points = new float[mNumPoints * 4];
+        }
+        float[] p = frame.points;
+        for (int i = 0; i < mNumPoints; i++) {
+            double x;
+            double y;
+            double z;
+            int kind = i % 5;
+            if (kind < 2) {
+                // wall
+                x = x0 + 0.5 + 3.0 * mRandom.nextDouble();
+                y = WALL_Y;
+                z = FLOOR_Z + 2.0 * mRandom.nextDouble();
+            } else if (kind < 4) {
+                // floor
+                x = x0 + 0.5 + 3.0 * mRandom.nextDouble();
+                y = -1.0 + 2.0 * mRandom.nextDouble();
+                z = FLOOR_Z;
+            } else {
+                // post, 20 cm square and 1 m tall
+                x = POST_X - 0.1 + 0.2 * mRandom.nextDouble();
+                y = -0.1 + 0.2 * mRandom.nextDouble();
+                z = FLOOR_Z + mRandom.nextDouble();
+            }
+            p[i * 4] = (float) (x - x0 + mNoise * mRandom.nextGaussian());
+            p[i * 4 + 1] = (float) (y + mNoise * mRandom.nextGaussian());
+            p[i * 4 + 2] = (float) (z + mNoise * mRandom.nextGaussian());
+            p[i * 4 + 3] = 1.0f;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.projecttango.examples.java.planefitting;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Tests for CloudRecording and for WallTracker replaying recorded clouds.
+ */
+public class TestCloudReplay {
+
+    private static final int NUM_CLOUDS = 20;
+
+    private static File record(int numPoints) throws IOException {
+        File file = File.createTempFile("clouds", ".bin");
+        file.deleteOnExit();
+        SyntheticClouds clouds = new SyntheticClouds(numPoints, 0.005f, 7);
+        CloudRecording.Frame frame = new CloudRecording.Frame();
+        CloudRecording.Writer writer = new CloudRecording.Writer(file);
+        try {
+            for (int i = 0; i < NUM_CLOUDS; i++) {
+                clouds.fill(frame, i);
+                writer.write(frame.timestamp, frame.depthTodom, frame.translation,
+                        frame.rotation, frame.pointBuffer(), frame.numPoints);
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File file = record(500);
+        SyntheticClouds clouds = new SyntheticClouds(500, 0.005f, 7);
+        CloudRecording.Frame expected = new CloudRecording.Frame();
+        CloudRecording.Frame actual = new CloudRecording.Frame();
+        CloudRecording.Reader reader = new CloudRecording.Reader(file);
+        try {
+            for (int i = 0; i < NUM_CLOUDS; i++) {
+                clouds.fill(expected, i);
+                assertTrue("cloud " + i, reader.next(actual));
+                assertEquals("timestamp", expected.timestamp, actual.timestamp, 0.0);
+                assertEquals("translation", expected.translation[0], actual.translation[0], 0.0);
+                assertEquals("rotation", expected.rotation[1], actual.rotation[1], 0.0);
+                assertEquals("matrix", expected.depthTodom[12], actual.depthTodom[12], 0.0f);
+                assertEquals("points", expected.numPoints, actual.numPoints);
+                assertEquals("last point", expected.points[expected.numPoints * 4 - 2],
+                        actual.points[actual.numPoints * 4 - 2], 0.0f);
+            }
+            assertEquals("end of file", false, reader.next(actual));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testReplayFindsWall() throws IOException {
+        CloudReplay.Result result = CloudReplay.replay(record(3000), false);
+        assertEquals("clouds", NUM_CLOUDS, result.clouds);
+        // the first cloud alone may not fill enough voxels
+        assertTrue("wall in almost every cloud", result.cloudsWithWall >= NUM_CLOUDS - 1);
+        assertEquals("wall distance", SyntheticClouds.WALL_Y, result.lastDistance, 0.02);
+    }
+
+    @Test
+    public void testObstacles() {
+        SyntheticClouds clouds = new SyntheticClouds(3000, 0.005f, 3);
+        CloudRecording.Frame frame = new CloudRecording.Frame();
+        WallTracker tracker = new WallTracker();
+        tracker.getPlaneExtractor().setSeed(1);
+        for (int i = 0; i < 3; i++) {
+            clouds.fill(frame, i);
+            tracker.process(frame.pointBuffer(), frame.numPoints, frame.depthTodom,
+                    frame.translation, frame.rotation, frame.timestamp);
+        }
+        assertTrue("floor seen", tracker.hasObstacles());
+        assertEquals("floor height", SyntheticClouds.FLOOR_Z, tracker.getFloorHeight(), 0.02);
+        // the post is straight ahead, in the middle sector
+        ObstacleDetector detector = tracker.getObstacleDetector();
+        assertEquals("post ahead", 1 << (ObstacleDetector.NUM_SECTORS / 2),
+                detector.getSectorMask());
+        assertEquals("post distance", SyntheticClouds.POST_X - 0.1 - frame.translation[0],
+                detector.getNearestDistance(), 0.1);
+    }
+}
@@ -0,0 +1,127 @@
+package com.projecttango.examples.java.planefitting;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Tests for the DistanceFilter, on wall distance traces in feet at the
+ * point cloud rate of 5 Hz.
+ */
+public class TestDistanceFilter {
+
+    private static final double SAMPLE_PERIOD = 0.2;
+
+    // walking towards a wall; two bad plane fits read the wall behind it
+    private static final double[] APPROACH_WITH_SPIKES = {
+            4.02, 3.95, 3.91, 3.84, 3.80, 9.61, 3.71, 3.64, 3.62, 3.55,
+            3.49, 3.46, 3.38, 3.35, 0.42, 3.24, 3.21, 3.15, 3.10, 3.04
+    };
+
+    // standing at the reward distance of 2 feet
+    private static final double[] HOVER_AT_REWARD = {
+            2.31, 2.18, 2.07, 1.96, 2.04, 1.93, 2.08, 1.97, 2.11, 1.94,
+            2.06, 1.99, 2.13, 1.95, 2.09, 1.92, 2.05, 2.01, 2.12, 1.96
+    };
+
+    // turning from a wall 3 feet away to one 6 feet away
+    private static final double[] WALL_SWITCH = {
+            3.02, 2.98, 3.01, 2.97, 3.03, 6.04, 5.98, 6.01, 5.97, 6.02,
+            6.00, 5.99
+    };
+
+    private static DistanceFilter newFilter() {
+        DistanceFilter filter = new DistanceFilter(3);
+        filter.setProcessNoise(0.25);
+        filter.setMeasurementNoise(0.04);
+        return filter;
+    }
+
+    @Test
+    public void testEmpty() {
+        DistanceFilter filter = newFilter();
+        assertFalse("no estimate", filter.hasEstimate());
+        assertEquals("no distance", -1.0, filter.getDistance(), 0.0);
+        assertFalse("not in reward zone", filter.isInRewardZone());
+    }
+
+    @Test
+    public void testSpikesRejected() {
+        DistanceFilter filter = newFilter();
+        double previous = Double.MAX_VALUE;
+        for (int i = 0; i < APPROACH_WITH_SPIKES.length; i++) {
+            double distance = filter.update(i * SAMPLE_PERIOD, APPROACH_WITH_SPIKES[i], 1.0f);
+            assertTrue("follows the approach at " + i, distance < previous + 0.05);
+            assertTrue("ignores the spike at " + i, distance > 2.9 && distance < 4.1);
+            previous = distance;
+        }
+        assertEquals("ends near the wall", 3.1, filter.getDistance(), 0.15);
+    }
+
+    @Test
+    public void testHysteresis() {
+        DistanceFilter filter = newFilter();
+        filter.setRewardDistance(2.0, 0.3);
+        int toggles = 0;
+        boolean inZone = false;
+        for (int i = 0; i < HOVER_AT_REWARD.length; i++) {
+            filter.update(i * SAMPLE_PERIOD, HOVER_AT_REWARD[i], 1.0f);
+            if (filter.isInRewardZone() != inZone) {
+                inZone = filter.isInRewardZone();
+                toggles++;
+            }
+        }
+        assertEquals("entered once and stayed", 1, toggles);
+        assertTrue("in reward zone", inZone);
+
+        // leaving needs the distance to pass the hysteresis
+        double t = HOVER_AT_REWARD.length * SAMPLE_PERIOD;
+        for (int i = 0; i < 10; i++) {
+            filter.update(t + i * SAMPLE_PERIOD, 2.2, 1.0f);
+        }
+        assertTrue("still in reward zone", filter.isInRewardZone());
+        for (int i = 10; i < 30; i++) {
+            filter.update(t + i * SAMPLE_PERIOD, 2.6, 1.0f);
+        }
+        assertFalse("left reward zone", filter.isInRewardZone());
+    }
+
+    @Test
+    public void testWallSwitch() {
+        DistanceFilter filter = newFilter();
+        for (int i = 0; i < WALL_SWITCH.length; i++) {
+            filter.update(i * SAMPLE_PERIOD, WALL_SWITCH[i], 1.0f);
+        }
+        assertEquals("follows the new wall", 6.0, filter.getDistance(), 0.1);
+    }
+
+    @Test
+    public void testConfidence() {
+        DistanceFilter confident = newFilter();
+        DistanceFilter doubtful = newFilter();
+        for (int i = 0; i < 5; i++) {
+            confident.update(i * SAMPLE_PERIOD, 3.0, 1.0f);
+            doubtful.update(i * SAMPLE_PERIOD, 3.0, 1.0f);
+        }
+        for (int i = 5; i < 8; i++) {
+            confident.update(i * SAMPLE_PERIOD, 3.3, 1.0f);
+            doubtful.update(i * SAMPLE_PERIOD, 3.3, 0.1f);
+        }
+        assertTrue("low confidence moves the estimate less",
+                doubtful.getDistance() < confident.getDistance());
+    }
+
+    @Test
+    public void testReset() {
+        DistanceFilter filter = newFilter();
+        filter.setRewardDistance(2.0, 0.3);
+        filter.update(0.0, 1.5, 1.0f);
+        assertTrue("in reward zone", filter.isInRewardZone());
+        filter.reset();
+        assertFalse("no estimate", filter.hasEstimate());
+        assertFalse("not in reward zone", filter.isInRewardZone());
+        assertEquals("starts from the next sample", 4.0, filter.update(1.0, 4.0, 1.0f), 0.0);
+    }
+}
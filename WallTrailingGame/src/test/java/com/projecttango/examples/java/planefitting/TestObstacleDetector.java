@@ -0,0 +1,143 @@
+package com.projecttango.examples.java.planefitting;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Tests for the ObstacleDetector and the plane classification it relies on.
+ */
+public class TestObstacleDetector {
+
+    private static final double[] ORIGIN = {0.0, 0.0, 0.0};
+
+    // floor at z = -1.2 from x = 0 to 4, a box 0.5 m high at x = 2, 0.3 m to the
+    // left of the heading +x, and a wall at y = -2 off to the right
+    private static int makeScene(float[] points) {
+        int n = 0;
+        for (float x = 0.0f; x < 4.0f; x += 0.05f) {
+            for (float y = -1.0f; y < 1.0f; y += 0.1f) {
+                n = add(points, n, x, y, -1.2f);
+            }
+        }
+        for (float y = 0.2f; y < 0.4f; y += 0.05f) {
+            for (float z = -1.1f; z < -0.7f; z += 0.05f) {
+                n = add(points, n, 2.0f, y, z);
+            }
+        }
+        for (float x = 0.0f; x < 4.0f; x += 0.05f) {
+            for (float z = -1.2f; z < 0.8f; z += 0.1f) {
+                n = add(points, n, x, -2.0f, z);
+            }
+        }
+        return n;
+    }
+
+    private static int add(float[] points, int n, float x, float y, float z) {
+        points[n * 4] = x;
+        points[n * 4 + 1] = y;
+        points[n * 4 + 2] = z;
+        points[n * 4 + 3] = 1.0f;
+        return n + 1;
+    }
+
+    @Test
+    public void testClassification() {
+        float[] points = new float[4 * 4000];
+        int n = makeScene(points);
+        PlaneExtractor extractor = new PlaneExtractor();
+        extractor.setSeed(1);
+        int numPlanes = extractor.extract(points, n);
+        PlaneExtractor.Plane floor = extractor.getFloor();
+        assertNotNull("floor found", floor);
+        assertEquals("floor height", -1.2, floor.height(), 0.01);
+        PlaneExtractor.Plane wall = extractor.getLargestWall();
+        assertNotNull("wall found", wall);
+        assertEquals("wall distance", 2.0, wall.distanceTo(ORIGIN), 0.01);
+        int floors = 0;
+        for (int i = 0; i < numPlanes; i++) {
+            if (extractor.getPlane(i).kind == PlaneExtractor.KIND_FLOOR) {
+                floors++;
+            }
+        }
+        assertEquals("one floor", 1, floors);
+    }
+
+    @Test
+    public void testObstacleAhead() {
+        float[] points = new float[4 * 4000];
+        int n = makeScene(points);
+        ObstacleDetector detector = new ObstacleDetector();
+        detector.setCorridor(3.0, 1.0);
+        assertTrue("obstacle found", detector.detect(points, n, -1.2, ORIGIN, 1.0, 0.0));
+        assertEquals("nearest distance", 2.0, detector.getNearestDistance(), 1e-4);
+        assertTrue("nearest offset to the left", detector.getNearestOffset() > 0.15);
+        assertTrue("nearest above the floor", detector.getNearestHeight() > 0.05);
+        // 0.2 to 0.35 m left of center in a 1 m corridor is the leftmost sectors
+        int mask = detector.getSectorMask();
+        assertEquals("right sectors clear", 0, mask & 0x7);
+        assertTrue("left sector blocked", (mask & 0x18) != 0);
+    }
+
+    @Test
+    public void testCorridorClear() {
+        float[] points = new float[4 * 4000];
+        int n = makeScene(points);
+        ObstacleDetector detector = new ObstacleDetector();
+        detector.setCorridor(3.0, 1.0);
+        // behind the device there is nothing
+        assertFalse("nothing behind", detector.detect(points, n, -1.2, ORIGIN, -1.0, 0.0));
+        // facing +y the box is 2 m to the side and the wall is behind
+        assertFalse("box to the side", detector.detect(points, n, -1.2, ORIGIN, 0.0, 1.0));
+        assertEquals("no sectors", 0, detector.getSectorMask());
+        assertEquals("no distance", Double.MAX_VALUE, detector.getNearestDistance(), 0.0);
+    }
+
+    // floor at z = -1.2 from x = 0 to 4, and a wall at y = 0.3, just to the left
+    // of the heading +x and inside the corridor, or across the way at x = 2
+    private static int makeWallScene(float[] points, boolean across) {
+        int n = 0;
+        for (float x = 0.0f; x < 4.0f; x += 0.05f) {
+            for (float y = -1.0f; y < 1.0f; y += 0.1f) {
+                n = add(points, n, x, y, -1.2f);
+            }
+        }
+        for (float t = 0.0f; t < 4.0f; t += 0.05f) {
+            for (float z = -1.2f; z < 0.8f; z += 0.1f) {
+                if (across) {
+                    n = add(points, n, 2.0f, t - 2.0f, z);
+                } else {
+                    n = add(points, n, t, 0.3f, z);
+                }
+            }
+        }
+        return n;
+    }
+
+    private static boolean detectInWallScene(boolean across) {
+        float[] points = new float[4 * 4000];
+        int n = makeWallScene(points, across);
+        PlaneExtractor extractor = new PlaneExtractor();
+        extractor.setSeed(1);
+        extractor.extract(points, n);
+        assertNotNull("wall found", extractor.getLargestWall());
+        ObstacleDetector detector = new ObstacleDetector();
+        detector.setCorridor(3.0, 1.0);
+        return detector.detect(extractor.getPoints(), extractor.getPointCount(),
+                extractor.getLabels(), WallTracker.ignoredPlanes(extractor, 1.0, 0.0),
+                -1.2, ORIGIN, 1.0, 0.0);
+    }
+
+    @Test
+    public void testTrailedWallIsNotAnObstacle() {
+        assertFalse("wall alongside", detectInWallScene(false));
+    }
+
+    @Test
+    public void testWallAheadIsAnObstacle() {
+        assertTrue("wall across the way", detectInWallScene(true));
+    }
+}
@@ -0,0 +1,40 @@
+package com.projecttango.examples.java.planefitting;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit Tests for the PlaneExtractor.
+ */
+public class TestPlaneExtractor {
+
+    @Test
+    public void testEmptyCloud() {
+        PlaneExtractor extractor = new PlaneExtractor();
+        extractor.setMinInliers(0);
+        assertEquals("no planes", 0, extractor.extract(new float[0], 0));
+        assertEquals("no floor", null, extractor.getFloor());
+    }
+
+    @Test
+    public void testLowConfidencePointsAreNotClaimed() {
+        // a 20 x 20 grid on the floor, every other point too unsure to count
+        float[] points = new float[4 * 400];
+        int n = 0;
+        for (int ix = 0; ix < 20; ix++) {
+            for (int iy = 0; iy < 20; iy++) {
+                points[n * 4] = 0.1f * ix;
+                points[n * 4 + 1] = 0.1f * iy;
+                points[n * 4 + 2] = -1.2f;
+                points[n * 4 + 3] = (n % 2 == 0) ? 1.0f : 0.1f;
+                n++;
+            }
+        }
+        PlaneExtractor extractor = new PlaneExtractor();
+        extractor.setSeed(1);
+        extractor.setMinConfidence(0.5f);
+        assertEquals("one plane", 1, extractor.extract(points, n));
+        assertEquals("only confident inliers", n / 2, extractor.getPlane(0).inliers);
+    }
+}
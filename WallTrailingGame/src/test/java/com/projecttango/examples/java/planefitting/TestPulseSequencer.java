@@ -0,0 +1,54 @@
+package com.projecttango.examples.java.planefitting;
+
+import android.media.midi.MidiReceiver;
+
+import com.mobileer.miditools.MidiConstants;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Tests for the PulseSequencer.
+ */
+public class TestPulseSequencer {
+
+    private static final long MILLIS = 1000000L;
+
+    /** Records the status byte and timestamp of every message. */
+    private static class RecordingReceiver extends MidiReceiver {
+        final List<long[]> mMessages = new ArrayList<long[]>();
+
+        @Override
+        public void onSend(byte[] msg, int offset, int count, long timestamp) {
+            mMessages.add(new long[] {msg[offset] & 0xF0, timestamp});
+        }
+    }
+
+    @Test
+    public void testShorterPeriodDoesNotCutOffPulse() {
+        RecordingReceiver receiver = new RecordingReceiver();
+        PulseSequencer sequencer = new PulseSequencer(receiver, 0);
+        sequencer.setPeriodNanos(1000 * MILLIS, 0);
+        sequencer.start(1000 * MILLIS);
+        // the first pulse lasts until 1500 ms
+        sequencer.schedule(1000 * MILLIS);
+        sequencer.setPeriodNanos(100 * MILLIS, 1050 * MILLIS);
+        sequencer.schedule(1500 * MILLIS);
+
+        long lastNoteOff = 0;
+        for (long[] message : receiver.mMessages) {
+            if (message[0] == MidiConstants.STATUS_NOTE_ON) {
+                assertTrue("note on at " + message[1] + " before note off at " + lastNoteOff,
+                        message[1] >= lastNoteOff);
+            } else {
+                lastNoteOff = message[1];
+            }
+        }
+        assertEquals("next pulse after the first ends", 1500 * MILLIS, receiver.mMessages.get(2)[1]);
+    }
+}
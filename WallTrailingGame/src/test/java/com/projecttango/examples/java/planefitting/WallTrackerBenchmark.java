@@ -0,0 +1,71 @@
+package com.projecttango.examples.java.planefitting;
+
+import java.util.Arrays;
+
+/**
+ * Measures the time WallTracker takes per cloud at several cloud sizes, on
+ * synthetic clouds of a walk along a wall. Each size gets a fresh tracker, a
+ * warm up so the JIT has compiled the hot loops, and then a timed run whose
+ * mean, median and 99th percentile are printed.
+ *
+ * Usage: WallTrackerBenchmark [cloud sizes...]
+ */
+public class WallTrackerBenchmark {
+    private static final int[] DEFAULT_SIZES = {1000, 5000, 10000, 20000};
+    private static final int NUM_FRAMES = 50;
+    private static final int WARMUP_CLOUDS = 300;
+    private static final int TIMED_CLOUDS = 1000;
+
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.println("points    mean ms  median ms  p99 ms");
+        for (int size : sizes) {
+            long[] nanos = run(size);
+            Arrays.sort(nanos);
+            long total = 0;
+            for (long n : nanos) {
+                total += n;
+            }
+            System.out.println(String.format("%6d  %9.3f  %9.3f  %6.3f", size,
+                    total / 1e6 / nanos.length, nanos[nanos.length / 2] / 1e6,
+                    nanos[(int) (nanos.length * 0.99)] / 1e6));
+        }
+    }
+
+    private static long[] run(int numPoints) {
+        // pre-generate the clouds so only the tracker is timed
+        SyntheticClouds clouds = new SyntheticClouds(numPoints, 0.01f, 1);
+        CloudRecording.Frame[] frames = new CloudRecording.Frame[NUM_FRAMES];
+        for (int i = 0; i < NUM_FRAMES; i++) {
+            frames[i] = new CloudRecording.Frame();
+            clouds.fill(frames[i], i);
+        }
+        WallTracker tracker = new WallTracker();
+        tracker.getPlaneExtractor().setSeed(1);
+        long[] nanos = new long[TIMED_CLOUDS];
+        double timeOffset = 0.0;
+        for (int i = 0; i < WARMUP_CLOUDS + TIMED_CLOUDS; i++) {
+            int f = i % NUM_FRAMES;
+            if (f == 0 && i > 0) {
+                // walk the same stretch again, later, with an empty map
+                tracker.reset();
+                timeOffset += NUM_FRAMES * SyntheticClouds.PERIOD;
+            }
+            CloudRecording.Frame frame = frames[f];
+            long start = System.nanoTime();
+            tracker.process(frame.pointBuffer(), frame.numPoints, frame.depthTodom,
+                    frame.translation, frame.rotation, frame.timestamp + timeOffset);
+            long elapsed = System.nanoTime() - start;
+            if (i >= WARMUP_CLOUDS) {
+                nanos[i - WARMUP_CLOUDS] = elapsed;
+            }
+        }
+        return nanos;
+    }
+}
@@ -18,6 +18,9 @@
 // TODO: PointCloud2 instead of PointCloud (faster)
 package com.projecttango.examples.cpp.canegame;
 
+import com.mobileer.miditools.MidiConstants;
+import com.mobileer.miditools.synth.AudioSample;
+import com.mobileer.miditools.synth.SynthEngine;
 import com.projecttango.examples.cpp.util.TangoInitializationHelper;
 
 import android.Manifest;
@@ -27,7 +30,6 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.YuvImage;
 import android.media.AudioManager;
-import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Build;
 import android.os.IBinder;
@@ -126,7 +128,11 @@ public class CaneGameActivity extends Activity implements OnItemSelectedListener
     String musicStorageFolder;
     Uri uriSound;
     Context contextSound;
-    MediaPlayer mediaPlayer = null;
+    // the reward is decoded once and mixed into the synth output by its sample player
+    private static final double MAX_REWARD_SECONDS = 60.0;
+    private static final int REWARD_NOTE = 60;
+    private static final int REWARD_VELOCITY = 127;
+    private final SynthEngine synthEngine = new SynthEngine();
     public TextToSpeech textToSpeech;
     String [] soundFileNames;
 
@@ -394,12 +400,9 @@ public class CaneGameActivity extends Activity implements OnItemSelectedListener
                     setButtonPause();
                     mIsPaused = true;
                 }
-                // Release the Media Player
-                if(mediaPlayer != null){
-                    mediaPlayer.release();
-                }
+                // Forget the current reward
+                sendReward(false);
                 // Open the Pick External Music File activity
-                mediaPlayer = null;
 
 
                 Intent intent = new Intent(getBaseContext(), FileSelectionActivity.class);
@@ -407,6 +410,8 @@ public class CaneGameActivity extends Activity implements OnItemSelectedListener
             }
         });
 
+        synthEngine.getSamplePlayer().setLooping(false);
+
         textToSpeech = new TextToSpeech(getApplicationContext(), new TextToSpeech.OnInitListener() {
             @Override
             public void onInit(int status) {
@@ -476,6 +481,7 @@ public class CaneGameActivity extends Activity implements OnItemSelectedListener
     @Override
     protected void onResume() {
         super.onResume();
+        synthEngine.start();
         TangoInitializationHelper.bindTangoService(this, mTangoServiceConnection);
     }
 
@@ -502,6 +508,7 @@ public class CaneGameActivity extends Activity implements OnItemSelectedListener
     @Override
     protected void onPause() {
         super.onPause();
+        synthEngine.stop();
         TangoJniNative.disconnect();
         unbindService(mTangoServiceConnection);
     }
@@ -521,11 +528,11 @@ public class CaneGameActivity extends Activity implements OnItemSelectedListener
             // Reached a reward increment
             if ((rewardIncrements.contains(sweepCounter)) &&
                     (doRewardAt.get(sweepCounter))) {
-                mediaPlayer.start();
+                sendReward(true);
             }
             else {
                 // Count the sweeps when not playing music and not counting previous
-                if (!textToSpeech.isSpeaking() && !mediaPlayer.isPlaying()) {
+                if (!textToSpeech.isSpeaking() && !synthEngine.getSamplePlayer().isPlaying()) {
                     String utterance = Integer.toString(sweepCounter);
                     textToSpeech.speak(utterance, TextToSpeech.QUEUE_ADD, null, null);
                 }
@@ -542,65 +549,91 @@ public class CaneGameActivity extends Activity implements OnItemSelectedListener
         }
     }
 
+    /**
+     * Start or stop the reward sound. It goes through the synth's MIDI input,
+     * so it is timed by the audio thread rather than by this one.
+     */
+    public void sendReward(boolean on) {
+        // Built for each call, as the UI and game threads both send rewards.
+        byte[] rewardMessage = new byte[3];
+        rewardMessage[0] = (byte) ((on ? MidiConstants.STATUS_NOTE_ON : MidiConstants.STATUS_NOTE_OFF)
+                + SynthEngine.SAMPLE_CHANNEL);
+        rewardMessage[1] = (byte) REWARD_NOTE;
+        rewardMessage[2] = (byte) REWARD_VELOCITY;
+        try {
+            synthEngine.send(rewardMessage, 0, 3, System.nanoTime());
+        } catch (IOException e) {
+            Log.e(TAG, "sendReward() failed " + e);
+        }
+    }
+
     public void setVariable(Context context, Uri uri){
 
-        mediaPlayer = new MediaPlayer();
         setVolumeControlStream(AudioManager.STREAM_MUSIC);
-        mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-
-        try {
-            Log.e(TAG, "setting data source " + uri);
-            mediaPlayer.setDataSource(context, uri);
-            //mp3 will be started after completion of preparing...
-            mediaPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
-                @Override
-                public void onPrepared(MediaPlayer player) {
-                    final Runnable runnable = new Runnable() {
+        final Context appContext = context.getApplicationContext();
+        final Uri sampleUri = uri;
+        // decode the whole file up front so the reward starts without any decoder latency
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Log.i(TAG, "decoding reward sound " + sampleUri);
+                    final AudioSample sample = AudioSample.decode(appContext, sampleUri,
+                            MAX_REWARD_SECONDS);
+                    runOnUiThread(new Runnable() {
                         @Override
                         public void run() {
-                            Log.e(TAG,"Started Thread");
-                            while(mIsPaused != true){
-                                runCaneGame();
-                            }
-                            Log.e(TAG,"Ended the Thread");
+                            onRewardSampleDecoded(sample);
                         }
-                    };
+                    });
+                } catch (IOException e) {
+                    Log.e(TAG, "could not decode " + sampleUri, e);
+                }
+            }
+        }).start();
 
-                    startStopButton.setOnClickListener(new View.OnClickListener() {
-                        public void onClick(View v) {
+        if (mIsPaused) {
+            setButtonStart();
+        }
+    }
 
-                            if (mIsPaused) {
-                                setButtonPause();
-                                mIsPaused = false;
+    private void onRewardSampleDecoded(AudioSample sample) {
+        synthEngine.getSamplePlayer().setSample(sample);
 
-                                //Start the audio thread
-                                Thread runThread = new Thread(runnable);
-                                runThread.start();
-                            }
-                            else {
-                                mediaPlayer.pause();
-                                mIsPaused = true;
-                                setButtonStart();
-                                sweepCounter = 0;
+        final Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                Log.e(TAG,"Started Thread");
+                while(mIsPaused != true){
+                    runCaneGame();
+                }
+                Log.e(TAG,"Ended the Thread");
+            }
+        };
 
-                            }
-                        }
+        startStopButton.setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
 
+                if (mIsPaused) {
+                    setButtonPause();
+                    mIsPaused = false;
 
+                    //Start the audio thread
+                    Thread runThread = new Thread(runnable);
+                    runThread.start();
+                }
+                else {
+                    sendReward(false);
+                    mIsPaused = true;
+                    setButtonStart();
+                    sweepCounter = 0;
 
-                    });
                 }
+            }
 
-            });
-            mediaPlayer.prepareAsync();
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-        }
 
-        if (mIsPaused) {
-            setButtonStart();
-        }
+
+        });
     }
 
     public CompoundButton.OnCheckedChangeListener rewardAtCheckBoxListener = new CompoundButton.OnCheckedChangeListener() {
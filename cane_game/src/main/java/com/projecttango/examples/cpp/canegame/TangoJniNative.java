@@ -68,6 +68,23 @@ public class TangoJniNative {
     public static native void connect();
 
     public static native void disconnect();
+
+    /** Tag family ids understood by {@link #setTagFamilies(int[])}. */
+    public static final int TAG16H5 = 0;
+    public static final int TAG25H7 = 1;
+    public static final int TAG25H9 = 2;
+    public static final int TAG36H9 = 3;
+    public static final int TAG36H11 = 4;
+
+    /**
+     * Select the AprilTag families returnArrayFisheye looks for. All
+     * families are decoded with one lookup per tag size, so adding a
+     * family costs little. Defaults to TAG36H11.
+     *
+     * @param tagFamilies ids from the TAG* constants; unknown ids are ignored.
+     */
+    public static native void setTagFamilies(int[] tagFamilies);
+
     // byte[] instead of void
 
     public static native void returnArrayFisheye(byte[] fisheyePixels,
@@ -42,6 +42,15 @@ struct UnionFind {
 		}
 	}
 
+	//re-initialize for ids in [0, maxid-1], keeping the allocated storage
+	inline void reset(int maxid) {
+		parent.resize(maxid);
+		rank.resize(maxid);
+		for(int i=0; i<maxid; ++i) {
+			parent[i]=i;
+			rank[i]=1;
+		}
+	}
 	inline int ClassSize(int id) {
 		return rank[Find(id)];
 	}
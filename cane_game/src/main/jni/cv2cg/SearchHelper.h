@@ -47,6 +47,13 @@ struct Gridder {
 	int count;
 
 	Gridder(double x0, double y0, double x1, double y1, double metersPerCell) {
+		reset(x0, y0, x1, y1, metersPerCell);
+	}
+
+	/** Empty the table and re-initialize its bounds. Cells that already
+	 * exist keep their storage, so a Gridder reused for frames of the
+	 * same size does not allocate. **/
+	inline void reset(double x0, double y0, double x1, double y1, double metersPerCell) {
 		this->x0 = x0;
 		this->y0 = y0;
 		this->metersPerCell = metersPerCell;
@@ -60,6 +67,9 @@ struct Gridder {
 		cells.resize(height);
 		for(int i=0; i<height; ++i) {
 			cells[i].resize(width);
+			for(int j=0; j<width; ++j) {
+				cells[i][j].clear();
+			}
 		}
 		count = 0;
 	}
@@ -0,0 +1,178 @@
+#pragma once
+/* TagCodeIndex.hpp
+	merged lookup table over the codes of several tag families
+
+	TagFamily::decode compares an observed code with every code of the
+	family in all four rotations, and TagDetector used to repeat that for
+	every family. The index below stores, once, every valid code in each
+	of its four rotations in a flat array sorted by code. Families whose
+	tags have the same dimension share one array, so decoding a quad costs
+	one sampling pass and one lookup per distinct tag dimension, no matter
+	how many families are enabled.
+
+	Bit errors are recovered at lookup time rather than stored, so the
+	table holds 4 entries of 24 bytes per code, about 500 KB for the 5329
+	codes of Tag36h9 whatever errorRecoveryBits is. A lookup is a binary
+	search for the observed code, then one more for each of its single
+	bit flips if a family recovers 1 bit. Families that recover more bits
+	fall back to comparing the observed code with every entry of the
+	group, as TagFamily::decode does, since probing every combination of
+	2 or more flips costs more than that scan.
+*/
+
+#include <algorithm>
+#include <vector>
+
+#include "TagTypes.hpp"
+#include "TagFamily.hpp"
+#include "TagDetection.hpp"
+
+namespace april
+{
+namespace tag
+{
+
+struct TagCodeIndex {
+	/** One valid code in one rotation. **/
+	struct Entry {
+		UINT64 code;  // rotate90^j of the family's code
+		int family;   // index into the detector's tagFamilies
+		int id;
+		int rotation; // further rotations that line code up with the family's code
+		int order;    // position in family, id, rotation order, to break ties
+
+		bool operator<(const Entry& other) const {
+			return code < other.code;
+		}
+	};
+
+	/** All families that share a tag dimension and black border width,
+	 * i.e. all families that can be read off a quad with the same
+	 * sampling grid. **/
+	struct Group {
+		int d;
+		int blackBorder;
+		int bits;
+		// largest errorRecoveryBits of the group's families
+		int maxErrors;
+		// sorted by code
+		std::vector<Entry> codes;
+	};
+
+	std::vector<Group> groups;
+
+	TagCodeIndex() {}
+
+	explicit TagCodeIndex(const std::vector< cv::Ptr<TagFamily> >& families) {
+		build(families);
+	}
+
+	/** (Re)build the index. Call again whenever a family's
+	 * errorRecoveryBits changes. **/
+	void build(const std::vector< cv::Ptr<TagFamily> >& families) {
+		groups.clear();
+		int order = 0;
+		for (int f = 0; f < (int)families.size(); ++f) {
+			const TagFamily& family = *families[f];
+			Group& group = groupFor(family.d, family.blackBorder, family.bits);
+			group.maxErrors = (std::max)(group.maxErrors, family.errorRecoveryBits);
+			for (int id = 0; id < (int)family.codes.size(); ++id) {
+				UINT64 rotated = family.codes[id];
+				for (int j = 0; j < 4; ++j) {
+					// an observed code equal to rotate90^j(code) needs
+					// (4-j)%4 further rotations to line up with code.
+					Entry e;
+					e.code = rotated;
+					e.family = f;
+					e.id = id;
+					e.rotation = (4 - j) % 4;
+					e.order = order++;
+					group.codes.push_back(e);
+					rotated = TagFamily::rotate90(rotated, family.d);
+				}
+			}
+		}
+		for (int g = 0; g < (int)groups.size(); ++g) {
+			// stable, so equal codes stay in family order
+			std::stable_sort(groups[g].codes.begin(), groups[g].codes.end());
+		}
+	}
+
+	/** Look up an observed code read with the group's sampling grid.
+	 * On success, fills in the same fields TagFamily::decode would
+	 * and returns the index of the matching family. Returns -1 if the
+	 * code is not within errorRecoveryBits of any code. Of several
+	 * matches the closest wins, and on a tie the family listed first,
+	 * which is the order the old per-family loop tried them in. **/
+	int decode(const Group& group, UINT64 rcode, const std::vector< cv::Ptr<TagFamily> >& families,
+	           TagDetection& det) const {
+		int hamming = 0;
+		const Entry* best = find(group, rcode, 0, families, NULL);
+		if (best == NULL && group.maxErrors == 1) {
+			hamming = 1;
+			for (int b = 0; b < group.bits; ++b) {
+				best = find(group, rcode ^ (((UINT64)1) << b), 1, families, best);
+			}
+		} else if (best == NULL && group.maxErrors > 1) {
+			for (int i = 0; i < (int)group.codes.size(); ++i) {
+				const Entry& e = group.codes[i];
+				int h = hammingDistance(rcode, e.code);
+				if (h > families[e.family]->errorRecoveryBits) {
+					continue;
+				}
+				if (best == NULL || h < hamming || (h == hamming && e.order < best->order)) {
+					best = &e;
+					hamming = h;
+				}
+			}
+		}
+		if (best == NULL) {
+			return -1;
+		}
+		det.id = best->id;
+		det.hammingDistance = hamming;
+		det.rotation = best->rotation;
+		det.good = true;
+		det.obsCode = rcode;
+		det.code = families[best->family]->codes[best->id];
+		return best->family;
+	}
+
+private:
+	Group& groupFor(int d, int blackBorder, int bits) {
+		for (int i = 0; i < (int)groups.size(); ++i) {
+			if (groups[i].d == d && groups[i].blackBorder == blackBorder) {
+				return groups[i];
+			}
+		}
+		groups.push_back(Group());
+		groups.back().d = d;
+		groups.back().blackBorder = blackBorder;
+		groups.back().bits = bits;
+		groups.back().maxErrors = 0;
+		return groups.back();
+	}
+
+	/** The first entry for code whose family recovers at least errors
+	 * bits, if it comes before best; otherwise best. **/
+	static const Entry* find(const Group& group, UINT64 code, int errors,
+	                         const std::vector< cv::Ptr<TagFamily> >& families,
+	                         const Entry* best) {
+		Entry key;
+		key.code = code;
+		std::vector<Entry>::const_iterator itr =
+			std::lower_bound(group.codes.begin(), group.codes.end(), key);
+		for (; itr != group.codes.end() && itr->code == code; ++itr) {
+			if (families[itr->family]->errorRecoveryBits >= errors) {
+				if (best == NULL || itr->order < best->order) {
+					return &*itr;
+				}
+				break;
+			}
+		}
+		return best;
+	}
+};
+
+}//end of tag
+}//end of april
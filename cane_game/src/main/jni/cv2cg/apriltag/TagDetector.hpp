@@ -54,9 +54,11 @@
 #include <iostream>
 #include <string>
 #include <map>
+#include <algorithm>
 #include "AllHelpers.h"
 
 #include "TagFamily.hpp"
+#include "TagCodeIndex.hpp"
 #include "TagUtils.hpp"
 
 #ifndef TAG_DEBUG_DRAW
@@ -78,9 +80,94 @@ using std::vector;
 using std::map;
 using SearchHelper::Gridder;
 
+/** Scratch buffers used by TagDetector::process. A workspace keeps its
+ * images, union-find, edge list, clusters and segments between frames
+ * and only grows them, so processing a stream of equally sized frames
+ * stops allocating after the first one. A workspace must not be shared
+ * between threads; give each detecting thread its own. **/
+struct DetectorWorkspace {
+	typedef cv::Vec3d Pixel;
+	typedef vector<Pixel> PixelList;
+
+	// step one and two: float image, filtered images and gradients
+	Mat fimOrig, fim, fimseg, fimDecimated;
+	Mat fimTheta, fimMag;
+
+	// step three: segmentation
+	helper::UnionFind uf;
+	vector<UINT64> edges;
+	vector<double> tmin, tmax, mmin, mmax;
+	vector<int> sortCounts;
+	vector<UINT64> sortedEdges;
+
+	// step four: per-cluster pixel lists, indexed through clusterIndex
+	vector<int> clusterIndex; // rep -> index into clusterPixels, -1 if unused
+	vector<int> clusterReps;
+	vector<PixelList> clusterPixels;
+	int nclusters;
+
+	// step five to eight
+	vector<Segment> segments;
+	int nsegments;
+	Gridder<Segment> gridder;
+	vector<Quad> quads;
+	vector<cv::Vec3f> borderSamples; // (x, y, gray) of the black ring cells
+	vector<TagDetection> detections;
+
+	DetectorWorkspace() : uf(0), nclusters(0), nsegments(0), gridder(0, 0, 0, 0, 10) {}
+
+	/** Reuse the next cluster slot for representative rep. **/
+	inline PixelList& clusterFor(int rep) {
+		int idx = clusterIndex[rep];
+		if (idx < 0) {
+			idx = nclusters++;
+			if (idx == (int)clusterPixels.size()) {
+				clusterPixels.push_back(PixelList());
+			} else {
+				clusterPixels[idx].clear();
+			}
+			clusterIndex[rep] = idx;
+			clusterReps.push_back(rep);
+		}
+		return clusterPixels[idx];
+	}
+
+	/** Reuse the next segment slot, dropping its old children. **/
+	inline Segment& nextSegment() {
+		if (nsegments == (int)segments.size()) {
+			segments.push_back(Segment());
+		}
+		Segment& seg = segments[nsegments++];
+		seg.children.clear();
+		return seg;
+	}
+
+	/** (Re)allocate m if its geometry changed. Freshly allocated
+	 * images are zeroed, so border pixels that are never written
+	 * read as zero gradient. **/
+	static void ensureZeroed(Mat& m, cv::Size size, int type) {
+		if (m.size() != size || m.type() != type) {
+			m.create(size, type);
+			m.setTo(0);
+		}
+	}
+
+	template<typename T>
+	static void ensureSize(vector<T>& v, size_t n) {
+		if (v.size() < n) {
+			v.resize(n);
+		}
+	}
+};
+
 struct TagDetector {
 	std::vector< Ptr<TagFamily> > tagFamilies; //support for multi-tag-family
 
+	/** Codes of all tagFamilies, merged per tag dimension. Rebuild with
+	 * updateCodeIndex() after changing tagFamilies or their
+	 * errorRecoveryBits. **/
+	TagCodeIndex codeIndex;
+
 	/** Gaussian smoothing kernel applied to image (0 == no filter)
 	 * used when sampling bits. Filtering is a good idea in cases
 	 * where A) a cheap camera is introducing artifical sharpening, B)
@@ -142,6 +229,14 @@ struct TagDetector {
 	/** Early pruning of quads which have insane aspect ratios. **/
 	double maxQuadAspectRatio;
 
+	/** Early pruning of quads before their bits are read. A quad is
+	 * dropped if the white and black border models differ by less than
+	 * minBorderContrast (in [0,1] gray levels) at the center, or if
+	 * more than maxBorderWhiteFraction of the black border cells read
+	 * as white. **/
+	double minBorderContrast;
+	double maxBorderWhiteFraction;
+
 #if TAG_DEBUG_PERFORMANCE
 	double steptime[9];
 #endif
@@ -177,7 +272,36 @@ struct TagDetector {
 		minimumSegmentSize = 4;
 		minimumTagSize = 6;
 		maxQuadAspectRatio = 32;
+		minBorderContrast = 0.05;
+		maxBorderWhiteFraction = 0.25;
 		WEIGHT_SCALE = 100; //10000;
+		updateCodeIndex();
+	}
+
+	void updateCodeIndex() {
+		codeIndex.build(tagFamilies);
+	}
+
+	/** Check the black border ring sampled in step eight against the
+	 * gray threshold implied by the two border models. **/
+	bool hasBlackBorder(GrayModel& blackModel, GrayModel& whiteModel,
+	                    const vector<cv::Vec3f>& samples) const {
+		if (samples.empty()) {
+			return false;
+		}
+		if (whiteModel.interpolate(.5, .5) - blackModel.interpolate(.5, .5) < minBorderContrast) {
+			return false;
+		}
+		int maxWhite = (int) (maxBorderWhiteFraction * samples.size());
+		int white = 0;
+		for (size_t k = 0; k < samples.size(); ++k) {
+			const cv::Vec3f& s = samples[k];
+			double threshold = (blackModel.interpolate(s[0], s[1]) + whiteModel.interpolate(s[0], s[1]))*.5;
+			if (s[2] > threshold && ++white > maxWhite) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	int edgeCost(double theta0, double mag0, double theta1, double mag1) const {
@@ -225,6 +349,15 @@ struct TagDetector {
 	 * stable.
 	 **/
 	static void countingSortLongArray(vector<UINT64>& v, int vlength, int maxv, UINT64 mask) {
+		vector<int> counts;
+		vector<UINT64> newv;
+		countingSortLongArray(v, vlength, maxv, mask, counts, newv);
+	}
+
+	/** Same as above, but uses the caller's counts and newv as scratch
+	 * space so that repeated calls do not allocate. **/
+	static void countingSortLongArray(vector<UINT64>& v, int vlength, int maxv, UINT64 mask,
+	                                  vector<int>& counts, vector<UINT64>& newv) {
 		if (maxv < 0) {
 			for (int i = 0; i < vlength; i++) {
 				maxv = (std::max)(maxv, (int) (v[i]&mask));
@@ -237,7 +370,7 @@ struct TagDetector {
 		// that the initial position for weight w is only affected by
 		// the number of weights less than w, hence the +1 in
 		// counts[w+1].
-		vector<int> counts(maxv+2, 0);
+		counts.assign(maxv+2, 0);
 
 		for (int i = 0; i < vlength; i++) {
 			int w = (int) (v[i]&mask);
@@ -249,14 +382,14 @@ struct TagDetector {
 			counts[i] += counts[i-1];
 		}
 
-		vector<UINT64> newv(vlength, 0);
+		DetectorWorkspace::ensureSize(newv, vlength);
 		for (int i = 0; i < vlength; i++) {
 			int w = (int) (v[i]&mask);
 			newv[counts[w]] = v[i];
 			counts[w]++;
 		}
 
-		v.swap(newv);
+		std::copy(newv.begin(), newv.begin() + vlength, v.begin());
 	}
 
 	/**************************************************************/
@@ -265,6 +398,15 @@ struct TagDetector {
 	/** Detect the features in the specified image.
 	 **/
 	void process(const Mat& im, vector<TagDetection>& goodDetections) const {
+		DetectorWorkspace ws;
+		process(im, goodDetections, ws);
+	}
+
+	/** Detect the features in the specified image, keeping all
+	 * intermediate buffers in ws so they can be reused by the next
+	 * call.
+	 **/
+	void process(const Mat& im, vector<TagDetection>& goodDetections, DetectorWorkspace& ws) const {
 		// This is a very long function, but it can't really be
 		// factored any more simply: it's just a long sequence of
 		// sequential operations.
@@ -276,10 +418,10 @@ struct TagDetector {
 		///////////////////////////////////////////////////////////
 		// Step one. Preprocess image (convert to float (grayscale) [0,1]
 		// and low pass if necessary.)
-		Mat fimOrig;
+		Mat& fimOrig = ws.fimOrig;
 		helper::green2float(im, fimOrig);
 
-		Mat fim = fimOrig;
+		Mat& fim = (sigma > 0) ? ws.fim : fimOrig;
 		if (sigma > 0) {
 			int filtsz = ((int) (std::max)(3.0, 3*sigma)) | 1;
 			GaussianBlur(fimOrig, fim, cv::Size(filtsz,filtsz), sigma);
@@ -304,25 +446,28 @@ struct TagDetector {
 		// theta estimates will break up segments, causing us to miss
 		// quads. It is helpful to do a Gaussian low-pass on this step
 		// even if we don't want it for decoding.
-		Mat fimseg = fimOrig; // default
+		const Mat* segsrc = &fimOrig; // default
 		if (segSigma > 0) {
 			if (segSigma == sigma) {
 				// reuse the already-filtered image...
-				fimseg = fim;
+				segsrc = &fim;
 			} else {
 				// blur anew.
 				int filtsz = ((int) (std::max)(3.0, 3*segSigma)) | 1;
-				GaussianBlur(fimOrig, fimseg, cv::Size(filtsz,filtsz), segSigma);
+				GaussianBlur(fimOrig, ws.fimseg, cv::Size(filtsz,filtsz), segSigma);
+				segsrc = &ws.fimseg;
 			}
 		}
 		if (segDecimate) {
-			Mat tmp;
-			pyrDown(fimseg, tmp);
-			fimseg = tmp;
+			pyrDown(*segsrc, ws.fimDecimated);
+			segsrc = &ws.fimDecimated;
 		}
+		const Mat& fimseg = *segsrc;
 
-		Mat fimTheta(fimseg.size(), fimseg.type());
-		Mat fimMag(fimseg.size(), fimseg.type());
+		Mat& fimTheta = ws.fimTheta;
+		Mat& fimMag = ws.fimMag;
+		DetectorWorkspace::ensureZeroed(fimTheta, fimseg.size(), fimseg.type());
+		DetectorWorkspace::ensureZeroed(fimMag, fimseg.size(), fimseg.type());
 
 		for (int y = 1; y+1 < fimseg.rows; y++) {
 			for (int x = 1; x+1 < fimseg.cols; x++) {
@@ -358,12 +503,14 @@ struct TagDetector {
 		// Step three. Segment the edges, grouping pixels with similar
 		// thetas together. This is a greedy algorithm: we start with
 		// the most similar pixels.  We use 4-connectivity.
-		helper::UnionFind uf(fimseg.cols*fimseg.rows);
+		helper::UnionFind& uf = ws.uf;
+		uf.reset(fimseg.cols*fimseg.rows);
 		{
 			int width = fimseg.cols;
 			int height = fimseg.rows;
 
-			vector<UINT64> edges(width*height*4, 0);
+			vector<UINT64>& edges = ws.edges;
+			DetectorWorkspace::ensureSize(edges, width*height*4);
 			int nedges = 0;
 
 			// for efficiency, each edge is encoded as a single
@@ -374,11 +521,18 @@ struct TagDetector {
 			// bounds on the thetas assigned to this group. Note that
 			// because theta is periodic, these are defined such that the
 			// average value is contained *within* the interval.
-			vector<double> tmin(width*height, 0);
-			vector<double> tmax(width*height, 0);
-
-			vector<double> mmin(width*height, 0);
-			vector<double> mmax(width*height, 0);
+			// Only entries of pixels with mag >= minMag are ever read,
+			// and those are written below, so stale values from a
+			// previous frame do not need to be cleared.
+			vector<double>& tmin = ws.tmin;
+			vector<double>& tmax = ws.tmax;
+			DetectorWorkspace::ensureSize(tmin, width*height);
+			DetectorWorkspace::ensureSize(tmax, width*height);
+
+			vector<double>& mmin = ws.mmin;
+			vector<double>& mmax = ws.mmax;
+			DetectorWorkspace::ensureSize(mmin, width*height);
+			DetectorWorkspace::ensureSize(mmax, width*height);
 
 			for (int y = 1; y+1 < fimseg.rows; y++) {
 				for (int x = 1; x+1 < fimseg.cols; x++) {
@@ -422,7 +576,7 @@ struct TagDetector {
 				}
 			}
 			// sort those edges by weight (lowest weight first).
-			countingSortLongArray(edges, nedges, -1, WEIGHT_MASK);
+			countingSortLongArray(edges, nedges, -1, WEIGHT_MASK, ws.sortCounts, ws.sortedEdges);
 			// process edges in order of increasing weight, merging
 			// clusters if we can do so without exceeding the
 			// thetaThresh.
@@ -486,10 +640,13 @@ struct TagDetector {
 #if TAG_DEBUG_DRAW
 		Mat debugSegmentation = Mat::zeros(fimseg.size(), CV_8UC3);
 #endif
-		typedef cv::Vec3d Pixel;
-		typedef vector<Pixel> PixelList;
-		typedef map<int, PixelList> PixelCluster;
-		PixelCluster clusters;
+		typedef DetectorWorkspace::Pixel Pixel;
+		typedef DetectorWorkspace::PixelList PixelList;
+		ws.nclusters = 0;
+		ws.clusterReps.clear();
+		if ((int)ws.clusterIndex.size() < fimseg.cols*fimseg.rows) {
+			ws.clusterIndex.resize(fimseg.cols*fimseg.rows, -1);
+		}
 		for (int y = 0; y+1 < fimseg.rows; y++) {
 			for (int x = 0; x+1 < fimseg.cols; x++) {
 				int pid = y*fimseg.cols+x;
@@ -504,34 +661,31 @@ struct TagDetector {
 				pix[1]=(char)(rep&0x00FF00)>>8;
 				pix[0]=(char)rep&0x0000FF;
 #endif
-				PixelCluster::iterator itr = clusters.find(rep);
-				if (itr == clusters.end()) {
-					std::pair<PixelCluster::iterator,bool> tmp =
-					    clusters.insert(PixelCluster::value_type(rep,PixelList()));
-					itr = tmp.first;
-				}
-
-				itr->second.push_back(Pixel(x,y,fimMag.at<float>(y,x)));
+				ws.clusterFor(rep).push_back(Pixel(x,y,fimMag.at<float>(y,x)));
 			}
 		}
 #if TAG_DEBUG_PERFORMANCE
 		gsteptime[3] = PM.toctic();
-		logld(">>> clusters.size()="<<clusters.size());
+		logld(">>> clusters.size()="<<ws.nclusters);
 #endif
 		///////////////////////////////////////////////////////////
 		// Step five. Loop over the clusters, fitting lines (which we
 		// call Segments).
-		vector<Segment> segments;
-		segments.reserve(300);
-
-		PixelCluster::iterator itr = clusters.begin();
-		for (; itr!=clusters.end(); ++itr) {
-			PixelList &points = itr->second;
-			Segment seg;
+		// visit clusters in order of their representative, as the
+		// std::map used originally did, so results do not depend on
+		// the workspace's history.
+		std::sort(ws.clusterReps.begin(), ws.clusterReps.end());
+		ws.nsegments = 0;
+		for (int ci = 0; ci < (int)ws.clusterReps.size(); ++ci) {
+			int rep = ws.clusterReps[ci];
+			PixelList &points = ws.clusterPixels[ws.clusterIndex[rep]];
+			ws.clusterIndex[rep] = -1; // leave the index clean for the next frame
+			Segment &seg = ws.nextSegment();
 			seg.fitBy(points);
 
 			// filter short lines
 			if (seg.length < minimumLineLength) {
+				ws.nsegments--;
 				continue;
 			}
 
@@ -588,15 +742,14 @@ struct TagDetector {
 				seg.y1 = 2*seg.y1 + .5;
 				seg.length *= 2;
 			}
-
-			segments.push_back(seg);
 		}
-		segments.resize(segments.size());
+		Segment *segments = ws.segments.empty() ? 0 : &ws.segments[0];
+		const int nsegments = ws.nsegments;
 
 		int width = fim.cols, height = fim.rows;
 
 #if TAG_DEBUG_PERFORMANCE
-		logld(">>> segments.size()="<<segments.size());
+		logld(">>> segments.size()="<<nsegments);
 		gsteptime[4] = PM.toctic();
 #endif
 		////////////////////////////////////////////////////////////////
@@ -604,20 +757,21 @@ struct TagDetector {
 		// this segment ends. (We will chain segments together
 		// next...) The gridder accelerates the search by building
 		// (essentially) a 2D hash table.
-		Gridder<Segment> gridder(0, 0, width, height, 10);
+		Gridder<Segment>& gridder = ws.gridder;
+		gridder.reset(0, 0, width, height, 10);
 
 		// add every segment to the hash table according to the
 		// position of the segment's first point. (Remember that the
 		// first point has a specific meaning due to our left-hand
 		// rule above.)
-		for(int i=0; i<(int)segments.size(); ++i) {
+		for(int i=0; i<nsegments; ++i) {
 			Segment &seg = segments[i];
 			gridder.add(seg.x0,seg.y0,&seg);
 		}
 
 		// Now, find child segments that begin where each parent
 		// segments ends.
-		for(int i=0; i<(int)segments.size(); ++i) {
+		for(int i=0; i<nsegments; ++i) {
 			Segment &parent = segments[i];
 
 			Gridder<Segment>::Iterator itr = gridder.find(parent.x1, parent.y1, 0.5*parent.length);
@@ -649,10 +803,11 @@ struct TagDetector {
 		////////////////////////////////////////////////////////////////
 		// Step seven. Search all connected segments to see if any
 		// form a loop of length 4. Add those to the quads list.
-		vector<Quad> quads;
+		vector<Quad>& quads = ws.quads;
+		quads.clear();
 		{
 			Segment *tmp[5];
-			for(int i=0; i<(int)segments.size(); ++i) {
+			for(int i=0; i<nsegments; ++i) {
 				Segment *segptr = &(segments[i]);
 				tmp[0] = segptr;
 				search(quads, tmp, segptr, 0);
@@ -682,23 +837,29 @@ struct TagDetector {
 		// Step eight. Decode the quads. For each quad, we first
 		// estimate a threshold color to decided between 0 and
 		// 1. Then, we read off the bits and see if they make sense.
-		vector<TagDetection> detections;
+		vector<TagDetection>& detections = ws.detections;
+		detections.clear();
+
+		vector<cv::Vec3f>& borderSamples = ws.borderSamples;
 
 		for(int i=0; i<(int)quads.size(); ++i) {
 			Quad &quad = quads[i];
 
-			for(int i=0; i<(int)tagFamilies.size(); ++i) {
-				const TagFamily& tagFamily = *tagFamilies[i];
+			// families with the same grid share a sampling pass and one
+			// lookup in the merged code index.
+			for(int g=0; g<(int)codeIndex.groups.size(); ++g) {
+				const TagCodeIndex::Group& group = codeIndex.groups[g];
 
 				// Find a threshold
 				GrayModel blackModel;
 				GrayModel whiteModel;
+				borderSamples.clear();
 
 				// sample points around the black and white border in
 				// order to calibrate our gray threshold. This code is
 				// simpler if we loop over the whole rectangle and discard
 				// the points we don't want.
-				int dd = 2*tagFamily.blackBorder + tagFamily.d;
+				int dd = 2*group.blackBorder + group.d;
 
 				for (int iy = -1; iy <= dd; iy++) {
 					for (int ix = -1; ix <= dd; ix++) {
@@ -725,6 +886,7 @@ struct TagDetector {
 						} else if ((iy == 0 || iy == (dd-1)) || (ix == 0 || ix == (dd-1))) {
 							// part of the outer black border.
 							blackModel.addObservation(x, y, v);
+							borderSamples.push_back(cv::Vec3f((float)x, (float)y, v));
 #if TAG_DEBUG_DRAW
 							circle(debugSegmentation, cv::Point(px*tmpscale,py*tmpscale), 2, helper::CV_BLUE, 2, -1);
 #endif
@@ -732,15 +894,23 @@ struct TagDetector {
 					}
 				}
 
+				// Early reject: a real tag has a dark ring inside a light
+				// one. Quads whose ring is washed out or reads as white
+				// in too many cells are not tags, so don't bother reading
+				// their payload bits.
+				if (!hasBlackBorder(blackModel, whiteModel, borderSamples)) {
+					continue;
+				}
+
 				bool bad = false;
 				UINT64 tagCode = 0;
 
 				// Try reading off the bits.
 				// XXX: todo: multiple samples within each cell and vote?
-				for (int iy = tagFamily.d-1; iy >= 0; iy--) {
-					for (int ix = 0; ix < tagFamily.d; ix++) {
-						double y = (tagFamily.blackBorder + iy + .5) / dd;
-						double x = (tagFamily.blackBorder + ix + .5) / dd;
+				for (int iy = group.d-1; iy >= 0; iy--) {
+					for (int ix = 0; ix < group.d; ix++) {
+						double y = (group.blackBorder + iy + .5) / dd;
+						double x = (group.blackBorder + ix + .5) / dd;
 
 						double px, py;
 						quad.interpolate01(x, y, px, py);
@@ -769,7 +939,10 @@ struct TagDetector {
 
 				if (!bad) {
 					TagDetection d;
-					tagFamily.decode(d, tagCode);
+					int family = codeIndex.decode(group, tagCode, tagFamilies, d);
+					if (family < 0) {
+						continue;
+					}
 
 					// rotate points in detection according to decoded
 					// orientation. Thus the order of the points in the
@@ -795,15 +968,13 @@ struct TagDetector {
 						helper::mul(3,3,3,3,homo[0],R[0],d.homography[0]);
 					}
 
-					if (d.good) {
-						quad.interpolate01(.5, .5, d.cxy[0], d.cxy[1]);
-						d.observedPerimeter = quad.observedPerimeter;
-						d.familyName = tagFamily.familyName();
-						detections.push_back(d);
-						break;//break out of tagFamilies for loop
-					}
+					quad.interpolate01(.5, .5, d.cxy[0], d.cxy[1]);
+					d.observedPerimeter = quad.observedPerimeter;
+					d.familyName = tagFamilies[family]->familyName();
+					detections.push_back(d);
+					break;//break out of groups for loop
 				}
-			}//end of tagFamilies
+			}//end of groups
 		}//end of quads[]
 
 #if TAG_DEBUG_PERFORMANCE
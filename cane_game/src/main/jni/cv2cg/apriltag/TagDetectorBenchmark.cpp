@@ -0,0 +1,163 @@
+/* TagDetectorBenchmark.cpp
+	desktop benchmark comparing TagDetector::process with a fresh
+	DetectorWorkspace per frame (the old behaviour) against a single
+	reused workspace. Reports allocations per frame and latency
+	percentiles on a synthetic 640x480 fisheye-sized scene. Allocations
+	are counted twice over: through the global operator new, for the
+	vectors, and through a counting cv::MatAllocator installed as the
+	default, for the cv::Mat buffers, which come from cv::fastMalloc and
+	so never reach operator new.
+
+	This file is not part of the Android build. Build it on a desktop
+	with OpenCV installed, e.g.
+		g++ -O2 -std=c++11 -I.. -I../.. TagDetectorBenchmark.cpp \
+			`pkg-config --cflags --libs opencv` -o TagDetectorBenchmark
+		./TagDetectorBenchmark [frames]
+*/
+
+#include <algorithm>
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <new>
+#include <vector>
+
+#include "TagDetector.hpp"
+#include "TagFamilyFactory.hpp"
+
+static size_t gAllocations = 0;
+static size_t gMatAllocations = 0;
+
+void* operator new(size_t size) {
+	++gAllocations;
+	void* p = std::malloc(size);
+	if (!p) {
+		throw std::bad_alloc();
+	}
+	return p;
+}
+
+void operator delete(void* p) noexcept {
+	std::free(p);
+}
+
+using namespace april::tag;
+
+/** Counts the cv::Mat buffers allocated, and leaves the allocating to
+ * OpenCV's standard allocator. **/
+struct CountingMatAllocator : public cv::MatAllocator {
+	cv::MatAllocator* const target;
+
+	CountingMatAllocator() : target(cv::Mat::getStdAllocator()) {}
+
+	cv::UMatData* allocate(int dims, const int* sizes, int type, void* data,
+	                       size_t* step, int flags, cv::UMatUsageFlags usageFlags) const {
+		if (data == 0) {
+			// a Mat over memory the caller owns allocates nothing
+			++gMatAllocations;
+		}
+		return target->allocate(dims, sizes, type, data, step, flags, usageFlags);
+	}
+
+	bool allocate(cv::UMatData* data, int accessFlags, cv::UMatUsageFlags usageFlags) const {
+		return target->allocate(data, accessFlags, usageFlags);
+	}
+
+	void deallocate(cv::UMatData* data) const {
+		target->deallocate(data);
+	}
+};
+
+/** Paste a few tags of different sizes on a noisy gray background. **/
+static cv::Mat makeScene(const TagFamily& family) {
+	cv::Mat scene(480, 640, CV_8UC1, cv::Scalar(160));
+	cv::RNG rng(12345);
+	const int sizes[] = {160, 96, 64};
+	const int xs[] = {40, 300, 480};
+	const int ys[] = {60, 200, 320};
+	for (int i = 0; i < 3; ++i) {
+		cv::Mat tag, gray;
+		cv::resize(family.makeImage(i * 7), tag, cv::Size(sizes[i], sizes[i]), 0, 0, cv::INTER_NEAREST);
+		cv::cvtColor(tag, gray, cv::COLOR_BGR2GRAY);
+		gray.copyTo(scene(cv::Rect(xs[i], ys[i], sizes[i], sizes[i])));
+	}
+	cv::Mat noise(scene.size(), CV_8SC1);
+	rng.fill(noise, cv::RNG::NORMAL, 0, 6);
+	cv::add(scene, noise, scene, cv::noArray(), CV_8UC1);
+	return scene;
+}
+
+struct Stats {
+	double mean, p50, p99;
+	double allocationsPerFrame;
+	double matAllocationsPerFrame;
+	size_t detections;
+};
+
+static Stats run(const TagDetector& detector, const cv::Mat& scene, int frames, bool reuse) {
+	std::vector<double> times;
+	times.reserve(frames);
+	DetectorWorkspace shared;
+	size_t allocations = 0;
+	size_t matAllocations = 0;
+	size_t detections = 0;
+	for (int i = 0; i < frames; ++i) {
+		std::vector<TagDetection> found;
+		found.reserve(16);
+		size_t before = gAllocations;
+		size_t matBefore = gMatAllocations;
+		auto start = std::chrono::steady_clock::now();
+		if (reuse) {
+			detector.process(scene, found, shared);
+		} else {
+			detector.process(scene, found);
+		}
+		auto end = std::chrono::steady_clock::now();
+		if (i > 0) {
+			allocations += gAllocations - before;
+			matAllocations += gMatAllocations - matBefore;
+		}
+		detections = found.size();
+		times.push_back(std::chrono::duration<double, std::milli>(end - start).count());
+	}
+	// the first frame warms up the shared workspace; leave it out of both runs
+	times.erase(times.begin());
+	std::sort(times.begin(), times.end());
+	Stats stats;
+	double sum = 0;
+	for (size_t i = 0; i < times.size(); ++i) {
+		sum += times[i];
+	}
+	stats.mean = sum / times.size();
+	stats.p50 = times[times.size() / 2];
+	stats.p99 = times[(size_t)(0.99 * (times.size() - 1))];
+	stats.allocationsPerFrame = (double) allocations / times.size();
+	stats.matAllocationsPerFrame = (double) matAllocations / times.size();
+	stats.detections = detections;
+	return stats;
+}
+
+static void print(const char* name, const Stats& s) {
+	std::printf("%-18s mean %7.2f ms  p50 %7.2f ms  p99 %7.2f ms  allocs/frame %9.1f"
+	            "  Mat allocs/frame %6.1f  tags %d\n",
+	            name, s.mean, s.p50, s.p99, s.allocationsPerFrame, s.matAllocationsPerFrame,
+	            (int) s.detections);
+}
+
+int main(int argc, char** argv) {
+	int frames = argc > 1 ? std::atoi(argv[1]) : 200;
+	if (frames < 2) {
+		frames = 2;
+	}
+	std::vector< cv::Ptr<TagFamily> > families;
+	families.push_back(TagFamilyFactory::create(TagFamilyFactory::TAG36H11));
+	TagDetector detector(families);
+	cv::Mat scene = makeScene(*families[0]);
+	// installed after the scene is made, so only process() is counted
+	static CountingMatAllocator matAllocator;
+	cv::Mat::setDefaultAllocator(&matAllocator);
+
+	print("fresh workspace", run(detector, scene, frames, false));
+	print("reused workspace", run(detector, scene, frames, true));
+	return 0;
+}
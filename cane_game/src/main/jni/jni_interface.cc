@@ -60,7 +60,44 @@ float scale_factor;
 // Tango Service.
 
 std::vector<cv::Ptr<april::tag::TagFamily>> families = {april::tag::TagFamilyFactory::create(april::tag::TagFamilyFactory::TAG36H11)};
-april::tag::TagDetector apriltagDetector(families);
+
+// The detector is replaced, not modified, when the Java side selects other
+// tag families. Detecting threads take a reference under the lock and run
+// the detector outside it, so a swap never waits for a frame to finish.
+cv::Ptr<april::tag::TagDetector> apriltagDetector = cv::Ptr<april::tag::TagDetector>(new april::tag::TagDetector(families));
+pthread_mutex_t apriltagDetectorLock = PTHREAD_MUTEX_INITIALIZER;
+
+static cv::Ptr<april::tag::TagDetector> currentTagDetector() {
+    pthread_mutex_lock(&apriltagDetectorLock);
+    cv::Ptr<april::tag::TagDetector> detector = apriltagDetector;
+    pthread_mutex_unlock(&apriltagDetectorLock);
+    return detector;
+}
+
+// returnArrayFisheye is called from several Java threads at once, so every
+// thread gets its own detector workspace. The workspace keeps the detector's
+// scratch buffers alive between frames instead of reallocating them.
+pthread_key_t detectorWorkspaceKey;
+pthread_once_t detectorWorkspaceKeyOnce = PTHREAD_ONCE_INIT;
+
+static void deleteDetectorWorkspace(void* workspace) {
+    delete static_cast<april::tag::DetectorWorkspace*>(workspace);
+}
+
+static void createDetectorWorkspaceKey() {
+    pthread_key_create(&detectorWorkspaceKey, deleteDetectorWorkspace);
+}
+
+static april::tag::DetectorWorkspace& threadDetectorWorkspace() {
+    pthread_once(&detectorWorkspaceKeyOnce, createDetectorWorkspaceKey);
+    april::tag::DetectorWorkspace* workspace =
+            static_cast<april::tag::DetectorWorkspace*>(pthread_getspecific(detectorWorkspaceKey));
+    if (workspace == NULL) {
+        workspace = new april::tag::DetectorWorkspace();
+        pthread_setspecific(detectorWorkspaceKey, workspace);
+    }
+    return *workspace;
+}
 
 TangoConfig config;
 using namespace std;
@@ -319,6 +356,37 @@ Java_com_projecttango_examples_cpp_canegame_TangoJniNative_disconnect(JNIEnv
 
 }
 
+JNIEXPORT void JNICALL
+Java_com_projecttango_examples_cpp_canegame_TangoJniNative_setTagFamilies(JNIEnv* env,
+                                                                           jobject obj,
+                                                                           jintArray tagFamilies)
+{
+    std::vector<cv::Ptr<april::tag::TagFamily>> selected;
+    jsize count = env->GetArrayLength(tagFamilies);
+    jint *ids = env->GetIntArrayElements(tagFamilies, NULL);
+    if (ids == NULL) {
+        LOGE("setTagFamilies: could not read the tag families, keeping the current ones");
+        return;
+    }
+    for (jsize i = 0; i < count; i++) {
+        if (ids[i] < 0 || ids[i] >= april::tag::TagFamilyFactory::TAGTOTAL) {
+            LOGE("setTagFamilies: unknown tag family %d", ids[i]);
+            continue;
+        }
+        selected.push_back(april::tag::TagFamilyFactory::create(ids[i]));
+    }
+    env->ReleaseIntArrayElements(tagFamilies, ids, JNI_ABORT);
+    if (selected.empty()) {
+        LOGE("setTagFamilies: no valid tag family, keeping the current ones");
+        return;
+    }
+
+    // building the code index takes a while, so do it before taking the lock
+    cv::Ptr<april::tag::TagDetector> detector = cv::Ptr<april::tag::TagDetector>(new april::tag::TagDetector(selected));
+    pthread_mutex_lock(&apriltagDetectorLock);
+    apriltagDetector = detector;
+    pthread_mutex_unlock(&apriltagDetectorLock);
+}
 
 JNIEXPORT void
 JNICALL Java_com_projecttango_examples_cpp_canegame_TangoJniNative_returnArrayFisheye(
@@ -375,7 +443,7 @@ JNICALL Java_com_projecttango_examples_cpp_canegame_TangoJniNative_returnArrayFi
     double tag_size = .1;           // hardcoded for now
 
     vector<april::tag::TagDetection> detections;
-    apriltagDetector.process(undistortedImage, detections);
+    currentTagDetector()->process(undistortedImage, detections, threadDetectorWorkspace());
     auto endTags = chrono::steady_clock::now();
     jdouble *tD = env->GetDoubleArrayElements(tagDetection, NULL);
     jdouble *tP = env->GetDoubleArrayElements(tagPosition, NULL);